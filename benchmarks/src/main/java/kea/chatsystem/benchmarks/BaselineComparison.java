@@ -0,0 +1,142 @@
+package kea.chatsystem.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ * Compares a benchmark run with a saved baseline, both written by JMH with '-rf csv'. Prints the change of every benchmark
+ * found in both, and exits with 1 if any got slower than the threshold allows by more than the error of the two scores together.
+ * Usage: BaselineComparison baseline.csv results.csv [threshold in percent, default 10]
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class BaselineComparison {
+
+    /***
+     * Main method
+     * @param args The baseline file, the results file, and optionally the threshold in percent
+     * @throws IOException if a file could not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BaselineComparison baseline.csv results.csv [threshold in percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> results = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result before = baseline.get(entry.getKey());
+            Result after = entry.getValue();
+            if (before == null) {
+                System.out.printf("%-90s %14.3f %s (new)%n", entry.getKey(), after.score, after.unit);
+                continue;
+            }
+
+            //a lower score is better for time per operation, a higher score for operations per time
+            boolean lowerIsBetter = !after.unit.startsWith("ops/");
+            double change = (after.score - before.score) / before.score;
+            double worse = lowerIsBetter ? after.score - before.score : before.score - after.score;
+            boolean regression = (lowerIsBetter ? change : -change) > threshold && worse > before.error + after.error;
+            if (regression) {
+                regressions++;
+            }
+
+            System.out.printf("%-90s %14.3f -> %14.3f %s %+7.1f%%%s%n", entry.getKey(), before.score, after.score, after.unit,
+                    change * 100, regression ? "  REGRESSION" : "");
+        }
+
+        System.out.println(regressions + " regression(s) beyond " + Math.round(threshold * 100) + "%.");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /***
+     * Reads the results in a JMH csv file
+     * @param path The path of the file
+     * @return the results, by benchmark name and parameters
+     * @throws IOException if the file could not be read
+     */
+    private static Map<String, Result> read(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return results;
+        }
+
+        List<String> header = split(lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> columns = split(line);
+            StringBuilder key = new StringBuilder(columns.get(0));
+            for (int i = 7; i < columns.size() && i < header.size(); i++) {
+                if (!columns.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(columns.get(i));
+                }
+            }
+            results.put(key.toString(), new Result(Double.parseDouble(columns.get(4)),
+                    columns.get(5).isEmpty() || columns.get(5).equals("NaN") ? 0 : Double.parseDouble(columns.get(5)), columns.get(6)));
+        }
+
+        return results;
+    }
+
+    /***
+     * Splits a csv line into its columns, without the quotes around them
+     * @param line The line
+     * @return the columns
+     */
+    private static List<String> split(String line) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder column = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                columns.add(column.toString());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+        columns.add(column.toString());
+
+        return columns;
+    }
+
+    /***
+     * The score of a benchmark
+     */
+    private static class Result {
+
+        private double score;
+        private double error;
+        private String unit;
+
+        /***
+         * Constructor for a result
+         * @param score The score
+         * @param error The error of the score
+         * @param unit The unit of the score
+         */
+        private Result(double score, double error, String unit) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+}
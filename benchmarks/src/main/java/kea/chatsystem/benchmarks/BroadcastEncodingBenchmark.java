@@ -0,0 +1,79 @@
+package kea.chatsystem.benchmarks;
+
+import kea.chatsystem.server.Broadcaster;
+import kea.chatsystem.server.SenderShard;
+import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.ClientSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Benchmarks the encoding the watcher does once per batch before the sender shards fan it out: the text lines packed into
+ * datagrams and a push frame, and the binary v2 frames as well while a binary client is among the recipients.
+ * The broadcaster has no shards, so nothing is sent.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastEncodingBenchmark {
+
+    @Param({"1", "64"})
+    private int messages;
+
+    @Param({"false", "true"})
+    private boolean binary;
+
+    private Broadcaster broadcaster;
+    private List<String> batch;
+    private ClientSnapshot recipients;
+
+    /***
+     * Builds a batch of DATA lines from 16 users, and a snapshot with a single text or binary client
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        broadcaster = new Broadcaster(new SenderShard[0], 1472, true, true);
+
+        batch = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            batch.add("DATA user" + i % 16 + ": message number " + i + " of the batch, with some text to fill it out");
+        }
+
+        String username = binary ? "binary" : "texter";
+        ClientInfo clientInfo = new ClientInfo(username, InetAddress.getLoopbackAddress(), 40000, System.currentTimeMillis(),
+                ClientList.getInstance().getUserId(username), binary);
+        recipients = new ClientSnapshot(List.of(clientInfo), 1, 1);
+    }
+
+    /***
+     * Encodes the batch
+     * @throws InterruptedException never, there are no shards to wait for
+     */
+    @Benchmark
+    public void encode() throws InterruptedException {
+        broadcaster.broadcast(batch, recipients, null);
+    }
+}
@@ -0,0 +1,166 @@
+package kea.chatsystem.benchmarks;
+
+import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.PresenceLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Benchmarks the active client list with 1k to 100k users joined: a heartbeat, a join followed by a leave,
+ * an expiry tick of the watcher when no client has timed out, and churn: workers joining and leaving while the watcher
+ * takes the presence changes and builds the LIST snapshot at the same time.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ClientListBenchmark {
+
+    //numbers the usernames of the churning workers
+    private static final AtomicInteger CHURNERS = new AtomicInteger();
+
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    private ClientList clientList;
+    private InetAddress address;
+    private String[] usernames;
+    private int next;
+    //the presence changes the watcher would normally take, thrown away so they do not pile up
+    private List<String> changes;
+
+    /***
+     * Joins the users, each with its own port
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        clientList = ClientList.getInstance();
+        address = InetAddress.getLoopbackAddress();
+        changes = new ArrayList<>();
+        usernames = new String[users];
+        for (int i = 0; i < users; i++) {
+            usernames[i] = "user" + i;
+            clientList.addClient(usernames[i], address, 1024 + i % 60000, false);
+        }
+        drainPresence();
+    }
+
+    /***
+     * Removes the users again
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (String username : usernames) {
+            clientList.remove(username);
+        }
+        drainPresence();
+    }
+
+    /***
+     * An IMAV from the next user in turn
+     * @return true if the user was found
+     */
+    @Benchmark
+    public boolean heartbeat() {
+        next = next + 1 == users ? 0 : next + 1;
+        return clientList.updateHeartbeat(usernames[next]);
+    }
+
+    /***
+     * A user joining and leaving again, including taking the two presence changes like the watcher does
+     * @return true if the user was removed
+     */
+    @Benchmark
+    public boolean joinAndLeave() {
+        ClientInfo clientInfo = clientList.addClient("joiner", address, 1023, false);
+        boolean removed = clientList.remove(clientInfo);
+        drainPresence();
+        return removed;
+    }
+
+    /***
+     * An expiry tick of the watcher while every client is still active
+     * @return the number of clients removed, always 0
+     */
+    @Benchmark
+    public int expiryTick() {
+        return clientList.removeInactiveClients();
+    }
+
+    /***
+     * A worker of its own, with a username no other thread uses
+     */
+    @State(Scope.Thread)
+    public static class Churner {
+
+        private String username;
+
+        /***
+         * Picks the username
+         */
+        @Setup(Level.Trial)
+        public void setup() {
+            username = "churner" + CHURNERS.incrementAndGet();
+        }
+    }
+
+    /***
+     * A worker whose client joins and leaves again while other workers do the same and the watcher reads the list
+     * @param churner The worker
+     * @return true if the user was removed
+     */
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public boolean churnJoinAndLeave(Churner churner) {
+        ClientInfo clientInfo = clientList.addClient(churner.username, address, 1023, false);
+        return clientList.remove(clientInfo);
+    }
+
+    /***
+     * The watcher taking the presence changes, and a client asking for the LIST, while the workers join and leave
+     * @return the number of active users in the snapshot
+     */
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public int churnSnapshot() {
+        PresenceLog.getInstance().drainTo(changes);
+        changes.clear();
+        return clientList.getSnapshot().getClients().size();
+    }
+
+    /***
+     * Takes the presence changes and throws them away
+     */
+    private void drainPresence() {
+        PresenceLog.getInstance().drainTo(changes);
+        changes.clear();
+    }
+}
@@ -0,0 +1,165 @@
+package kea.chatsystem.benchmarks;
+
+import kea.chatsystem.server.CommandDecoder;
+import kea.chatsystem.server.ServerConfig;
+import kea.chatsystem.server.Session;
+import kea.chatsystem.server.Transport;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.MessageList;
+import kea.chatsystem.server.util.OutboundQueue;
+import kea.chatsystem.server.util.OverflowPolicy;
+import kea.chatsystem.shared.BinaryProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Benchmarks the parsing of client commands by the decoder the workers and the non-blocking connections share,
+ * for a joined text client and a joined binary v2 client. The replies are thrown away, and the message list
+ * drops its oldest message when full so DATA never fails.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDecoderBenchmark {
+
+    private static final String TEXT = "the quick brown fox jumps over the lazy dog, and then it does it again";
+
+    private CommandDecoder textDecoder;
+    private CommandDecoder binaryDecoder;
+
+    private ByteBuffer imavLine;
+    private ByteBuffer dataLine;
+    private ByteBuffer imavFrame;
+    private ByteBuffer dataFrame;
+
+    /***
+     * Joins a text and a binary client, and encodes the commands they send
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        MessageList.getInstance().configure(4096, OverflowPolicy.DROP_OLDEST);
+
+        textDecoder = join("JOIN texter, 127.0.0.1:4567\n", 40001);
+        binaryDecoder = join("JOIN binary, 127.0.0.1:4567 proto=v2\n", 40002);
+
+        imavLine = bytes("IMAV\n");
+        dataLine = bytes("DATA texter: " + TEXT + "\n");
+        imavFrame = ByteBuffer.wrap(BinaryProtocol.frame(BinaryProtocol.IMAV));
+        dataFrame = ByteBuffer.wrap(BinaryProtocol.frame(BinaryProtocol.DATA, TEXT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /***
+     * Removes the two clients again
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ClientList.getInstance().remove("texter");
+        ClientList.getInstance().remove("binary");
+    }
+
+    /***
+     * An IMAV line
+     * @return true if the connection stays open
+     */
+    @Benchmark
+    public boolean textImav() {
+        return textDecoder.decode(imavLine.rewind());
+    }
+
+    /***
+     * A DATA line with 70 characters of text
+     * @return true if the connection stays open
+     */
+    @Benchmark
+    public boolean textData() {
+        return textDecoder.decode(dataLine.rewind());
+    }
+
+    /***
+     * An IMAV frame
+     * @return true if the connection stays open
+     */
+    @Benchmark
+    public boolean binaryImav() {
+        return binaryDecoder.decode(imavFrame.rewind());
+    }
+
+    /***
+     * A DATA frame with 70 characters of text
+     * @return true if the connection stays open
+     */
+    @Benchmark
+    public boolean binaryData() {
+        return binaryDecoder.decode(dataFrame.rewind());
+    }
+
+    /***
+     * Creates a decoder and hands it a JOIN line
+     * @param join The JOIN line
+     * @param port The remote port of the client
+     * @return the decoder of the joined client
+     */
+    private static CommandDecoder join(String join, int port) {
+        Session session = new Session(new DiscardTransport(), new ServerConfig(), InetAddress.getLoopbackAddress(), port);
+        CommandDecoder decoder = new CommandDecoder(session);
+        if (!decoder.decode(bytes(join))) {
+            throw new IllegalStateException("Could not join with '" + join.trim() + "'");
+        }
+        return decoder;
+    }
+
+    /***
+     * Encodes a line as UTF-8
+     * @param line The line
+     * @return a buffer holding the line
+     */
+    private static ByteBuffer bytes(String line) {
+        return ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /***
+     * A transport that throws away what the session writes
+     */
+    private static class DiscardTransport implements Transport {
+
+        @Override
+        public void write(String line) { }
+
+        @Override
+        public void write(byte[] frame) { }
+
+        @Override
+        public OutboundQueue startPush(int capacity) {
+            return null;
+        }
+
+        @Override
+        public void runWhenDone(CompletableFuture<?> future, Runnable task) {
+            future.join();
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package kea.chatsystem.benchmarks;
+
+import kea.chatsystem.server.DirectMessenger;
+import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.PresenceLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Benchmarks a direct message with 1k to 100k users joined: one sent to the next user in turn, and one to a user that is not online.
+ * Every user gets its datagrams on the same loopback port, which nobody reads, so the kernel throws them away once its buffer is full.
+ * The score should be the same for every number of users.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DirectMessageBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    private DirectMessenger messenger;
+    private DatagramChannel sink;
+    private String[] usernames;
+    private ClientInfo sender;
+    private int next;
+
+    /***
+     * Joins the users, all listening on the port of the sink
+     * @throws IOException if the sink could not be bound
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        messenger = DirectMessenger.getInstance();
+        InetAddress address = InetAddress.getLoopbackAddress();
+        sink = DatagramChannel.open().bind(new InetSocketAddress(address, 0));
+        int port = sink.socket().getLocalPort();
+
+        usernames = new String[users];
+        for (int i = 0; i < users; i++) {
+            usernames[i] = "user" + i;
+            ClientList.getInstance().addClient(usernames[i], address, port, false);
+        }
+        sender = ClientList.getInstance().getClient(usernames[0]);
+        PresenceLog.getInstance().drainTo(new ArrayList<>());
+    }
+
+    /***
+     * Removes the users again
+     * @throws IOException if the sink could not be closed
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (String username : usernames) {
+            ClientList.getInstance().remove(username);
+        }
+        PresenceLog.getInstance().drainTo(new ArrayList<>());
+        sink.close();
+    }
+
+    /***
+     * A direct message to the next user in turn
+     * @return true if the user was found
+     */
+    @Benchmark
+    public boolean send() {
+        String recipient = usernames[next];
+        next = next + 1 == users ? 0 : next + 1;
+        return messenger.send(sender, recipient, "Hello there, how are you doing today?");
+    }
+
+    /***
+     * A direct message to a user that is not online
+     * @return false, since the user is not found
+     */
+    @Benchmark
+    public boolean offline() {
+        return messenger.send(sender, "nobody", "Hello there, how are you doing today?");
+    }
+}
@@ -0,0 +1,99 @@
+package kea.chatsystem.benchmarks;
+
+import kea.chatsystem.server.util.MessageList;
+import kea.chatsystem.server.util.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Benchmarks the message list between the workers and the watcher: a burst of messages added and taken in one batch
+ * by a single thread, and workers adding while the watcher takes at the same time.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageListBenchmark {
+
+    private static final int BURST = 256;
+
+    @Param({"4096"})
+    private int capacity;
+
+    private MessageList messageList;
+    private String message;
+    private List<String> batch;
+
+    /***
+     * Empties the list before every iteration
+     */
+    @Setup(Level.Iteration)
+    public void setup() {
+        messageList = MessageList.getInstance();
+        messageList.configure(capacity, OverflowPolicy.REJECT);
+        message = "DATA benchmark: the quick brown fox jumps over the lazy dog";
+        batch = new ArrayList<>(BURST);
+    }
+
+    /***
+     * Adds a burst of messages and takes them like the watcher does, reported per message
+     * @return the number of messages taken
+     * @throws InterruptedException never, the list is not empty
+     */
+    @Benchmark
+    @Group("burst")
+    @GroupThreads(1)
+    @OperationsPerInvocation(BURST)
+    public int enqueueDrain() throws InterruptedException {
+        for (int i = 0; i < BURST; i++) {
+            messageList.addData(message);
+        }
+        batch.clear();
+        return messageList.takeMessages(batch, BURST);
+    }
+
+    /***
+     * A worker adding a message while the watcher takes them, rejected if the list is full
+     * @return true if the message was added
+     */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public boolean enqueue() {
+        return messageList.addData(message);
+    }
+
+    /***
+     * The watcher taking a message without waiting for one
+     * @return the message, or null if the list was empty
+     */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public String drain() {
+        return messageList.getNextMessage();
+    }
+}
@@ -1,14 +1,29 @@
 package kea.chatsystem.client;
 
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.ErrorType;
 import kea.chatsystem.shared.Log;
+import kea.chatsystem.shared.LogLevel;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
 
 /***
- * Background reader to check for incoming data from server
+ * Background reader to check for incoming data from server. Also keeps track of the active users from the
+ * versioned JOIN/LEFT changes, and asks the server for a full LIST when a change is missed.
+ * In the binary protocol it also keeps the usernames of the user ids it has been told about.
+ * Datagrams are received on a DatagramChannel into one buffer that is used again for every datagram, and handled as soon as they
+ * arrive, so a busy chat does not fill the receive buffer of the socket. The messages are printed by the log writer thread,
+ * which writes everything waiting in one go. Datagrams the client loses are counted and reported at most once per second.
  *
  * @author Andreas Dan Petersen
  * @version 1.0
@@ -16,17 +31,54 @@ import java.net.DatagramSocket;
  */
 public class BackgroundReader implements Runnable {
 
+    //max possible length of a single message is 269 (7 from protocol, 12 from username limit, 250 from message limit 7+12+250=269),
+    //but the server packs several messages into one datagram
+    static final int MAX_DATAGRAM_SIZE = 65507;
+    //the receive buffer of the socket asked for when none is given, the operating system may give less
+    static final int DEFAULT_RECEIVE_BUFFER = 1024 * 1024;
+    //how often lost datagrams are reported
+    private static final long DROP_REPORT_INTERVAL_MS = 1000;
+    //the udp sockets of the operating system and the datagrams each dropped, on linux
+    private static final Path[] SOCKET_TABLES = { Paths.get("/proc/net/udp"), Paths.get("/proc/net/udp6") };
+
     private int port = 0;
-    private BufferedReader reader;
+    private int receiveBufferSize;
+    private ProtocolWriter writer;
+
+    //active users and the presence version they match, -1 until the first LIST arrives
+    private Set<String> users;
+    private long presenceVersion = -1;
+    private boolean listRequested;
+    //user id, username in the binary protocol
+    private Map<Long, String> userNames;
+
+    //datagrams that were invalid, and the datagrams the operating system dropped when the last report was made
+    private long invalid;
+    private long reportedDrops;
+    private long reportedAt;
 
     /***
      * Constructor that creates a background reader to check for incoming data from server
      * @param port The port number to listen on
-     * @param reader The BufferedReader to check continuously
+     * @param receiveBufferSize The receive buffer of the socket to ask for, in bytes
+     * @param writer The writer to the server, used to ask for the list of active users. Datagrams are read in the protocol it speaks.
      */
-    public BackgroundReader(int port, BufferedReader reader) {
+    public BackgroundReader(int port, int receiveBufferSize, ProtocolWriter writer) {
         this.port = port;
-        this.reader = reader;
+        this.receiveBufferSize = receiveBufferSize;
+        this.writer = writer;
+        users = new TreeSet<>();
+        userNames = new HashMap<>();
+    }
+
+    /***
+     * Asks the server for the full list of active users, unless it has already been asked
+     */
+    public synchronized void requestList() {
+        if (!listRequested) {
+            listRequested = true;
+            writer.list();
+        }
     }
 
     /***
@@ -36,47 +88,361 @@ public class BackgroundReader implements Runnable {
 
         Thread.currentThread().setName("BackgroundReader");
 
-        try {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            channel.bind(new InetSocketAddress(port));
+            int granted = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+            if (granted < receiveBufferSize) {
+                Log.getInstance().info("Asked for a receive buffer of " + receiveBufferSize + " bytes, got " + granted + ".");
+            }
 
-            String message;
-            byte[] buffer;
-            DatagramSocket datagramSocket = new DatagramSocket(port);
+            //a datagram can hold several messages separated by line feeds, so make room for the largest possible datagram
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
 
             //if input socket is not closed keep running
-            while (!datagramSocket.isClosed()) {
-                buffer = new byte[269]; //269 = max possible length (7 from protocol, 12 from username limit, 250 from message limit 7+12+250=269)
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                datagramSocket.receive(packet); //blocks thread until a message is received
-
-                //read message
-                message = new String(packet.getData(), 0, packet.getLength());
-
-                //log incoming message
-                Log.getInstance().transaction(message, true);
-
-                //separate first 4 chars as protocol message type
-                String type = message.substring(0, 4);
-                switch (type) {
-                    case "DATA":
-                        Log.getInstance().message(message.substring(5));
-                        break;
-                    case "LIST":
-                        Log.getInstance().message("List of active users: " + message.substring(5));
-                        break;
-                    default:
-                        Log.getInstance().info("Unknown message received: '" + message + "'");
-                        break;
-                }
-
-                //sleep 250ms
-                Thread.sleep(250);
+            while (channel.isOpen()) {
+                buffer.clear();
+                channel.receive(buffer); //blocks thread until a message is received
+                buffer.flip();
+                handleDatagram(buffer);
+                reportDrops();
             }
         } catch (IOException ioE) {
             Log.getInstance().error("IOException: " + ioE.getMessage());
-        } catch (InterruptedException iE) {
-            Log.getInstance().error("Thread was interrupted..");
         } finally {
             Log.getInstance().info("Closing thread..");
         }
     }
-}
\ No newline at end of file
+
+    /***
+     * Handles every message in a datagram, holding the lock once for all of them
+     * @param datagram The datagram, from its position to its limit
+     */
+    private synchronized void handleDatagram(ByteBuffer datagram) {
+        if (writer.isBinary()) {
+            handleFrames(datagram);
+            return;
+        }
+
+        //handle each message in the datagram
+        byte[] bytes = datagram.array();
+        int start = 0;
+        int end = datagram.limit();
+        for (int i = 0; i <= end; i++) {
+            if (i == end || bytes[i] == '\n') {
+                if (i > start) {
+                    handle(new String(bytes, start, i - start, Charset.defaultCharset()));
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /***
+     * Writes how many datagrams were lost since the last report, if any were, at most once per DROP_REPORT_INTERVAL_MS
+     */
+    private void reportDrops() {
+        long now = System.currentTimeMillis();
+        if (now - reportedAt < DROP_REPORT_INTERVAL_MS) {
+            return;
+        }
+        reportedAt = now;
+
+        long drops = readSocketDrops();
+        long lost;
+        synchronized (this) {
+            lost = invalid + Math.max(0, drops - reportedDrops);
+            invalid = 0;
+        }
+        reportedDrops = Math.max(reportedDrops, drops);
+        if (lost > 0) {
+            Log.getInstance().error(lost + " datagram(s) from the server were lost.");
+        }
+    }
+
+    /***
+     * Reads the datagrams the operating system dropped because the receive buffer of the socket was full.
+     * Only linux lists them, on other systems only the invalid datagrams are counted.
+     * @return the datagrams dropped since the socket was opened, or 0 if the operating system does not tell
+     */
+    private long readSocketDrops() {
+        //the local address is 'address:port' in hex, and the drops are the last column
+        String portSuffix = String.format(":%04X", port);
+        for (Path table : SOCKET_TABLES) {
+            if (!Files.isReadable(table)) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(table)) {
+                    String[] columns = line.trim().split("\\s+");
+                    if (columns.length > 2 && columns[1].endsWith(portSuffix)) {
+                        return Long.parseLong(columns[columns.length - 1]);
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /***
+     * Handles a single message received from the server, over udp or over the tcp connection
+     * @param message The message to handle
+     */
+    public synchronized void handle(String message) {
+        //log incoming message
+        Log.getInstance().transaction(message, true);
+
+        //separate first 4 chars as protocol message type
+        String type = message.length() < 4 ? message : message.substring(0, 4);
+        switch (type) {
+            case "DATA":
+                Log.getInstance().message(message.substring(5));
+                break;
+            case "PRIV":
+                Log.getInstance().message("(private) " + message.substring(5));
+                break;
+            case "HIST":
+                Log.getInstance().message("(earlier) " + message.substring(5));
+                break;
+            case "LIST":
+                if (message.startsWith("LIST #")) {
+                    handleRoomList(message);
+                } else {
+                    handleList(message);
+                }
+                break;
+            case "JOIN":
+            case "LEFT":
+            case "PART":
+                if (message.startsWith("#", 5)) {
+                    handleRoomChange(type, message);
+                } else {
+                    handlePresenceChange(type, message);
+                }
+                break;
+            case "J_ER":
+                Log.getInstance().error("Server error: " + message.substring(5));
+                break;
+            default:
+                Log.getInstance().info("Unknown message received: '" + message + "'");
+                break;
+        }
+    }
+
+    /***
+     * Handles every binary frame in a datagram
+     * @param datagram The datagram, from its position to its limit
+     */
+    private void handleFrames(ByteBuffer datagram) {
+        try {
+            while (datagram.hasRemaining()) {
+                int length = (int)BinaryProtocol.getVarint(datagram);
+                if (length <= 0 || length > datagram.remaining()) {
+                    throw new IllegalArgumentException("Frame length " + length + " does not fit the datagram");
+                }
+                ByteBuffer frame = datagram.slice();
+                frame.limit(length);
+                datagram.position(datagram.position() + length);
+                handleFrame(frame);
+            }
+        } catch (IllegalArgumentException iaE) {
+            invalid++;
+            Log.getInstance().error("Invalid datagram received: " + iaE.getMessage());
+        }
+    }
+
+    /***
+     * Handles a single binary frame received from the server, over udp or over the tcp connection
+     * @param frame The opcode and payload of the frame
+     */
+    public synchronized void handleFrame(ByteBuffer frame) {
+        int opcode = frame.get() & 0xFF;
+        try {
+            switch (opcode) {
+                case BinaryProtocol.DATA: {
+                    long userId = BinaryProtocol.getVarint(frame);
+                    String text = StandardCharsets.UTF_8.decode(frame).toString();
+                    String username = userNames.get(userId);
+                    if (username == null) {
+                        //the user joined after the last list, and the JOIN has not arrived yet
+                        username = "#" + userId;
+                        requestList();
+                    }
+                    Log.getInstance().transaction("DATA " + username + ": " + text, true);
+                    Log.getInstance().message(username + ": " + text);
+                    break;
+                }
+                case BinaryProtocol.PRIV: {
+                    long userId = BinaryProtocol.getVarint(frame);
+                    String text = StandardCharsets.UTF_8.decode(frame).toString();
+                    String username = userNames.get(userId);
+                    if (username == null) {
+                        username = "#" + userId;
+                        requestList();
+                    }
+                    Log.getInstance().transaction("PRIV " + username + ": " + text, true);
+                    Log.getInstance().message("(private) " + username + ": " + text);
+                    break;
+                }
+                case BinaryProtocol.HIST: {
+                    byte[] name = new byte[(int)BinaryProtocol.getVarint(frame)];
+                    frame.get(name);
+                    String username = new String(name, StandardCharsets.UTF_8);
+                    String text = StandardCharsets.UTF_8.decode(frame).toString();
+                    Log.getInstance().transaction("HIST " + username + ": " + text, true);
+                    Log.getInstance().message("(earlier) " + username + ": " + text);
+                    break;
+                }
+                case BinaryProtocol.LIST: {
+                    long version = BinaryProtocol.getVarint(frame);
+                    long count = BinaryProtocol.getVarint(frame);
+                    List<String> names = new ArrayList<>();
+                    for (long i = 0; i < count; i++) {
+                        long userId = BinaryProtocol.getVarint(frame);
+                        byte[] name = new byte[(int)BinaryProtocol.getVarint(frame)];
+                        frame.get(name);
+                        names.add(new String(name, StandardCharsets.UTF_8));
+                        userNames.put(userId, names.get(names.size() - 1));
+                    }
+                    if (Log.getInstance().isEnabled(LogLevel.TRANSACTION)) {
+                        Log.getInstance().transaction("LIST @" + version + " " + String.join(" ", names), true);
+                    }
+                    applyList(version, names);
+                    break;
+                }
+                case BinaryProtocol.JOIN: {
+                    long version = BinaryProtocol.getVarint(frame);
+                    long userId = BinaryProtocol.getVarint(frame);
+                    String username = StandardCharsets.UTF_8.decode(frame).toString();
+                    userNames.put(userId, username);
+                    Log.getInstance().transaction("JOIN @" + version + " " + username, true);
+                    applyChange(true, version, username);
+                    break;
+                }
+                case BinaryProtocol.LEFT: {
+                    long version = BinaryProtocol.getVarint(frame);
+                    String username = userNames.get(BinaryProtocol.getVarint(frame));
+                    Log.getInstance().transaction("LEFT @" + version + " " + username, true);
+                    if (username == null) {
+                        //a user that was never in a list or a change, so something was missed
+                        requestList();
+                    } else {
+                        applyChange(false, version, username);
+                    }
+                    break;
+                }
+                default:
+                    ErrorType error = ErrorType.fromOpcode(opcode);
+                    if (error != null) {
+                        Log.getInstance().error("Server error: " + error);
+                    } else {
+                        Log.getInstance().info("Unknown frame received with opcode " + opcode);
+                    }
+                    break;
+            }
+        } catch (RuntimeException rE) {
+            Log.getInstance().error("Invalid frame received with opcode " + opcode + ": " + rE);
+        }
+    }
+
+    /***
+     * Replaces the active users with a full LIST on the form 'LIST @version name1 name2 ...'
+     * @param message The LIST message
+     */
+    private void handleList(String message) {
+        String[] parts = message.split(" ");
+        if (parts.length < 2 || !parts[1].startsWith("@")) {
+            //a list without a version, print it as it is
+            Log.getInstance().message("List of active users: " + message.substring(Math.min(5, message.length())));
+            return;
+        }
+
+        applyList(Long.parseLong(parts[1].substring(1)), Arrays.asList(parts).subList(2, parts.length));
+    }
+
+    /***
+     * Replaces the active users with a full list
+     * @param version The presence version of the list
+     * @param names The usernames in the list
+     */
+    private void applyList(long version, Collection<String> names) {
+        listRequested = false;
+        //a list older than the changes already applied is out of date
+        if (version < presenceVersion) {
+            return;
+        }
+
+        users.clear();
+        users.addAll(names);
+        presenceVersion = version;
+        Log.getInstance().message("List of active users: " + String.join(" ", users));
+    }
+
+    /***
+     * Shows the members of a room from a list on the form 'LIST #room @version name1 name2 ...'
+     * @param message The LIST message
+     */
+    private void handleRoomList(String message) {
+        String[] parts = message.split(" ", 4);
+        Log.getInstance().message("Members of " + parts[1] + ": " + (parts.length < 4 ? "" : parts[3]));
+    }
+
+    /***
+     * Shows a change on the form 'JOIN #room @version name' or 'PART #room @version name'
+     * @param type JOIN or PART
+     * @param message The change message
+     */
+    private void handleRoomChange(String type, String message) {
+        String[] parts = message.split(" ");
+        if (parts.length != 4 || !parts[2].startsWith("@")) {
+            Log.getInstance().info("Unknown message received: '" + message + "'");
+            return;
+        }
+
+        Log.getInstance().message(parts[3] + (type.equals("JOIN") ? " joined " : " left ") + parts[1] + ".");
+    }
+
+    /***
+     * Applies a change on the form 'JOIN @version name' or 'LEFT @version name'
+     * @param type JOIN or LEFT
+     * @param message The change message
+     */
+    private void handlePresenceChange(String type, String message) {
+        String[] parts = message.split(" ");
+        if (parts.length != 3 || !parts[1].startsWith("@")) {
+            Log.getInstance().info("Unknown message received: '" + message + "'");
+            return;
+        }
+
+        applyChange(type.equals("JOIN"), Long.parseLong(parts[1].substring(1)), parts[2]);
+    }
+
+    /***
+     * Applies a change to the active users, or asks for the full list if a change was missed
+     * @param join true if the user joined, false if it left
+     * @param version The presence version of the change
+     * @param username The user that joined or left
+     */
+    private void applyChange(boolean join, long version, String username) {
+        if (version <= presenceVersion) {
+            //already part of the list
+            return;
+        }
+        if (presenceVersion < 0 || version != presenceVersion + 1) {
+            //a change was missed, the full list is needed to catch up
+            requestList();
+            return;
+        }
+
+        presenceVersion = version;
+        if (join) {
+            users.add(username);
+            Log.getInstance().message(username + " joined the chat.");
+        } else {
+            users.remove(username);
+            Log.getInstance().message(username + " left the chat.");
+        }
+    }
+}
@@ -1,11 +1,10 @@
 package kea.chatsystem.client;
 
+import kea.chatsystem.shared.BinaryProtocol;
 import kea.chatsystem.shared.Log;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.Scanner;
 import java.util.regex.Matcher;
@@ -25,10 +24,15 @@ public class Client {
     private boolean hasJoined;
 
     private Socket socket;
-    private PrintWriter writer;
-    private BufferedReader reader;
+    private ProtocolWriter writer;
+    private InputStream input;
     private String username;
+    //true once the server has accepted the binary v2 protocol
+    private boolean binary;
+    //the multicast group announced by the server in J_OK, null if the server sends every client its own datagrams
+    private InetSocketAddress multicastGroup;
     private boolean running = true;
+    private int receiveBufferSize;
 
     private Scanner scanner;
 
@@ -36,8 +40,17 @@ public class Client {
      * Constructor with no parameters
      */
     public Client() {
+        this(BackgroundReader.DEFAULT_RECEIVE_BUFFER);
+    }
+
+    /***
+     * Constructor for a client with its own receive buffer size
+     * @param receiveBufferSize The receive buffer of the datagram socket to ask for, in bytes
+     */
+    public Client(int receiveBufferSize) {
         hasJoined = false;
         scanner = new Scanner(System.in);
+        this.receiveBufferSize = receiveBufferSize;
     }
 
     /***
@@ -54,10 +67,11 @@ public class Client {
      * @param username The chosen username
      * @param serverIp The chosen server ip address
      * @param port The port number on the server to connect
+     * @param binary true to ask the server for the binary v2 protocol
      * @return true if client received a join ok message, otherwise false
      * @throws IOException
      */
-    public boolean join(String username, String serverIp, int port) throws IOException {
+    public boolean join(String username, String serverIp, int port, boolean binary) throws IOException {
 
         //make sure username is not illegal
         Matcher matcher = regexPattern.matcher(username);
@@ -66,15 +80,18 @@ public class Client {
         } else {
             //initiate i/o variables
             socket = new Socket(serverIp, port);
-            writer = new PrintWriter(socket.getOutputStream());
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            input = socket.getInputStream();
 
-            //send join request
-            transmit("JOIN " + username + ", " + serverIp + ":" + port);
+            //send join request, always as a text line
+            String join = "JOIN " + username + ", " + serverIp + ":" + port + (binary ? " " + BinaryProtocol.JOIN_OPTION : "");
+            PrintWriter joinWriter = new PrintWriter(socket.getOutputStream());
+            joinWriter.println(join);
+            joinWriter.flush();
+            Log.getInstance().transaction(join, false);
 
             //get server response and check it
             String response;
-            if ((response = reader.readLine()) != null) {
+            if ((response = readResponse()) != null) {
                 //get the first 4 letters
                 String serverResponse = response.substring(0, 4);
                 if (serverResponse.equals("J_OK")) {
@@ -82,6 +99,8 @@ public class Client {
                     //set username to this and set hasJoined to true
                     this.username = username;
                     hasJoined = true;
+                    readJoinOptions(response);
+                    writer = new ProtocolWriter(socket.getOutputStream(), this.binary);
                 } else if (serverResponse.equals("J_ER")) {
                     Log.getInstance().info("Could not connect to chat server. Reason: '" + response.substring(5) + "'.");
                 } else {
@@ -105,9 +124,35 @@ public class Client {
         }
 
         //create new thread to read data from server
-        Thread backgroundReader = new Thread(new BackgroundReader(socket.getLocalPort(), reader));
-        backgroundReader.setDaemon(true); //make daemon
-        backgroundReader.start();
+        BackgroundReader backgroundReader = new BackgroundReader(socket.getLocalPort(), receiveBufferSize, writer);
+        Thread backgroundReaderThread = new Thread(backgroundReader);
+        backgroundReaderThread.setDaemon(true); //make daemon
+        backgroundReaderThread.start();
+
+        //create new thread to read replies sent over the tcp connection
+        StreamReader reader = binary
+                ? new StreamReader(new BufferedInputStream(input), backgroundReader)
+                : new StreamReader(new BufferedReader(new InputStreamReader(input)), backgroundReader);
+        Thread streamReader = new Thread(reader);
+        streamReader.setDaemon(true); //make daemon
+        streamReader.start();
+
+        //listen on the multicast group if the server has one, otherwise the server keeps sending datagrams to this client alone
+        if (multicastGroup != null) {
+            MulticastReader multicastReader = new MulticastReader(multicastGroup, socket.getLocalAddress(), backgroundReader);
+            try {
+                multicastReader.open();
+                Thread multicastReaderThread = new Thread(multicastReader);
+                multicastReaderThread.setDaemon(true); //make daemon
+                multicastReaderThread.start();
+                writer.multicast();
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not join multicast group " + multicastGroup + ", using unicast: " + ioE.getMessage());
+            }
+        }
+
+        //get the current list of active users, changes to it are sent as they happen
+        backgroundReader.requestList();
 
         //create new thread to send heartbeats
         Thread imavMessenger = new Thread(new ImavMessenger(writer));
@@ -126,11 +171,23 @@ public class Client {
 
                     //if user requests quit, exit the program
                     if (input.equalsIgnoreCase("quit")) {
-                        transmit("QUIT");
+                        writer.quit();
                         running = false;
+                    } else if (input.startsWith("JOIN #")) {
+                        writer.joinRoom(input.substring(6).trim());
+                    } else if (input.startsWith("PART #")) {
+                        writer.partRoom(input.substring(6).trim());
+                    } else if (input.startsWith("LIST #")) {
+                        writer.listRoom(input.substring(6).trim());
+                    } else if (input.startsWith("@") && input.indexOf(' ') > 1) {
+                        //'@user text' is a direct message to that user alone
+                        writer.direct(input.substring(1, input.indexOf(' ')), input.substring(input.indexOf(' ') + 1));
+                    } else if (input.startsWith("#") && input.indexOf(' ') > 1) {
+                        //'#room text' is a message to the members of the room
+                        writer.roomData(username, input.substring(1, input.indexOf(' ')), input.substring(input.indexOf(' ') + 1));
                     } else {
                         //treat input as a message with DATA as message
-                        transmit("DATA " + username + ": " + input);
+                        writer.data(username, input);
                     }
                 }
 
@@ -144,15 +201,42 @@ public class Client {
     }
 
     /***
-     * Writes a text message to the server and logs the transaction
-     * @param text The message to send
+     * Reads the reply to JOIN a byte at a time, so nothing the server sends after it is read ahead
+     * @return the reply line without the line separator, or null if the server closed the connection
+     * @throws IOException if the reply could not be read
      */
-    private void transmit(String text) {
-        //print to the stream
-        writer.println(text);
-        writer.flush();
+    private String readResponse() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString();
+    }
 
-        //log transaction
-        Log.getInstance().transaction(text, false);
+    /***
+     * Reads the options after J_OK, such as 'J_OK mcast=239.255.0.1:1236'. Unknown options are ignored.
+     * @param response The J_OK line received from the server
+     */
+    private void readJoinOptions(String response) {
+        for (String option : response.substring(4).trim().split(" ")) {
+            if (option.startsWith("mcast=")) {
+                String value = option.substring(6);
+                int separator = value.lastIndexOf(':');
+                try {
+                    multicastGroup = new InetSocketAddress(value.substring(0, separator), Integer.parseInt(value.substring(separator + 1)));
+                } catch (RuntimeException rE) {
+                    Log.getInstance().error("Invalid multicast group from server: '" + value + "'");
+                }
+            } else if (option.equals(BinaryProtocol.JOIN_OPTION)) {
+                //everything after J_OK is binary frames
+                binary = true;
+            }
+        }
     }
 }
@@ -2,8 +2,6 @@ package kea.chatsystem.client;
 
 import kea.chatsystem.shared.Log;
 
-import java.io.PrintWriter;
-
 /***
  * Sends IMAV message heartbeats to the server
  *
@@ -13,13 +11,13 @@ import java.io.PrintWriter;
  */
 public class ImavMessenger implements Runnable {
 
-    private PrintWriter writer;
+    private ProtocolWriter writer;
 
     /***
      * Constructor
-     * @param writer The PrintWriter that holds the output stream to the server
+     * @param writer The writer that holds the output stream to the server
      */
-    public ImavMessenger(PrintWriter writer) {
+    public ImavMessenger(ProtocolWriter writer) {
         this.writer = writer;
     }
 
@@ -32,12 +30,8 @@ public class ImavMessenger implements Runnable {
 
         try {
             while (writer != null) {
-                //print IMAV heartbeat to the stream
-                writer.println("IMAV");
-                writer.flush();
-
-                //log transaction
-                Log.getInstance().transaction("IMAV", false);
+                //send IMAV heartbeat, the transaction is logged by the writer
+                writer.heartbeat();
 
                 //sleep 1 minute then repeat
                 Thread.sleep(60000);
@@ -1,5 +1,7 @@
 package kea.chatsystem.client;
 
+import kea.chatsystem.shared.BinaryProtocol;
+
 import java.io.IOException;
 import java.util.Scanner;
 
@@ -14,12 +16,29 @@ public class Main {
 
     /***
      * Starting main method
-     * @param args Arguments to start the process with (these are ignored)
+     * @param args Arguments to start the process with, '--receive-buffer=<<bytes>>' sets the receive buffer of the datagram socket
      */
     public static void main(String[] args) {
 
+        int receiveBufferSize = BackgroundReader.DEFAULT_RECEIVE_BUFFER;
+        for (String arg : args) {
+            if (arg.startsWith("--receive-buffer=")) {
+                try {
+                    receiveBufferSize = Integer.parseInt(arg.substring("--receive-buffer=".length()));
+                } catch (NumberFormatException nfE) {
+                    receiveBufferSize = 0;
+                }
+                if (receiveBufferSize < 1) {
+                    receiveBufferSize = BackgroundReader.DEFAULT_RECEIVE_BUFFER;
+                    System.out.println("Invalid receive buffer size '" + arg + "', using " + receiveBufferSize + " bytes.");
+                }
+            } else {
+                System.out.println("Unknown argument '" + arg + "' is ignored.");
+            }
+        }
+
         Scanner scanner = new Scanner(System.in);
-        Client client = new Client();
+        Client client = new Client(receiveBufferSize);
 
         String username;
         String serverIp;
@@ -28,6 +47,7 @@ public class Main {
 
         System.out.println("*** Chat System ***");
         System.out.println("Type 'JOIN <<username>>, <<serverip>>:<<port>>' to connect with the specified chat server.");
+        System.out.println("Add ' " + BinaryProtocol.JOIN_OPTION + "' to the end of the line to use the binary protocol.");
 
         //while client has not yet joined, try to join by user input parameters
         while (!client.hasJoined()) {
@@ -48,8 +68,8 @@ public class Main {
                     serverIp = serverConfig.split(":")[0];
                     port = Integer.parseInt(serverConfig.split(":")[1]);
 
-                    //attempt to join server
-                    client.join(username, serverIp, port);
+                    //attempt to join server, with the binary protocol if asked for
+                    client.join(username, serverIp, port, input.endsWith(" " + BinaryProtocol.JOIN_OPTION));
 
                 } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
                     System.out.println("JOIN message is incorrectly formatted. Try again.");
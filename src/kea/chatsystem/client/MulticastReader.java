@@ -0,0 +1,82 @@
+package kea.chatsystem.client;
+
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+
+/***
+ * Reads the broadcasts the server sends to its multicast group, and hands them to the background reader.
+ * Used instead of the unicast datagrams once the server has been told with MCST that the client listens on the group.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class MulticastReader implements Runnable {
+
+    private InetSocketAddress group;
+    private InetAddress localAddress;
+    private BackgroundReader backgroundReader;
+    private MulticastSocket multicastSocket;
+
+    /***
+     * Constructor
+     * @param group The multicast group address and port announced by the server in J_OK
+     * @param localAddress The local address of the connection to the server, used to pick the network interface to join the group on
+     * @param backgroundReader The background reader that handles the messages
+     */
+    public MulticastReader(InetSocketAddress group, InetAddress localAddress, BackgroundReader backgroundReader) {
+        this.group = group;
+        this.localAddress = localAddress;
+        this.backgroundReader = backgroundReader;
+    }
+
+    /***
+     * Joins the multicast group. Must be called before the thread is started.
+     * @throws IOException if the group could not be joined, in which case the client keeps getting its own datagrams
+     */
+    public void open() throws IOException {
+        //null lets the operating system choose the interface
+        NetworkInterface networkInterface = NetworkInterface.getByInetAddress(localAddress);
+
+        multicastSocket = new MulticastSocket(group.getPort());
+        try {
+            multicastSocket.joinGroup(group, networkInterface);
+        } catch (IOException ioE) {
+            multicastSocket.close();
+            throw ioE;
+        }
+    }
+
+    /***
+     * Method the gets executed on Thread.start() call
+     */
+    public void run() {
+
+        Thread.currentThread().setName("MulticastReader");
+
+        try {
+            byte[] buffer = new byte[BackgroundReader.MAX_DATAGRAM_SIZE];
+
+            while (!multicastSocket.isClosed()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                multicastSocket.receive(packet); //blocks thread until a message is received
+
+                //handle each message in the datagram
+                for (String line : new String(packet.getData(), 0, packet.getLength()).split("\n")) {
+                    backgroundReader.handle(line);
+                }
+            }
+        } catch (IOException ioE) {
+            Log.getInstance().error("IOException: " + ioE.getMessage());
+        } finally {
+            multicastSocket.close();
+            Log.getInstance().info("Closing thread..");
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package kea.chatsystem.client;
+
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/***
+ * Writes the commands of the client to the server after J_OK, as text lines or as binary frames if the server
+ * accepted 'proto=v2'. Shared by the threads of the client, so every command is written as a whole.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class ProtocolWriter {
+
+    private OutputStream stream;
+    private PrintWriter writer;
+    private boolean binary;
+
+    //frames without a payload are the same every time
+    private static final byte[] IMAV_FRAME = BinaryProtocol.frame(BinaryProtocol.IMAV);
+    private static final byte[] LIST_FRAME = BinaryProtocol.frame(BinaryProtocol.LIST);
+    private static final byte[] MCST_FRAME = BinaryProtocol.frame(BinaryProtocol.MCST);
+    private static final byte[] QUIT_FRAME = BinaryProtocol.frame(BinaryProtocol.QUIT);
+
+    /***
+     * Constructor
+     * @param stream The output stream to the server
+     * @param binary true to write binary frames, false to write text lines
+     */
+    public ProtocolWriter(OutputStream stream, boolean binary) {
+        this.stream = stream;
+        this.binary = binary;
+        writer = new PrintWriter(stream);
+    }
+
+    /***
+     * Method to determine if the writer speaks the binary v2 protocol
+     * @return true if commands are written as binary frames
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /***
+     * Sends an IMAV heartbeat
+     */
+    public void heartbeat() {
+        send("IMAV", IMAV_FRAME);
+    }
+
+    /***
+     * Sends a chat message
+     * @param username The username of the client, only part of the text line
+     * @param text The text of the message
+     */
+    public void data(String username, String text) {
+        String line = "DATA " + username + ": " + text;
+        send(line, binary ? BinaryProtocol.frame(BinaryProtocol.DATA, text.getBytes(StandardCharsets.UTF_8)) : null);
+    }
+
+    /***
+     * Sends a direct message to a single user
+     * @param recipient The username of the user to send to
+     * @param text The text of the message
+     */
+    public void direct(String recipient, String text) {
+        String line = "PRIV " + recipient + ": " + text;
+        byte[] frame = null;
+        if (binary) {
+            byte[] name = recipient.getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer payload = ByteBuffer.allocate(BinaryProtocol.varintSize(name.length) + name.length + bytes.length);
+            BinaryProtocol.putVarint(payload, name.length);
+            payload.put(name).put(bytes);
+            frame = BinaryProtocol.frame(BinaryProtocol.PRIV, payload.array());
+        }
+        send(line, frame);
+    }
+
+    /***
+     * Sends a chat message to the members of a room
+     * @param username The username of the client
+     * @param room The name of the room, without '#'
+     * @param text The text of the message
+     */
+    public void roomData(String username, String room, String text) {
+        sendRoomCommand("DATA #" + room + " " + username + ": " + text);
+    }
+
+    /***
+     * Joins a room
+     * @param room The name of the room, without '#'
+     */
+    public void joinRoom(String room) {
+        sendRoomCommand("JOIN #" + room);
+    }
+
+    /***
+     * Parts a room
+     * @param room The name of the room, without '#'
+     */
+    public void partRoom(String room) {
+        sendRoomCommand("PART #" + room);
+    }
+
+    /***
+     * Asks for the members of a room
+     * @param room The name of the room, without '#'
+     */
+    public void listRoom(String room) {
+        sendRoomCommand("LIST #" + room);
+    }
+
+    /***
+     * Asks for the full list of active users
+     */
+    public void list() {
+        send("LIST", LIST_FRAME);
+    }
+
+    /***
+     * Tells the server that the client listens on the multicast group
+     */
+    public void multicast() {
+        send("MCST", MCST_FRAME);
+    }
+
+    /***
+     * Tells the server that the client quits
+     */
+    public void quit() {
+        send("QUIT", QUIT_FRAME);
+    }
+
+    /***
+     * Writes a room command, which only exists in the text protocol
+     * @param line The command as a text line
+     */
+    private void sendRoomCommand(String line) {
+        if (binary) {
+            Log.getInstance().error("Rooms are not part of the binary protocol, join without '" + BinaryProtocol.JOIN_OPTION + "' to use them.");
+            return;
+        }
+
+        send(line, null);
+    }
+
+    /***
+     * Writes a command to the server and logs the transaction
+     * @param line The command as a text line
+     * @param frame The command as a binary frame, used instead of the line in the binary protocol
+     */
+    private synchronized void send(String line, byte[] frame) {
+        if (binary) {
+            try {
+                stream.write(frame);
+                stream.flush();
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not write to server: " + ioE.getMessage());
+            }
+        } else {
+            //print to the stream
+            writer.println(line);
+            writer.flush();
+        }
+
+        //log transaction
+        Log.getInstance().transaction(line, false);
+    }
+}
@@ -0,0 +1,82 @@
+package kea.chatsystem.client;
+
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.Log;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/***
+ * Reads the messages the server sends over the tcp connection after J_OK, such as the full LIST of active users
+ * and error replies, and hands them to the background reader. Reads text lines, or binary frames in the binary protocol.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class StreamReader implements Runnable {
+
+    private BufferedReader reader;
+    private InputStream input;
+    private BackgroundReader backgroundReader;
+
+    /***
+     * Constructor for reading text lines
+     * @param reader The BufferedReader that holds the input stream from the server
+     * @param backgroundReader The background reader that handles the messages
+     */
+    public StreamReader(BufferedReader reader, BackgroundReader backgroundReader) {
+        this.reader = reader;
+        this.backgroundReader = backgroundReader;
+    }
+
+    /***
+     * Constructor for reading binary frames
+     * @param input The buffered input stream from the server
+     * @param backgroundReader The background reader that handles the frames
+     */
+    public StreamReader(InputStream input, BackgroundReader backgroundReader) {
+        this.input = input;
+        this.backgroundReader = backgroundReader;
+    }
+
+    /***
+     * Method the gets executed on Thread.start() call
+     */
+    public void run() {
+
+        Thread.currentThread().setName("StreamReader");
+
+        try {
+            if (input != null) {
+                readFrames();
+            } else {
+                String message;
+                while ((message = reader.readLine()) != null) {
+                    backgroundReader.handle(message);
+                }
+            }
+            Log.getInstance().info("Server closed the connection.");
+        } catch (IOException ioE) {
+            Log.getInstance().error("IOException: " + ioE.getMessage());
+        } finally {
+            Log.getInstance().info("Closing thread..");
+        }
+    }
+
+    /***
+     * Reads binary frames until the server closes the connection
+     * @throws IOException if the stream could not be read or holds an invalid frame
+     */
+    private void readFrames() throws IOException {
+        try {
+            while (true) {
+                backgroundReader.handleFrame(BinaryProtocol.readFrame(input));
+            }
+        } catch (EOFException eofE) {
+            //the connection was closed between two frames
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package kea.chatsystem.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/***
+ * Output stream that writes to a non-blocking socket channel, so a ProtocolWriter can write to a channel a receiver thread
+ * reads from with a selector. Waits a millisecond at a time while the socket buffer is full.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    private static final long FULL_PARK_NANOS = 1_000_000L;
+
+    private SocketChannel channel;
+
+    /***
+     * Constructor
+     * @param channel The non-blocking channel to write to
+     */
+    public ChannelOutputStream(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /***
+     * Writes a single byte
+     * @param b The byte
+     * @throws IOException if the channel is closed
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    /***
+     * Writes part of an array, waiting until all of it has been written
+     * @param bytes The bytes
+     * @param offset The index of the first byte
+     * @param length The number of bytes
+     * @throws IOException if the channel is closed
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                //the server is not reading fast enough
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+    }
+}
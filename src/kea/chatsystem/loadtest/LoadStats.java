@@ -0,0 +1,176 @@
+package kea.chatsystem.loadtest;
+
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Histogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * The counts and latencies of a load test, shared by every simulated client and receiver thread
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class LoadStats {
+
+    //clients that have joined and not been disconnected, each of them should get every message
+    private AtomicInteger active;
+
+    private Counter joined;
+    private Counter joinFailed;
+    private Counter disconnected;
+    private Counter sent;
+    private Counter expected;
+    private Counter delivered;
+    private Counter rejected;
+
+    //microseconds from connecting to J_OK, and from sending a message to a client receiving it
+    private Histogram joinLatency;
+    private Histogram latency;
+
+    /***
+     * Constructor for empty stats
+     */
+    public LoadStats() {
+        active = new AtomicInteger();
+        joined = new Counter();
+        joinFailed = new Counter();
+        disconnected = new Counter();
+        sent = new Counter();
+        expected = new Counter();
+        delivered = new Counter();
+        rejected = new Counter();
+        joinLatency = new Histogram();
+        latency = new Histogram();
+    }
+
+    /***
+     * Counts a client that got J_OK
+     * @param micros Microseconds from connecting to J_OK
+     */
+    public void joined(long micros) {
+        joined.increment();
+        active.incrementAndGet();
+        joinLatency.record(micros);
+    }
+
+    /***
+     * Counts a client that could not connect, or got J_ER
+     */
+    public void joinFailed() {
+        joinFailed.increment();
+    }
+
+    /***
+     * Counts a joined client whose connection was closed by the server
+     */
+    public void disconnected() {
+        disconnected.increment();
+        active.decrementAndGet();
+    }
+
+    /***
+     * Counts a message sent, which every active client should receive
+     */
+    public void sent() {
+        sent.increment();
+        expected.add(active.get());
+    }
+
+    /***
+     * Counts a message received by a client
+     * @param micros Microseconds from sending the message to receiving it
+     */
+    public void delivered(long micros) {
+        delivered.increment();
+        latency.record(micros);
+    }
+
+    /***
+     * Counts a J_ER the server sent after J_OK, such as a full message queue
+     */
+    public void rejected() {
+        rejected.increment();
+    }
+
+    /***
+     * get method
+     * @return the number of clients that are joined and connected
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /***
+     * get method
+     * @return the number of clients that got J_OK
+     */
+    public long getJoined() {
+        return joined.get();
+    }
+
+    /***
+     * get method
+     * @return the number of clients that could not join
+     */
+    public long getJoinFailed() {
+        return joinFailed.get();
+    }
+
+    /***
+     * get method
+     * @return the number of joined clients the server disconnected
+     */
+    public long getDisconnected() {
+        return disconnected.get();
+    }
+
+    /***
+     * get method
+     * @return the number of messages sent
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /***
+     * get method
+     * @return the number of deliveries expected, every message sent times the clients active when it was sent
+     */
+    public long getExpected() {
+        return expected.get();
+    }
+
+    /***
+     * get method
+     * @return the number of messages received
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /***
+     * get method
+     * @return the number of J_ER replies after J_OK
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /***
+     * get method
+     * @return microseconds from connecting to J_OK
+     */
+    public Histogram getJoinLatency() {
+        return joinLatency;
+    }
+
+    /***
+     * get method
+     * @return microseconds from sending a message to a client receiving it
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+}
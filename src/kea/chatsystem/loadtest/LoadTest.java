@@ -0,0 +1,180 @@
+package kea.chatsystem.loadtest;
+
+import kea.chatsystem.server.metrics.Histogram;
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Runs a load test against a single server. Joins the clients, lets them send messages for the configured duration,
+ * waits for the last messages to arrive, and reports the join throughput, the delivery latency and the loss rate.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class LoadTest {
+
+    //how often the progress is logged while the clients send messages
+    private static final int PROGRESS_SECONDS = 5;
+
+    private LoadTestConfig config;
+    private LoadStats stats;
+    private Receiver[] receivers;
+    private ScheduledExecutorService scheduler;
+    private Queue<SimulatedClient> clients;
+
+    /***
+     * Constructor for a load test
+     * @param config The load test configuration
+     */
+    public LoadTest(LoadTestConfig config) {
+        this.config = config;
+        stats = new LoadStats();
+        clients = new ConcurrentLinkedQueue<>();
+    }
+
+    /***
+     * Runs the load test and logs the report
+     * @throws IOException if a receiver could not be started
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void run() throws IOException, InterruptedException {
+        receivers = new Receiver[config.getReceivers()];
+        for (int i = 0; i < receivers.length; i++) {
+            receivers[i] = new Receiver();
+            Thread thread = new Thread(receivers[i], "Receiver-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        scheduler = Executors.newScheduledThreadPool(config.getSenders());
+
+        try {
+            double joinSeconds = join();
+            double sendSeconds = stats.getJoined() > 0 ? send() : 0;
+            report(joinSeconds, sendSeconds);
+        } finally {
+            for (SimulatedClient client : clients) {
+                client.quit();
+            }
+            scheduler.shutdownNow();
+            for (Receiver receiver : receivers) {
+                receiver.close();
+            }
+        }
+    }
+
+    /***
+     * Joins the clients, a number of them at the same time
+     * @return the number of seconds it took
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private double join() throws InterruptedException {
+        Log.getInstance().info("Joining " + config.getClients() + " clients to " + config.getHost() + ":" + config.getPort() + "..");
+
+        ExecutorService joiners = Executors.newFixedThreadPool(config.getJoinConcurrency());
+        long start = System.nanoTime();
+        for (int i = 0; i < config.getClients(); i++) {
+            SimulatedClient client = new SimulatedClient(config.getPrefix() + i, config, stats);
+            Receiver receiver = receivers[i % receivers.length];
+            joiners.execute(() -> {
+                if (client.join()) {
+                    clients.add(client);
+                    receiver.register(client);
+                    client.start(scheduler);
+                }
+            });
+        }
+        joiners.shutdown();
+        joiners.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /***
+     * Lets the joined clients send messages for the configured duration, and waits for the last of them to arrive
+     * @return the number of seconds the clients sent messages
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private double send() throws InterruptedException {
+        if (config.getRate() > 0) {
+            long period = Math.max(1, Math.round(1e9 / config.getRate()));
+            for (SimulatedClient client : clients) {
+                client.startSending(scheduler, period);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int elapsed = 0; elapsed < config.getDuration(); elapsed += PROGRESS_SECONDS) {
+            int seconds = Math.min(PROGRESS_SECONDS, config.getDuration() - elapsed);
+            Thread.sleep(seconds * 1000L);
+            Log.getInstance().info((elapsed + seconds) + " s: " + stats.getSent() + " sent, " + stats.getDelivered() + " delivered, "
+                    + stats.getActive() + " clients active, latency p99 " + millis(stats.getLatency().getPercentile(99)) + " ms");
+        }
+
+        for (SimulatedClient client : clients) {
+            client.stopSending();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(config.getDrain() * 1000L);
+        return seconds;
+    }
+
+    /***
+     * Logs the results of the load test
+     * @param joinSeconds The number of seconds the clients took to join
+     * @param sendSeconds The number of seconds the clients sent messages
+     */
+    private void report(double joinSeconds, double sendSeconds) {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Joined %d of %d clients in %.3f s (%.1f joins/s), %d failed, %d disconnected by the server",
+                stats.getJoined(), config.getClients(), joinSeconds, stats.getJoined() / joinSeconds,
+                stats.getJoinFailed(), stats.getDisconnected()));
+        lines.add("Join latency: " + percentiles(stats.getJoinLatency()));
+
+        long expected = stats.getExpected();
+        long delivered = stats.getDelivered();
+        lines.add(String.format("Sent %d messages of %d characters in %.1f s (%.1f messages/s), %d rejected by the server",
+                stats.getSent(), config.getMessageSize(), sendSeconds, sendSeconds > 0 ? stats.getSent() / sendSeconds : 0,
+                stats.getRejected()));
+        lines.add(String.format("Delivered %d of %d expected (loss %.3f%%)",
+                delivered, expected, expected > 0 ? 100.0 * (expected - delivered) / expected : 0));
+        lines.add("Delivery latency: " + percentiles(stats.getLatency()));
+
+        for (String line : lines) {
+            Log.getInstance().message(line);
+        }
+    }
+
+    /***
+     * Formats the percentiles of a histogram of microseconds
+     * @param histogram The histogram
+     * @return the percentiles in milliseconds
+     */
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "no samples";
+        }
+
+        return "p50 " + millis(histogram.getPercentile(50)) + " ms, p90 " + millis(histogram.getPercentile(90))
+                + " ms, p99 " + millis(histogram.getPercentile(99)) + " ms, p99.9 " + millis(histogram.getPercentile(99.9))
+                + " ms, max " + millis(histogram.getMax()) + " ms";
+    }
+
+    /***
+     * Formats microseconds as milliseconds
+     * @param micros The number of microseconds
+     * @return the milliseconds with three decimals
+     */
+    private static String millis(long micros) {
+        return String.format("%.3f", micros / 1000.0);
+    }
+}
@@ -0,0 +1,279 @@
+package kea.chatsystem.loadtest;
+
+import kea.chatsystem.shared.LogLevel;
+
+/***
+ * Holds the configuration of a load test. Values are read from command line arguments on the form --name=value
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class LoadTestConfig {
+
+    //the longest text the server accepts in a DATA message
+    private static final int MAX_MESSAGE_LENGTH = 250;
+    private static final int MAX_USERNAME_LENGTH = 12;
+
+    private String host = "127.0.0.1";
+    private int port = 1234;
+    private int clients = 100;
+    private double rate = 1;
+    private int messageSize = 64;
+    private int duration = 30;
+    private int drain = 2;
+    private int heartbeat = 60;
+    private int joinConcurrency = 16;
+    private int receivers = Runtime.getRuntime().availableProcessors();
+    private int senders = Runtime.getRuntime().availableProcessors();
+    private boolean binary = false;
+    private String prefix = "load";
+    private LogLevel logLevel = LogLevel.INFO;
+
+    /***
+     * Constructor that creates a configuration with default values
+     */
+    public LoadTestConfig() { }
+
+    /***
+     * Creates a configuration from command line arguments. Arguments not given keep their default value.
+     * @param args Arguments on the form --name=value
+     * @return The parsed configuration
+     * @throws IllegalArgumentException if an argument is unknown or has an illegal value
+     */
+    public static LoadTestConfig parse(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Arguments must be on the form --name=value, got '" + arg + "'");
+            }
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "host":
+                    config.host = value;
+                    break;
+                case "port":
+                    config.port = parseInt(name, value, 1);
+                    break;
+                case "clients":
+                    config.clients = parseInt(name, value, 1);
+                    break;
+                case "rate":
+                    config.rate = parseDouble(name, value);
+                    break;
+                case "message-size":
+                    config.messageSize = parseInt(name, value, 1);
+                    if (config.messageSize > MAX_MESSAGE_LENGTH) {
+                        throw new IllegalArgumentException("--" + name + " must be at most " + MAX_MESSAGE_LENGTH);
+                    }
+                    break;
+                case "duration":
+                    config.duration = parseInt(name, value, 1);
+                    break;
+                case "drain":
+                    config.drain = parseInt(name, value, 0);
+                    break;
+                case "heartbeat":
+                    config.heartbeat = parseInt(name, value, 1);
+                    break;
+                case "join-concurrency":
+                    config.joinConcurrency = parseInt(name, value, 1);
+                    break;
+                case "receivers":
+                    config.receivers = parseInt(name, value, 1);
+                    break;
+                case "senders":
+                    config.senders = parseInt(name, value, 1);
+                    break;
+                case "binary":
+                    config.binary = parseBoolean(name, value);
+                    break;
+                case "prefix":
+                    config.prefix = value;
+                    break;
+                case "log-level":
+                    config.logLevel = LogLevel.fromName(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument '--" + name + "'");
+            }
+        }
+
+        //every username is the prefix followed by the number of the client
+        if (config.prefix.isEmpty() || config.prefix.length() + String.valueOf(config.clients - 1).length() > MAX_USERNAME_LENGTH) {
+            throw new IllegalArgumentException("--prefix must leave room for the client number in a username of at most "
+                    + MAX_USERNAME_LENGTH + " characters");
+        }
+
+        return config;
+    }
+
+    /***
+     * Parses a numeric argument value
+     * @param name Name of the argument (used in the error message)
+     * @param value The value to parse
+     * @param min The lowest legal value
+     * @return the parsed value
+     */
+    private static int parseInt(String name, String value, int min) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result < min) {
+                throw new IllegalArgumentException("--" + name + " must be at least " + min);
+            }
+            return result;
+        } catch (NumberFormatException nfE) {
+            throw new IllegalArgumentException("--" + name + " must be a number, got '" + value + "'");
+        }
+    }
+
+    /***
+     * Parses a decimal argument value, which must not be negative
+     * @param name Name of the argument (used in the error message)
+     * @param value The value to parse
+     * @return the parsed value
+     */
+    private static double parseDouble(String name, String value) {
+        try {
+            double result = Double.parseDouble(value);
+            if (!(result >= 0) || Double.isInfinite(result)) {
+                throw new IllegalArgumentException("--" + name + " must be a positive number or 0");
+            }
+            return result;
+        } catch (NumberFormatException nfE) {
+            throw new IllegalArgumentException("--" + name + " must be a number, got '" + value + "'");
+        }
+    }
+
+    /***
+     * Parses a true/false argument value
+     * @param name Name of the argument (used in the error message)
+     * @param value The value to parse
+     * @return the parsed value
+     */
+    private static boolean parseBoolean(String name, String value) {
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+
+        throw new IllegalArgumentException("--" + name + " must be true or false, got '" + value + "'");
+    }
+
+    /***
+     * get method
+     * @return the host name or ip address of the server
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /***
+     * get method
+     * @return the tcp port of the server
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /***
+     * get method
+     * @return the number of clients to join
+     */
+    public int getClients() {
+        return clients;
+    }
+
+    /***
+     * get method
+     * @return the number of DATA messages each client sends per second, 0 if the clients only send heartbeats
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /***
+     * get method
+     * @return the number of characters of text in each DATA message, at least the timestamp
+     */
+    public int getMessageSize() {
+        return messageSize;
+    }
+
+    /***
+     * get method
+     * @return how long the clients send messages once they have all joined, in seconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /***
+     * get method
+     * @return how long to wait for the last messages to arrive after the clients stop sending, in seconds
+     */
+    public int getDrain() {
+        return drain;
+    }
+
+    /***
+     * get method
+     * @return the time between the IMAV heartbeats of a client, in seconds
+     */
+    public int getHeartbeat() {
+        return heartbeat;
+    }
+
+    /***
+     * get method
+     * @return the number of clients joining at the same time
+     */
+    public int getJoinConcurrency() {
+        return joinConcurrency;
+    }
+
+    /***
+     * get method
+     * @return the number of selector threads reading what the server sends to the clients
+     */
+    public int getReceivers() {
+        return receivers;
+    }
+
+    /***
+     * get method
+     * @return the number of threads sending the messages and heartbeats of the clients
+     */
+    public int getSenders() {
+        return senders;
+    }
+
+    /***
+     * get method
+     * @return true if the clients speak the binary v2 protocol
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /***
+     * get method
+     * @return the start of every username, followed by the number of the client
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /***
+     * get method
+     * @return the lowest level of the lines that are logged
+     */
+    public LogLevel getLogLevel() {
+        return logLevel;
+    }
+}
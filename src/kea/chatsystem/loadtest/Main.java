@@ -0,0 +1,42 @@
+package kea.chatsystem.loadtest;
+
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+
+/***
+ * Main class for the load test, which simulates many chat clients against one server without any user input
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Main {
+
+    /***
+     * Main starting point of the load test
+     * @param args Arguments on the form --name=value, e.g. --clients=1000 (see LoadTestConfig)
+     */
+    public static void main(String[] args) {
+        LoadTestConfig config;
+        try {
+            config = LoadTestConfig.parse(args);
+        } catch (IllegalArgumentException iaE) {
+            Log.getInstance().error(iaE.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Log.getInstance().setLevel(config.getLogLevel());
+
+        try {
+            new LoadTest(config).run();
+        } catch (IOException ioE) {
+            Log.getInstance().error("Load test failed: " + ioE.getMessage());
+            System.exit(1);
+        } catch (InterruptedException iE) {
+            Log.getInstance().error("Load test was interrupted.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package kea.chatsystem.loadtest;
+
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/***
+ * Selector thread that reads what the server sends to its share of the simulated clients, the datagrams as well as the tcp connections.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Receiver implements Runnable {
+
+    //the largest datagram possible
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private Selector selector;
+    private Queue<SimulatedClient> newClients;
+    //shared by all clients of the receiver, since a datagram is handled as soon as it is read
+    private ByteBuffer datagramBuffer;
+
+    /***
+     * Constructor that opens the selector of the receiver
+     * @throws IOException if the selector could not be opened
+     */
+    public Receiver() throws IOException {
+        selector = Selector.open();
+        newClients = new ConcurrentLinkedQueue<>();
+        datagramBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    }
+
+    /***
+     * Hands a joined client over to this receiver. Safe to call from any thread.
+     * @param client The client, with its channels in non-blocking mode
+     */
+    public void register(SimulatedClient client) {
+        newClients.add(client);
+        selector.wakeup();
+    }
+
+    /***
+     * Stops the receiver
+     */
+    public void close() {
+        try {
+            selector.close();
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not close receiver: " + ioE.getMessage());
+        }
+    }
+
+    /***
+     * Method that gets executed upon Thread.start() call
+     */
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                registerNewClients();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    SimulatedClient client = (SimulatedClient)key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        if (key.channel() == client.getDatagramChannel()) {
+                            client.readDatagrams(datagramBuffer);
+                        } else {
+                            client.readStream();
+                        }
+                    }
+                }
+            } catch (IOException ioE) {
+                Log.getInstance().error("IOException in receiver: " + ioE.getMessage());
+            } catch (ClosedSelectorException csE) {
+                //the receiver was stopped while it was selecting
+            }
+        }
+    }
+
+    /***
+     * Registers the channels of the clients handed over since the last select
+     */
+    private void registerNewClients() {
+        SimulatedClient client;
+        while ((client = newClients.poll()) != null) {
+            try {
+                client.getChannel().register(selector, SelectionKey.OP_READ, client);
+                if (client.getDatagramChannel() != null) {
+                    client.getDatagramChannel().register(selector, SelectionKey.OP_READ, client);
+                }
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not register client " + client.getUsername() + ": " + ioE.getMessage());
+                client.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package kea.chatsystem.loadtest;
+
+import kea.chatsystem.client.ProtocolWriter;
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * A single chat client of a load test. Joins like the interactive client and writes its commands with the same ProtocolWriter,
+ * but reads what the server sends on a receiver thread shared with other clients, and only looks for the messages of the load test.
+ * Every message it sends starts with 'LT' and the time it was sent, so the client that receives it can tell how long it took.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class SimulatedClient {
+
+    //the start of the text of every message of the load test, followed by System.nanoTime() when it was sent
+    private static final byte[] MARKER = "LT ".getBytes(StandardCharsets.US_ASCII);
+    private static final String PADDING = "x".repeat(250);
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    //room for the burst of datagrams a broadcast to many clients arrives in
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+
+    private String username;
+    private LoadTestConfig config;
+    private LoadStats stats;
+
+    private SocketChannel channel;
+    private DatagramChannel datagramChannel;
+    private ProtocolWriter writer;
+    //true if the server accepted the binary v2 protocol, and if it writes the broadcasts to the tcp connection
+    private boolean binary;
+    private boolean push;
+    //what has been read from the tcp connection but does not make up a whole line or frame yet
+    private ByteBuffer streamBuffer;
+    private volatile boolean open;
+
+    private ScheduledFuture<?> heartbeatTask;
+    private ScheduledFuture<?> dataTask;
+
+    /***
+     * Constructor for a client that has not joined yet
+     * @param username The username to join with
+     * @param config The load test configuration
+     * @param stats The stats to count in
+     */
+    public SimulatedClient(String username, LoadTestConfig config, LoadStats stats) {
+        this.username = username;
+        this.config = config;
+        this.stats = stats;
+    }
+
+    /***
+     * Connects to the server and sends JOIN. Blocks until the reply has been read.
+     * @return true if the server replied J_OK
+     */
+    public boolean join() {
+        long start = System.nanoTime();
+        try {
+            channel = SocketChannel.open(new InetSocketAddress(config.getHost(), config.getPort()));
+
+            //send join request, always as a text line
+            String join = "JOIN " + username + ", " + config.getHost() + ":" + config.getPort()
+                    + (config.isBinary() ? " " + BinaryProtocol.JOIN_OPTION : "") + "\n";
+            ByteBuffer request = ByteBuffer.wrap(join.getBytes(StandardCharsets.UTF_8));
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+
+            String response = readResponse();
+            if (response == null || !response.startsWith("J_OK")) {
+                Log.getInstance().error("Client " + username + " could not join: "
+                        + (response == null ? "the server closed the connection" : "'" + response + "'"));
+                stats.joinFailed();
+                close();
+                return false;
+            }
+            readJoinOptions(response);
+
+            //the server sends the datagrams to the port the client connected from
+            if (!push) {
+                datagramChannel = DatagramChannel.open();
+                datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+                datagramChannel.bind(channel.getLocalAddress());
+                datagramChannel.configureBlocking(false);
+            }
+            channel.configureBlocking(false);
+            streamBuffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+            writer = new ProtocolWriter(new ChannelOutputStream(channel), binary);
+        } catch (IOException ioE) {
+            Log.getInstance().error("Client " + username + " could not join: " + ioE.getMessage());
+            stats.joinFailed();
+            close();
+            return false;
+        }
+
+        open = true;
+        stats.joined((System.nanoTime() - start) / 1000);
+        return true;
+    }
+
+    /***
+     * Asks for the list of active users like the interactive client does after joining, and starts sending heartbeats
+     * @param scheduler The scheduler that runs the heartbeats
+     */
+    public void start(ScheduledExecutorService scheduler) {
+        writer.list();
+        long period = config.getHeartbeat() * 1000L;
+        //spread the heartbeats of the clients over the period
+        heartbeatTask = scheduler.scheduleAtFixedRate(this::heartbeat, ThreadLocalRandom.current().nextLong(period),
+                period, TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * Starts sending DATA messages
+     * @param scheduler The scheduler that runs the sends
+     * @param periodNanos The time between two messages, in nanoseconds
+     */
+    public void startSending(ScheduledExecutorService scheduler, long periodNanos) {
+        dataTask = scheduler.scheduleAtFixedRate(this::send, ThreadLocalRandom.current().nextLong(periodNanos),
+                periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /***
+     * Stops sending DATA messages. Heartbeats go on until the client quits.
+     */
+    public void stopSending() {
+        if (dataTask != null) {
+            dataTask.cancel(false);
+        }
+    }
+
+    /***
+     * Sends QUIT and closes the connection
+     */
+    public void quit() {
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+        }
+        stopSending();
+        if (open) {
+            open = false;
+            writer.quit();
+        }
+        close();
+    }
+
+    /***
+     * Sends an IMAV heartbeat
+     */
+    private void heartbeat() {
+        if (open) {
+            writer.heartbeat();
+        }
+    }
+
+    /***
+     * Sends a DATA message holding the time it is sent, padded to the message size
+     */
+    private void send() {
+        if (!open) {
+            return;
+        }
+
+        StringBuilder text = new StringBuilder(config.getMessageSize() + 24);
+        text.append("LT ").append(System.nanoTime()).append(' ');
+        if (text.length() < config.getMessageSize()) {
+            text.append(PADDING, 0, config.getMessageSize() - text.length());
+        }
+        writer.data(username, text.toString());
+        stats.sent();
+    }
+
+    /***
+     * Reads every datagram waiting on the datagram channel. Called by the receiver thread.
+     * @param buffer The buffer to read the datagrams into, shared by the clients of the receiver
+     */
+    void readDatagrams(ByteBuffer buffer) {
+        try {
+            while (true) {
+                buffer.clear();
+                if (datagramChannel.receive(buffer) == null) {
+                    return;
+                }
+                buffer.flip();
+                long now = System.nanoTime();
+                if (binary) {
+                    if (!handleFrames(buffer, now) || buffer.hasRemaining()) {
+                        Log.getInstance().error("Client " + username + " received an invalid datagram.");
+                    }
+                } else {
+                    handleLines(buffer, now);
+                    //the last message of a datagram has no line feed after it
+                    if (buffer.hasRemaining()) {
+                        handleLine(buffer, buffer.position(), buffer.limit(), now);
+                    }
+                }
+            }
+        } catch (ClosedChannelException ccE) {
+            //the client quit while the receiver was reading
+        } catch (IOException ioE) {
+            Log.getInstance().error("Client " + username + " could not receive datagram: " + ioE.getMessage());
+        }
+    }
+
+    /***
+     * Reads what has arrived on the tcp connection, and handles the whole lines or frames. Called by the receiver thread.
+     */
+    void readStream() {
+        try {
+            if (channel.read(streamBuffer) < 0) {
+                disconnected();
+                return;
+            }
+        } catch (IOException ioE) {
+            disconnected();
+            return;
+        }
+
+        streamBuffer.flip();
+        long now = System.nanoTime();
+        if (binary) {
+            if (!handleFrames(streamBuffer, now)) {
+                Log.getInstance().error("Client " + username + " received an invalid frame.");
+                disconnected();
+                return;
+            }
+        } else {
+            handleLines(streamBuffer, now);
+        }
+        streamBuffer.compact();
+
+        //a line or frame that does not fit, such as the LIST of many users
+        if (!streamBuffer.hasRemaining()) {
+            if (streamBuffer.capacity() >= BinaryProtocol.MAX_FRAME_LENGTH) {
+                Log.getInstance().error("Client " + username + " received a message longer than " + BinaryProtocol.MAX_FRAME_LENGTH + " bytes.");
+                disconnected();
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(streamBuffer.capacity() * 2);
+            streamBuffer.flip();
+            larger.put(streamBuffer);
+            streamBuffer = larger;
+        }
+    }
+
+    /***
+     * Handles every whole text line in a buffer, leaving the position after the last line feed
+     * @param buffer The buffer, from its position to its limit
+     * @param now The time the bytes were read, from System.nanoTime()
+     */
+    private void handleLines(ByteBuffer buffer, long now) {
+        int start = buffer.position();
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                handleLine(buffer, start, i, now);
+                start = i + 1;
+            }
+        }
+        buffer.position(start);
+    }
+
+    /***
+     * Handles a single text line, counting the DATA messages of the load test and the J_ER replies
+     * @param buffer The buffer holding the line
+     * @param start The index of the first byte of the line
+     * @param end The index after the last byte, line feed not included
+     * @param now The time the line was read, from System.nanoTime()
+     */
+    private void handleLine(ByteBuffer buffer, int start, int end, long now) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+
+        if (startsWith(buffer, start, end, "DATA ")) {
+            //the text starts after 'DATA username: '
+            for (int i = start + 5; i < end - 1; i++) {
+                if (buffer.get(i) == ':' && buffer.get(i + 1) == ' ') {
+                    delivered(buffer, i + 2, end, now);
+                    return;
+                }
+            }
+        } else if (startsWith(buffer, start, end, "J_ER")) {
+            stats.rejected();
+        }
+    }
+
+    /***
+     * Handles every whole binary frame in a buffer, leaving the position after the last of them
+     * @param buffer The buffer, from its position to its limit
+     * @param now The time the bytes were read, from System.nanoTime()
+     * @return false if a frame has an invalid length
+     */
+    private boolean handleFrames(ByteBuffer buffer, long now) {
+        while (buffer.hasRemaining()) {
+            //read the varint length without moving past it, since the frame may not have arrived yet
+            int i = buffer.position();
+            long length = 0;
+            int shift = 0;
+            boolean complete = false;
+            while (i < buffer.limit() && shift < 35) {
+                int b = buffer.get(i++);
+                length |= (long)(b & 0x7F) << shift;
+                shift += 7;
+                if ((b & 0x80) == 0) {
+                    complete = true;
+                    break;
+                }
+            }
+            if (!complete) {
+                return shift < 35;
+            }
+            if (length == 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                return false;
+            }
+            if (buffer.limit() - i < length) {
+                return true;
+            }
+
+            handleFrame(buffer, i, i + (int)length, now);
+            buffer.position(i + (int)length);
+        }
+
+        return true;
+    }
+
+    /***
+     * Handles a single binary frame, counting the DATA messages of the load test and the error frames
+     * @param buffer The buffer holding the frame
+     * @param start The index of the opcode
+     * @param end The index after the last byte of the payload
+     * @param now The time the frame was read, from System.nanoTime()
+     */
+    private void handleFrame(ByteBuffer buffer, int start, int end, long now) {
+        int opcode = buffer.get(start) & 0xFF;
+        if (opcode == BinaryProtocol.DATA) {
+            //the text starts after the varint user id
+            int i = start + 1;
+            while (i < end && (buffer.get(i) & 0x80) != 0) {
+                i++;
+            }
+            delivered(buffer, i + 1, end, now);
+        } else if ((opcode & BinaryProtocol.ERROR) != 0) {
+            stats.rejected();
+        }
+    }
+
+    /***
+     * Counts a received message if it is one of the load test, with the time since it was sent
+     * @param buffer The buffer holding the text of the message
+     * @param start The index of the first byte of the text
+     * @param end The index after the last byte of the text
+     * @param now The time the message was read, from System.nanoTime()
+     */
+    private void delivered(ByteBuffer buffer, int start, int end, long now) {
+        if (end - start <= MARKER.length || buffer.get(start) != MARKER[0] || buffer.get(start + 1) != MARKER[1]
+                || buffer.get(start + 2) != MARKER[2]) {
+            return;
+        }
+
+        long sent = 0;
+        int i = start + MARKER.length;
+        for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+            sent = sent * 10 + (buffer.get(i) - '0');
+        }
+        if (i > start + MARKER.length) {
+            stats.delivered((now - sent) / 1000);
+        }
+    }
+
+    /***
+     * Checks if a line starts with an ascii text
+     * @param buffer The buffer holding the line
+     * @param start The index of the first byte of the line
+     * @param end The index after the last byte of the line
+     * @param text The text
+     * @return true if the line starts with the text
+     */
+    private static boolean startsWith(ByteBuffer buffer, int start, int end, String text) {
+        if (end - start < text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.get(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /***
+     * Reads the reply to JOIN a byte at a time, so nothing the server sends after it is read ahead
+     * @return the reply line without the line separator, or null if the server closed the connection
+     * @throws IOException if the reply could not be read
+     */
+    private String readResponse() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        ByteBuffer b = ByteBuffer.allocate(1);
+        while (true) {
+            b.clear();
+            if (channel.read(b) < 0) {
+                return null;
+            }
+            byte value = b.get(0);
+            if (value == '\n') {
+                return line.toString(StandardCharsets.UTF_8);
+            }
+            if (value != '\r') {
+                line.write(value);
+            }
+        }
+    }
+
+    /***
+     * Reads the options after J_OK. The multicast group is ignored, so the server keeps sending the client its own datagrams.
+     * @param response The J_OK line received from the server
+     */
+    private void readJoinOptions(String response) {
+        for (String option : response.substring(4).trim().split(" ")) {
+            if (option.equals("push=tcp")) {
+                push = true;
+            } else if (option.equals(BinaryProtocol.JOIN_OPTION)) {
+                binary = true;
+            }
+        }
+    }
+
+    /***
+     * Marks the client as no longer joined after the server closed the connection
+     */
+    private void disconnected() {
+        if (open) {
+            open = false;
+            stats.disconnected();
+            Log.getInstance().info("Client " + username + " was disconnected by the server.");
+        }
+        close();
+    }
+
+    /***
+     * Closes the channels of the client
+     */
+    void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (datagramChannel != null) {
+                datagramChannel.close();
+            }
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not close client " + username + ": " + ioE.getMessage());
+        }
+    }
+
+    /***
+     * get method
+     * @return the username of the client
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /***
+     * get method
+     * @return the tcp connection to the server
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /***
+     * get method
+     * @return the channel the datagrams from the server arrive on, null if the server writes the broadcasts to the tcp connection
+     */
+    DatagramChannel getDatagramChannel() {
+        return datagramChannel;
+    }
+}
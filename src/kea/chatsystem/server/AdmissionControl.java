@@ -0,0 +1,219 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Histogram;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.shared.ErrorType;
+import kea.chatsystem.shared.Log;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Decides which accepted connections the server serves. The server holds at most a number of connections at once, and at most
+ * a number from each ip address. A connection that arrives while the server is full waits in a short queue, and is served as soon as
+ * another connection closes. A connection that is over the limit of its address, finds the queue full or waits too long is told
+ * to try again after a while, with some randomness, so clients that were turned away together do not all come back together.
+ * Both the thread pool and the nio acceptor use it, so the limits are the same in every mode.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class AdmissionControl {
+
+    private static final Counter ACCEPTED = Metrics.getInstance().counter("connections.accepted");
+    private static final Counter REJECTED = Metrics.getInstance().counter("connections.rejected");
+    private static final Counter REJECTED_ADDRESS = Metrics.getInstance().counter("connections.rejected.address");
+    private static final Counter QUEUED = Metrics.getInstance().counter("connections.queued");
+    private static final Counter TIMED_OUT = Metrics.getInstance().counter("connections.timedout");
+    private static final Histogram WAIT_TIME = Metrics.getInstance().histogram("connections.wait.ms");
+
+    /***
+     * An accepted connection that is waiting to be served or turned away
+     */
+    public interface Candidate {
+
+        /***
+         * Starts serving the connection. Called once, on the acceptor thread or on the thread of a connection that closed.
+         */
+        void admit();
+
+        /***
+         * Writes the reply to the client and closes the connection. Called once, instead of admit().
+         * @param reply The J_ER line, without the line feed
+         */
+        void reject(String reply);
+    }
+
+    /***
+     * A connection in the wait queue
+     */
+    private static class Waiter {
+
+        private InetAddress address;
+        private Candidate candidate;
+        private long since;
+
+        /***
+         * Constructor for a connection that starts to wait
+         * @param address The address of the client
+         * @param candidate The connection
+         */
+        private Waiter(InetAddress address, Candidate candidate) {
+            this.address = address;
+            this.candidate = candidate;
+            since = System.currentTimeMillis();
+        }
+    }
+
+    private int maxConnections;
+    private int maxPerAddress;
+    private int queueSize;
+    private long waitMillis;
+    private long retryMillis;
+
+    //guarded by this
+    private int open;
+    private Map<InetAddress, Integer> perAddress;
+    private ArrayDeque<Waiter> waiting;
+
+    private ScheduledExecutorService timer;
+
+    /***
+     * Constructor that takes the limits from the configuration
+     * @param config The server configuration
+     */
+    public AdmissionControl(ServerConfig config) {
+        maxConnections = config.getMaxConnections();
+        maxPerAddress = config.getMaxConnectionsPerAddress();
+        queueSize = config.getAdmissionQueue();
+        waitMillis = config.getAdmissionWait();
+        retryMillis = config.getRetryAfter();
+        perAddress = new HashMap<>();
+        waiting = new ArrayDeque<>();
+
+        //the waiting connections are turned away by a thread of their own, the acceptor never waits for them
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Admission");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Metrics.getInstance().gauge("connections.open", this::getOpen);
+        Metrics.getInstance().gauge("connections.waiting", this::getWaiting);
+    }
+
+    /***
+     * Serves an accepted connection now, puts it in the wait queue, or turns it away. Called by the acceptor thread.
+     * @param address The address of the client
+     * @param candidate The connection
+     */
+    public void request(InetAddress address, Candidate candidate) {
+        ErrorType error = null;
+        Waiter waiter = null;
+        synchronized (this) {
+            if (maxPerAddress > 0 && perAddress.getOrDefault(address, 0) >= maxPerAddress) {
+                error = ErrorType.TOO_MANY_CONNECTIONS;
+            } else if (open < maxConnections && waiting.isEmpty()) {
+                open++;
+                perAddress.merge(address, 1, Integer::sum);
+            } else if (waitMillis > 0 && waiting.size() < queueSize) {
+                //a waiting connection counts against its address too, so one address cannot fill the queue
+                waiter = new Waiter(address, candidate);
+                waiting.add(waiter);
+                perAddress.merge(address, 1, Integer::sum);
+            } else {
+                error = ErrorType.NO_AVAILABLE_THREAD;
+            }
+        }
+
+        if (error != null) {
+            if (error == ErrorType.TOO_MANY_CONNECTIONS) {
+                REJECTED_ADDRESS.increment();
+            }
+            reject(candidate, error);
+        } else if (waiter != null) {
+            QUEUED.increment();
+            Waiter queued = waiter;
+            timer.schedule(() -> expire(queued), waitMillis, TimeUnit.MILLISECONDS);
+        } else {
+            ACCEPTED.increment();
+            candidate.admit();
+        }
+    }
+
+    /***
+     * Gives back the place of a connection that closed, and serves the connection that has waited the longest in it
+     * @param address The address of the client of the connection that closed
+     */
+    public void release(InetAddress address) {
+        Waiter next;
+        synchronized (this) {
+            perAddress.computeIfPresent(address, (key, count) -> count > 1 ? count - 1 : null);
+            next = waiting.poll();
+            //the place goes straight to the next connection, so no new connection can take it first
+            if (next == null) {
+                open--;
+            }
+        }
+
+        if (next != null) {
+            ACCEPTED.increment();
+            WAIT_TIME.record(System.currentTimeMillis() - next.since);
+            next.candidate.admit();
+        }
+    }
+
+    /***
+     * Turns a connection away if it is still waiting. Called by the timer thread.
+     * @param waiter The connection
+     */
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!waiting.remove(waiter)) {
+                //it was served meanwhile
+                return;
+            }
+            perAddress.computeIfPresent(waiter.address, (key, count) -> count > 1 ? count - 1 : null);
+        }
+
+        TIMED_OUT.increment();
+        reject(waiter.candidate, ErrorType.NO_AVAILABLE_THREAD);
+    }
+
+    /***
+     * Turns a connection away with a hint of when to try again, between one and two times the configured retry time
+     * @param candidate The connection
+     * @param error The reason
+     */
+    private void reject(Candidate candidate, ErrorType error) {
+        REJECTED.increment();
+        long retry = retryMillis + ThreadLocalRandom.current().nextLong(retryMillis + 1);
+        String reply = "J_ER " + error + " retry=" + retry;
+        Log.getInstance().transaction(reply, false);
+        candidate.reject(reply);
+    }
+
+    /***
+     * get method
+     * @return the connections being served
+     */
+    public synchronized int getOpen() {
+        return open;
+    }
+
+    /***
+     * get method
+     * @return the connections waiting to be served
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
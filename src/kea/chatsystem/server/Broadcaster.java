@@ -0,0 +1,179 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.ClientSnapshot;
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.Log;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/***
+ * Encodes protocol messages into datagrams and hands them to the sender shards, which send them to their share of the clients.
+ * Each message is encoded once into reused direct buffers that all shards read from, and several messages are packed into
+ * one datagram as long as it stays below the datagram size, so a burst of messages costs
+ * one send per client instead of one per message and client.
+ * While any client speaks the binary v2 protocol the messages are encoded a second time as binary frames, with user ids instead of usernames.
+ * In tcp delivery the messages are also encoded into a single frame of lines, which is queued on the connection of every client.
+ * Not thread-safe: every thread that broadcasts needs its own broadcaster, but they can share the shards.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Broadcaster {
+
+    //the largest datagram possible, used for a single message that does not fit the configured datagram size
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private SenderShard[] shards;
+    private boolean pushFrames;
+    private CharsetEncoder encoder;
+    private CharsetEncoder binaryEncoder;
+
+    //scratch buffers each message is encoded into before it is copied to a datagram
+    private ByteBuffer encoded;
+    private ByteBuffer payload;
+    private ByteBuffer binaryEncoded;
+
+    private DatagramPacker textPacker;
+    private DatagramPacker binaryPacker;
+
+    /***
+     * Constructor for a broadcaster
+     * @param shards The sender shards, one for each share of the clients
+     * @param datagramSize The largest datagram to build when packing several messages together
+     * @param coalesce true to pack several messages into one datagram, false to send each message in its own datagram
+     * @param pushFrames true to also build a frame for clients that get their broadcasts over tcp
+     */
+    public Broadcaster(SenderShard[] shards, int datagramSize, boolean coalesce, boolean pushFrames) {
+        this.shards = shards;
+        this.pushFrames = pushFrames;
+        encoder = Charset.defaultCharset().newEncoder();
+        binaryEncoder = StandardCharsets.UTF_8.newEncoder();
+        encoded = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        payload = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        binaryEncoded = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        textPacker = new DatagramPacker(datagramSize, coalesce, true);
+        binaryPacker = new DatagramPacker(datagramSize, coalesce, false);
+    }
+
+    /***
+     * Sends a batch of messages, in order, to every client in a snapshot. Returns when all shards have sent it.
+     * @param messages The messages to send
+     * @param recipients The clients to send to
+     * @param group The multicast group to send to once instead of to the clients listening on it, or null
+     * @throws InterruptedException if the thread is interrupted while waiting for the shards
+     */
+    public void broadcast(List<String> messages, ClientSnapshot recipients, SocketAddress group) throws InterruptedException {
+        boolean binary = recipients.hasBinaryClients();
+        textPacker.clear();
+        binaryPacker.clear();
+        for (String message : messages) {
+            add(message);
+            if (binary) {
+                addBinary(message);
+            }
+        }
+        textPacker.finish();
+        binaryPacker.finish();
+
+        //new arrays for every broadcast, since they stay in the outbound queues after the broadcast returns
+        byte[] frame = pushFrames ? textPacker.buildFrame() : null;
+        byte[] binaryFrame = pushFrames && binary ? binaryPacker.buildFrame() : null;
+
+        //the group is skipped while no client listens on it
+        boolean multicast = group != null && recipients.hasMulticastClients();
+
+        //every shard sends to its own clients at the same time, the buffers are reused once they are all done
+        CountDownLatch done = new CountDownLatch(shards.length);
+        for (SenderShard shard : shards) {
+            SocketAddress shardGroup = multicast && shard.getIndex() == 0 ? group : null;
+            shard.submit(textPacker, frame, binary ? binaryPacker : null, binaryFrame,
+                    recipients.getRecipients(shard.getIndex(), multicast), shardGroup, done);
+        }
+        done.await();
+    }
+
+    /***
+     * Encodes a message as a text line and adds it to the text datagrams
+     * @param message The message to add
+     */
+    private void add(String message) {
+        encoded.clear();
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(message), encoded, true);
+        if (result.isError() || result.isOverflow()) {
+            Log.getInstance().error("Could not encode message for broadcast: " + result);
+            return;
+        }
+        encoder.flush(encoded);
+        encoded.flip();
+
+        textPacker.add(encoded);
+    }
+
+    /***
+     * Encodes a message as a binary frame and adds it to the binary datagrams. The messages of the watcher are
+     * 'DATA username: text', 'JOIN @version username' and 'LEFT @version username', built by the server itself.
+     * @param message The message to add
+     */
+    private void addBinary(String message) {
+        payload.clear();
+        try {
+            if (message.startsWith("DATA ")) {
+                int separator = message.indexOf(": ", 5);
+                payload.put((byte)BinaryProtocol.DATA);
+                BinaryProtocol.putVarint(payload, ClientList.getInstance().getUserId(message.substring(5, separator)));
+                if (!encodeText(message, separator + 2)) {
+                    return;
+                }
+            } else if (message.startsWith("JOIN @") || message.startsWith("LEFT @")) {
+                int separator = message.indexOf(' ', 6);
+                boolean join = message.charAt(0) == 'J';
+                payload.put((byte)(join ? BinaryProtocol.JOIN : BinaryProtocol.LEFT));
+                BinaryProtocol.putVarint(payload, Long.parseLong(message, 6, separator, 10));
+                BinaryProtocol.putVarint(payload, ClientList.getInstance().getUserId(message.substring(separator + 1)));
+                if (join && !encodeText(message, separator + 1)) {
+                    return;
+                }
+            } else {
+                Log.getInstance().error("Could not encode message for binary broadcast: '" + message + "'");
+                return;
+            }
+        } catch (RuntimeException rE) {
+            Log.getInstance().error("Could not encode message for binary broadcast: '" + message + "': " + rE);
+            return;
+        }
+        payload.flip();
+
+        binaryEncoded.clear();
+        BinaryProtocol.putVarint(binaryEncoded, payload.remaining());
+        binaryEncoded.put(payload).flip();
+        binaryPacker.add(binaryEncoded);
+    }
+
+    /***
+     * Encodes the end of a message as UTF-8 into the payload
+     * @param message The message
+     * @param start The index of the first character to encode
+     * @return true if it was encoded
+     */
+    private boolean encodeText(String message, int start) {
+        binaryEncoder.reset();
+        CoderResult result = binaryEncoder.encode(CharBuffer.wrap(message, start, message.length()), payload, true);
+        if (result.isError() || result.isOverflow()) {
+            Log.getInstance().error("Could not encode message for binary broadcast: " + result);
+            return false;
+        }
+        binaryEncoder.flush(payload);
+        return true;
+    }
+}
@@ -0,0 +1,634 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.ErrorType;
+import kea.chatsystem.shared.Log;
+import kea.chatsystem.shared.LogLevel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/***
+ * Splits the bytes received from a client into lines and turns every line into a call on its Session. Works directly on the bytes:
+ * the command is recognized from its first four bytes, and the username of JOIN is checked against a table of legal characters,
+ * so IMAV, LIST, MCST and QUIT are handled without creating a single object, and DATA only creates the line it broadcasts.
+ * Bytes can be handed over in any pieces, a line may be split over several reads. Used by both Worker and NioConnection.
+ * A JOIN line ending with 'proto=v2' switches the decoder to binary frames for everything after it (see BinaryProtocol).
+ * After the first JOIN, 'JOIN #room', 'PART #room', 'LIST #room' and 'DATA #room username: text' work on chat rooms (text protocol only),
+ * and 'PRIV recipient: text' sends a direct message to a single user.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class CommandDecoder {
+
+    //a longer line than this cannot be a valid protocol message (269 chars is the longest DATA message)
+    private static final int MAX_LINE_LENGTH = 1024;
+    private static final int MAX_USERNAME_LENGTH = 12;
+    private static final int MAX_ROOM_NAME_LENGTH = 20;
+    private static final int MAX_MESSAGE_LENGTH = 250;
+
+    private static final Counter COMMANDS = Metrics.getInstance().counter("commands.received");
+
+    //the commands as the int of their four bytes
+    private static final int JOIN = command("JOIN");
+    private static final int IMAV = command("IMAV");
+    private static final int DATA = command("DATA");
+    private static final int LIST = command("LIST");
+    private static final int MCST = command("MCST");
+    private static final int QUIT = command("QUIT");
+    private static final int PART = command("PART");
+    private static final int PRIV = command("PRIV");
+
+    //' proto=v2' in bytes, which a JOIN line asking for the binary protocol ends with
+    private static final byte[] BINARY_OPTION = (" " + BinaryProtocol.JOIN_OPTION).getBytes(StandardCharsets.UTF_8);
+
+    //legal username characters by code point: a-z, A-Z, 0-9, '-', '_' and æøåÆØÅ
+    private static final boolean[] USERNAME_CHARS = new boolean[256];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            USERNAME_CHARS[c] = true;
+            USERNAME_CHARS[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            USERNAME_CHARS[c] = true;
+        }
+        for (char c : "-_æøåÆØÅ".toCharArray()) {
+            USERNAME_CHARS[c] = true;
+        }
+    }
+
+    private Session session;
+    private byte[] line;
+    private int lineLength;
+    private boolean joined;
+    //'DATA username: ' in bytes, which every DATA line of the client must start with
+    private byte[] dataPrefix;
+
+    //binary frames: the length of the frame being read, or -1 while its varint length is being read
+    private boolean binary;
+    private int frameLength = -1;
+    private int varintValue;
+    private int varintShift;
+    //the DATA line built from the prefix and the text of a binary DATA frame
+    private byte[] dataLine;
+
+    //true while the JOIN waits for the cluster, the bytes received after it are held until it is answered
+    private boolean waiting;
+    private ByteBuffer held;
+
+    /***
+     * Constructor for a decoder
+     * @param session The session the commands are handed to
+     */
+    public CommandDecoder(Session session) {
+        this.session = session;
+        line = new byte[128];
+    }
+
+    /***
+     * Handles the bytes in a buffer, from its position to its limit
+     * @param buffer The bytes received from the client
+     * @return true if the connection stays open, false if it must be closed once the replies have been written.
+     * The bytes after the line that closed the connection are left in the buffer.
+     */
+    public boolean decode(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (waiting) {
+                hold(buffer);
+                return true;
+            }
+            if (!decode(buffer.get())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /***
+     * Handles the bytes in part of an array
+     * @param bytes The bytes received from the client
+     * @param offset The index of the first byte
+     * @param length The number of bytes
+     * @return true if the connection stays open, false if it must be closed once the replies have been written
+     */
+    public boolean decode(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (waiting) {
+                hold(ByteBuffer.wrap(bytes, i, offset + length - i));
+                return true;
+            }
+            if (!decode(bytes[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /***
+     * Keeps the bytes received while the JOIN waits for the cluster, so they are handled in order once it is answered
+     * @param buffer The bytes, from its position to its limit
+     */
+    private void hold(ByteBuffer buffer) {
+        ByteBuffer bytes = ByteBuffer.allocate((held == null ? 0 : held.remaining()) + buffer.remaining());
+        if (held != null) {
+            bytes.put(held);
+        }
+        held = bytes.put(buffer).flip();
+    }
+
+    /***
+     * Handles the bytes held while the JOIN waited for the cluster. Called by the transport once the join has finished.
+     * @return true if the connection stays open, false if the join failed or a held line closed the connection
+     */
+    public boolean resume() {
+        if (!joined) {
+            return false;
+        }
+        ByteBuffer bytes = held;
+        held = null;
+        return bytes == null || decode(bytes);
+    }
+
+    /***
+     * Method to determine if the decoder waits for the cluster to answer the JOIN
+     * @return true while the JOIN is not answered
+     */
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    /***
+     * Adds a single byte to the current line, and handles the line when it ends
+     * @param b The byte
+     * @return true if the connection stays open
+     */
+    private boolean decode(byte b) {
+        if (binary) {
+            return decodeFrame(b);
+        }
+        if (b == '\n') {
+            //readLine() also strips a carriage return before the line feed
+            int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+            lineLength = 0;
+            return joined ? handle(length) : join(length);
+        }
+
+        if (lineLength == MAX_LINE_LENGTH) {
+            Log.getInstance().error("Closing connection that sent a line longer than " + MAX_LINE_LENGTH + " bytes.");
+            return false;
+        }
+        append(b);
+        return true;
+    }
+
+    /***
+     * Adds a single byte to the current binary frame, and handles the frame when it is complete
+     * @param b The byte
+     * @return true if the connection stays open
+     */
+    private boolean decodeFrame(byte b) {
+        if (frameLength >= 0) {
+            append(b);
+            if (lineLength < frameLength) {
+                return true;
+            }
+            int length = lineLength;
+            lineLength = 0;
+            frameLength = -1;
+            return handleFrame(length);
+        }
+
+        varintValue |= (b & 0x7F) << varintShift;
+        varintShift += 7;
+        if ((b & 0x80) != 0) {
+            //two varint bytes are enough for any frame up to the maximum length
+            if (varintShift == 14) {
+                Log.getInstance().error("Closing connection that sent a frame longer than " + MAX_LINE_LENGTH + " bytes.");
+                return false;
+            }
+            return true;
+        }
+
+        int length = varintValue;
+        varintValue = 0;
+        varintShift = 0;
+        if (length == 0 || length > MAX_LINE_LENGTH) {
+            Log.getInstance().error("Closing connection that sent a frame of " + length + " bytes.");
+            return false;
+        }
+        frameLength = length;
+        return true;
+    }
+
+    /***
+     * Adds a byte to the line, growing it if needed. The line never grows beyond MAX_LINE_LENGTH.
+     * @param b The byte
+     */
+    private void append(byte b) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_LENGTH));
+        }
+        line[lineLength++] = b;
+    }
+
+    /***
+     * Handles the first line, which must be 'JOIN username, server_ip:server_port', optionally followed by ' proto=v2'
+     * @param length The length of the line in bytes
+     * @return true if the client joined or the join waits for the cluster
+     */
+    private boolean join(int length) {
+        // 6 is the minimum length to have a 1 character username
+        if (length <= 5) {
+            session.reject(ErrorType.MISUSED_COMMAND);
+            return false;
+        }
+        if (commandOf() != JOIN) {
+            session.reject(ErrorType.UNEXPECTED_COMMAND);
+            return false;
+        }
+
+        //the username runs from after 'JOIN ' to the comma, or to the end of the line if there is none
+        int end = 5;
+        while (end < length && line[end] != ',') {
+            end++;
+        }
+        if (!isLegalName(line, 5, end, MAX_USERNAME_LENGTH)) {
+            session.reject(ErrorType.ILLEGAL_USERNAME);
+            return false;
+        }
+
+        boolean binaryOption = end < length && length - end >= BINARY_OPTION.length
+                && Arrays.equals(line, length - BINARY_OPTION.length, length, BINARY_OPTION, 0, BINARY_OPTION.length);
+
+        String username = new String(line, 5, end - 5, StandardCharsets.UTF_8);
+        //the session answers right away unless the username is claimed from another node of a cluster
+        waiting = true;
+        session.join(username, binaryOption, added -> joined(username, binaryOption, added));
+        return waiting || joined;
+    }
+
+    /***
+     * Switches to the commands of a joined client once the session has answered the JOIN
+     * @param username The username of the client
+     * @param binaryOption true if the JOIN line asked for the binary v2 protocol
+     * @param added true if the client was added to the active client list
+     */
+    private void joined(String username, boolean binaryOption, boolean added) {
+        waiting = false;
+        joined = added;
+        if (joined) {
+            dataPrefix = ("DATA " + username + ": ").getBytes(StandardCharsets.UTF_8);
+            if (binaryOption) {
+                binary = true;
+                dataLine = Arrays.copyOf(dataPrefix, dataPrefix.length + MAX_LINE_LENGTH);
+            }
+        }
+    }
+
+    /***
+     * Checks a username or room name against the table of legal characters. Only ascii and the two byte UTF-8 characters up to U+00FF can be legal.
+     * @param line The bytes the name is part of
+     * @param start The index of the first byte of the name in the line
+     * @param end The index after the last byte
+     * @param maxLength The most characters the name may have
+     * @return true if the name has 1 to maxLength characters, all of them legal
+     */
+    private static boolean isLegalName(byte[] line, int start, int end, int maxLength) {
+        int characters = 0;
+        int i = start;
+        while (i < end) {
+            int codePoint = line[i] & 0xFF;
+            if (codePoint >= 0x80) {
+                //0xC2 and 0xC3 start the two byte characters U+0080 - U+00FF
+                if ((codePoint != 0xC2 && codePoint != 0xC3) || i + 1 == end || (line[i + 1] & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = ((codePoint & 0x1F) << 6) | (line[i + 1] & 0x3F);
+                i++;
+            }
+            if (!USERNAME_CHARS[codePoint]) {
+                return false;
+            }
+            i++;
+            characters++;
+        }
+
+        return characters > 0 && characters <= maxLength;
+    }
+
+    /***
+     * Handles a line received after the client has joined
+     * @param length The length of the line in bytes
+     * @return true if the client is still active
+     */
+    private boolean handle(int length) {
+        COMMANDS.increment();
+        //log transaction, without creating the string while transactions are not logged
+        if (Log.getInstance().isEnabled(LogLevel.TRANSACTION)) {
+            Log.getInstance().transaction(new String(line, 0, length, StandardCharsets.UTF_8), true);
+        }
+        //check if message is more than 4 chars
+        if (length < 4) {
+            Log.getInstance().error("Client message is too short to contain any meaningful information. (Minimum is 4 characters)");
+            return true;
+        }
+
+        int command = commandOf();
+        if (command == IMAV) {
+            session.heartbeat();
+        } else if (command == DATA) {
+            handleData(length);
+        } else if (command == PRIV) {
+            handleDirect(length);
+        } else if (command == LIST && length == 4) {
+            session.list();
+        } else if (command == JOIN || command == PART || command == LIST) {
+            handleRoomCommand(command, length);
+        } else if (command == MCST) {
+            session.multicast();
+        } else if (command == QUIT) {
+            session.quit();
+        } else {
+            Log.getInstance().error("Unknown/unexpected client message: '" + new String(line, 0, length, StandardCharsets.UTF_8) + "'");
+        }
+
+        return session.isActive();
+    }
+
+    /***
+     * Handles a line on the form 'JOIN #room', 'PART #room' or 'LIST #room'
+     * @param command The command of the line
+     * @param length The length of the line in bytes
+     */
+    private void handleRoomCommand(int command, int length) {
+        if (length < 7 || line[4] != ' ' || line[5] != '#' || !isLegalName(line, 6, length, MAX_ROOM_NAME_LENGTH)) {
+            Log.getInstance().error("Invalid room command received: '" + new String(line, 0, length, StandardCharsets.UTF_8) + "'");
+            session.reject(ErrorType.MISUSED_COMMAND);
+            return;
+        }
+
+        String room = new String(line, 6, length - 6, StandardCharsets.UTF_8);
+        if (command == JOIN) {
+            session.joinRoom(room);
+        } else if (command == PART) {
+            session.partRoom(room);
+        } else {
+            session.listRoom(room);
+        }
+    }
+
+    /***
+     * Handles a line on the form 'DATA username: text', or 'DATA #room username: text' to the members of a room.
+     * The line is broadcast as it is, so it must carry the username of the client.
+     * @param length The length of the line in bytes
+     */
+    private void handleData(int length) {
+        if (length > 6 && line[4] == ' ' && line[5] == '#') {
+            handleRoomData(length);
+            return;
+        }
+        if (length < dataPrefix.length || !Arrays.equals(line, 0, dataPrefix.length, dataPrefix, 0, dataPrefix.length)) {
+            Log.getInstance().error("Invalid DATA message received. Reason: Message does not start with 'DATA " + session.getUsername() + ": '.");
+            return;
+        }
+
+        if (isLegalText(line, dataPrefix.length, length)) {
+            session.data(new String(line, 0, length, StandardCharsets.UTF_8), length);
+        }
+    }
+
+    /***
+     * Handles a line on the form 'DATA #room username: text'
+     * @param length The length of the line in bytes
+     */
+    private void handleRoomData(int length) {
+        int end = 6;
+        while (end < length && line[end] != ' ') {
+            end++;
+        }
+        //after the room the line must go on like 'DATA username: ' does after 'DATA '
+        int usernameLength = dataPrefix.length - 5;
+        if (!isLegalName(line, 6, end, MAX_ROOM_NAME_LENGTH) || length - (end + 1) < usernameLength
+                || !Arrays.equals(line, end + 1, end + 1 + usernameLength, dataPrefix, 5, dataPrefix.length)) {
+            Log.getInstance().error("Invalid DATA message received. Reason: Message does not start with 'DATA #room " + session.getUsername() + ": '.");
+            return;
+        }
+
+        if (isLegalText(line, end + 1 + usernameLength, length)) {
+            session.roomData(new String(line, 6, end - 6, StandardCharsets.UTF_8), new String(line, 0, length, StandardCharsets.UTF_8), length);
+        }
+    }
+
+    /***
+     * Handles a line on the form 'PRIV recipient: text'
+     * @param length The length of the line in bytes
+     */
+    private void handleDirect(int length) {
+        int end = 5;
+        while (end < length && line[end] != ':') {
+            end++;
+        }
+        if (length < 5 || line[4] != ' ' || !isLegalName(line, 5, end, MAX_USERNAME_LENGTH) || length < end + 2 || line[end + 1] != ' ') {
+            Log.getInstance().error("Invalid PRIV message received: '" + new String(line, 0, length, StandardCharsets.UTF_8) + "'");
+            session.reject(ErrorType.MISUSED_COMMAND);
+            return;
+        }
+
+        if (isLegalText(line, end + 2, length)) {
+            session.direct(new String(line, 5, end - 5, StandardCharsets.UTF_8), new String(line, end + 2, length - end - 2, StandardCharsets.UTF_8), length);
+        }
+    }
+
+    /***
+     * Handles a binary frame received after the client has joined
+     * @param length The length of the frame in bytes, opcode included
+     * @return true if the client is still active
+     */
+    private boolean handleFrame(int length) {
+        COMMANDS.increment();
+        switch (line[0] & 0xFF) {
+            case BinaryProtocol.IMAV:
+                Log.getInstance().transaction("IMAV", true);
+                session.heartbeat();
+                break;
+            case BinaryProtocol.DATA:
+                handleDataFrame(length);
+                break;
+            case BinaryProtocol.PRIV:
+                handleDirectFrame(length);
+                break;
+            case BinaryProtocol.LIST:
+                Log.getInstance().transaction("LIST", true);
+                session.list();
+                break;
+            case BinaryProtocol.MCST:
+                Log.getInstance().transaction("MCST", true);
+                session.multicast();
+                break;
+            case BinaryProtocol.QUIT:
+                Log.getInstance().transaction("QUIT", true);
+                session.quit();
+                break;
+            default:
+                Log.getInstance().error("Unknown/unexpected client frame with opcode " + (line[0] & 0xFF) + ".");
+                break;
+        }
+
+        return session.isActive();
+    }
+
+    /***
+     * Handles a binary DATA frame, which holds the text only. It is turned into the same 'DATA username: text' line a text client sends.
+     * @param length The length of the frame in bytes, opcode included
+     */
+    private void handleDataFrame(int length) {
+        int textLength = length - 1;
+        System.arraycopy(line, 1, dataLine, dataPrefix.length, textLength);
+        String data = new String(dataLine, 0, dataPrefix.length + textLength, StandardCharsets.UTF_8);
+        //log transaction, the line is broadcast anyway
+        if (Log.getInstance().isEnabled(LogLevel.TRANSACTION)) {
+            Log.getInstance().transaction(data, true);
+        }
+
+        if (isLegalText(line, 1, length)) {
+            session.data(data, length);
+        }
+    }
+
+    /***
+     * Handles a binary PRIV frame, which holds the length of the username of the recipient, the username and the text
+     * @param length The length of the frame in bytes, opcode included
+     */
+    private void handleDirectFrame(int length) {
+        //a username is at most 24 bytes, so its length always fits in a single varint byte
+        int nameLength = length > 1 ? line[1] : 0;
+        int end = 2 + nameLength;
+        if (nameLength <= 0 || end > length || !isLegalName(line, 2, end, MAX_USERNAME_LENGTH)) {
+            Log.getInstance().error("Invalid PRIV frame received.");
+            session.reject(ErrorType.MISUSED_COMMAND);
+            return;
+        }
+
+        String recipient = new String(line, 2, nameLength, StandardCharsets.UTF_8);
+        String text = new String(line, end, length - end, StandardCharsets.UTF_8);
+        //log transaction, without building the line while transactions are not logged
+        if (Log.getInstance().isEnabled(LogLevel.TRANSACTION)) {
+            Log.getInstance().transaction("PRIV " + recipient + ": " + text, true);
+        }
+        if (isLegalText(line, end, length)) {
+            session.direct(recipient, text, length);
+        }
+    }
+
+    /***
+     * Checks the length of the text of a DATA message, and that it holds no control characters, and logs why it is not legal.
+     * The text is sent on to text clients as part of a line, so a line feed in it would let the client forge a line of its own.
+     * @param line The bytes the text is part of
+     * @param start The index of the first byte of the text in the line
+     * @param end The index after the last byte
+     * @return true if the text has 1-250 characters and none of them are control characters
+     */
+    private static boolean isLegalText(byte[] line, int start, int end) {
+        //count the characters, not the bytes, of the text (every byte except UTF-8 continuation bytes starts a character)
+        int characters = 0;
+        for (int i = start; i < end; i++) {
+            int b = line[i] & 0xFF;
+            if (b < 0x20 || b == 0x7F) {
+                Log.getInstance().error("Invalid DATA message received. Reason: Message holds a control character.");
+                return false;
+            }
+            if ((b & 0xC0) != 0x80) {
+                characters++;
+            }
+        }
+
+        if (characters == 0) {
+            //if message found to be 0 chars long, simply print out an error message
+            Log.getInstance().error("Invalid DATA message received. Reason: No message was attached.");
+            return false;
+        } else if (characters > MAX_MESSAGE_LENGTH) {
+            Log.getInstance().error("Invalid DATA message received. Reason: Message was too long ( > 250 chars )");
+            return false;
+        }
+        return true;
+    }
+
+    /***
+     * Reads the command of the current line, which must be at least 4 bytes long
+     * @return the first four bytes of the line as an int
+     */
+    private int commandOf() {
+        return (line[0] & 0xFF) << 24 | (line[1] & 0xFF) << 16 | (line[2] & 0xFF) << 8 | (line[3] & 0xFF);
+    }
+
+    /***
+     * Turns a four letter command into the int its bytes make up
+     * @param name The command
+     * @return the int of the command
+     */
+    private static int command(String name) {
+        return name.charAt(0) << 24 | name.charAt(1) << 16 | name.charAt(2) << 8 | name.charAt(3);
+    }
+
+    /***
+     * Checks a username another node of a cluster sent against the rules a JOIN line is held to
+     * @param username The username
+     * @return true if the username is legal
+     */
+    public static boolean isLegalUsername(String username) {
+        byte[] bytes = username.getBytes(StandardCharsets.UTF_8);
+        return isLegalName(bytes, 0, bytes.length, MAX_USERNAME_LENGTH);
+    }
+
+    /***
+     * Checks the text of a direct message another node of a cluster sent against the rules a PRIV line is held to
+     * @param text The text
+     * @return true if the text has 1-250 characters and none of them are control characters
+     */
+    public static boolean isLegalText(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return isLegalText(bytes, 0, bytes.length);
+    }
+
+    /***
+     * Checks a chat message another node of a cluster forwarded against the rules a DATA line of a client of this node is held to
+     * @param data The message on the form 'DATA username: text' or 'DATA #room username: text'
+     * @return the username of the sender, or null if the message is not legal
+     */
+    public static String senderOf(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 6 || bytes.length > MAX_LINE_LENGTH || !data.startsWith("DATA ")) {
+            return null;
+        }
+
+        int start = 5;
+        if (bytes[5] == '#') {
+            //after the room the line goes on like 'DATA username: ' does after 'DATA '
+            start = 6;
+            while (start < bytes.length && bytes[start] != ' ') {
+                start++;
+            }
+            if (!isLegalName(bytes, 6, start, MAX_ROOM_NAME_LENGTH)) {
+                return null;
+            }
+            start++;
+        }
+        int end = start;
+        while (end < bytes.length && bytes[end] != ':') {
+            end++;
+        }
+        if (end + 1 >= bytes.length || bytes[end + 1] != ' ' || !isLegalName(bytes, start, end, MAX_USERNAME_LENGTH)
+                || !isLegalText(bytes, end + 2, bytes.length)) {
+            return null;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+}
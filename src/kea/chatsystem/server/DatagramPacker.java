@@ -0,0 +1,133 @@
+package kea.chatsystem.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Packs encoded messages into reused direct datagram buffers, several to a datagram as long as it stays below the datagram size.
+ * Text lines are separated by line feeds, binary frames carry their own length and are packed back to back.
+ * Used by the Broadcaster, once for every protocol its recipients speak. The sender shards only read the datagrams.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class DatagramPacker {
+
+    private int datagramSize;
+    private boolean coalesce;
+    private boolean lineSeparated;
+
+    //datagram buffers, reused between broadcasts. Only the first datagramCount are in use.
+    private List<ByteBuffer> datagrams;
+    private int datagramCount;
+
+    /***
+     * Constructor for a packer
+     * @param datagramSize The largest datagram to build when packing several messages together
+     * @param coalesce true to pack several messages into one datagram, false to put each message in its own datagram
+     * @param lineSeparated true to put a line feed between the messages of a datagram, false for binary frames
+     */
+    public DatagramPacker(int datagramSize, boolean coalesce, boolean lineSeparated) {
+        this.datagramSize = datagramSize;
+        this.coalesce = coalesce;
+        this.lineSeparated = lineSeparated;
+        datagrams = new ArrayList<>();
+    }
+
+    /***
+     * Starts a new batch, the datagrams of the last one are reused
+     */
+    public void clear() {
+        datagramCount = 0;
+    }
+
+    /***
+     * Adds an encoded message to the last datagram, or to a new one if it does not fit
+     * @param message The message, from its position to its limit. The position is moved to the limit.
+     */
+    public void add(ByteBuffer message) {
+        int separator = lineSeparated ? 1 : 0;
+        ByteBuffer datagram = datagramCount > 0 ? datagrams.get(datagramCount - 1) : null;
+        if (coalesce && datagram != null && datagram.position() + separator + message.remaining() <= datagramSize) {
+            if (lineSeparated) {
+                //a line feed separates the message from the one before it in the same datagram
+                datagram.put((byte)'\n');
+            }
+        } else {
+            datagram = nextDatagram(message.remaining());
+        }
+        datagram.put(message);
+    }
+
+    /***
+     * Makes the datagrams of the batch ready to be sent from position 0 to their limit. No messages can be added after this.
+     */
+    public void finish() {
+        for (int i = 0; i < datagramCount; i++) {
+            datagrams.get(i).flip();
+        }
+    }
+
+    /***
+     * Copies the finished datagrams into one frame for tcp, with a line feed after every datagram of text lines
+     * @return a new frame, since it stays in the outbound queues after the broadcast returns
+     */
+    public byte[] buildFrame() {
+        int separator = lineSeparated ? 1 : 0;
+        int length = 0;
+        for (int i = 0; i < datagramCount; i++) {
+            length += datagrams.get(i).remaining() + separator;
+        }
+
+        byte[] frame = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < datagramCount; i++) {
+            //a view, so the position of the datagram stays at 0 for the shards
+            ByteBuffer datagram = datagrams.get(i).duplicate();
+            int size = datagram.remaining();
+            datagram.get(frame, offset, size);
+            offset += size;
+            if (lineSeparated) {
+                frame[offset++] = '\n';
+            }
+        }
+
+        return frame;
+    }
+
+    /***
+     * get method
+     * @return the datagram buffers, of which the first getDatagramCount() belong to the batch. Must not be changed.
+     */
+    public List<ByteBuffer> getDatagrams() {
+        return datagrams;
+    }
+
+    /***
+     * get method
+     * @return the number of datagrams in the batch
+     */
+    public int getDatagramCount() {
+        return datagramCount;
+    }
+
+    /***
+     * Takes the next unused datagram buffer, allocating one only if none of the existing ones are big enough
+     * @param minimumSize The number of bytes the datagram must be able to hold
+     * @return an empty datagram buffer
+     */
+    private ByteBuffer nextDatagram(int minimumSize) {
+        int size = Math.max(minimumSize, datagramSize);
+        if (datagramCount == datagrams.size()) {
+            datagrams.add(ByteBuffer.allocateDirect(size));
+        } else if (datagrams.get(datagramCount).capacity() < size) {
+            datagrams.set(datagramCount, ByteBuffer.allocateDirect(size));
+        }
+
+        ByteBuffer datagram = datagrams.get(datagramCount++);
+        datagram.clear();
+        return datagram;
+    }
+}
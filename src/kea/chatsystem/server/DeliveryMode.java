@@ -0,0 +1,49 @@
+package kea.chatsystem.server;
+
+/***
+ * The ways broadcasts are delivered to the clients. Selected at startup with the --delivery argument.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public enum DeliveryMode {
+
+    UDP("udp"),
+    TCP("tcp");
+
+    private String name;
+
+    /***
+     * Constructor of a delivery mode
+     * @param name The name used to select the mode on the command line
+     */
+    DeliveryMode(String name) {
+        this.name = name;
+    }
+
+    /***
+     * Finds the delivery mode matching a name given on the command line
+     * @param name The name of the mode
+     * @return the matching delivery mode
+     * @throws IllegalArgumentException if no mode has the given name
+     */
+    public static DeliveryMode fromName(String name) {
+        for (DeliveryMode mode : values()) {
+            if (mode.name.equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown delivery mode '" + name + "'");
+    }
+
+    /***
+     * toString method
+     * @return the name used to select the mode on the command line
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
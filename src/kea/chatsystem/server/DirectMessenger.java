@@ -0,0 +1,172 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.cluster.Cluster;
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Histogram;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.OutboundQueue;
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/***
+ * Singleton class that delivers direct messages from one client to another. The recipient is looked up by username in the
+ * active client list and gets exactly one datagram, sent right away from the thread of the sending session, so a direct message
+ * never waits in the MessageList behind the broadcasts and costs the same however many clients are active.
+ * Clients that get their broadcasts over tcp get the message added to their outbound queue instead.
+ * In a cluster a recipient connected to another node is sent the message through that node.
+ * Datagrams are sent from a channel of its own, which is safe to share between the threads of every session.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class DirectMessenger {
+
+    private static volatile DirectMessenger directMessenger;
+
+    private static final Counter SENT = Metrics.getInstance().counter("direct.sent");
+    private static final Counter OFFLINE = Metrics.getInstance().counter("direct.offline");
+    private static final Counter FAILED = Metrics.getInstance().counter("direct.failed");
+    private static final Histogram SEND_TIME = Metrics.getInstance().histogram("direct.send.us");
+
+    //null if the channel could not be opened, then only clients with an outbound queue get direct messages
+    private DatagramChannel channel;
+
+    /***
+     * Constructor with no parameters. Opens the channel the datagrams are sent from, bound to any free port on the first send.
+     */
+    private DirectMessenger() {
+        try {
+            channel = DatagramChannel.open();
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not open channel for direct messages: " + ioE.getMessage());
+        }
+    }
+
+    /***
+     * Singleton get method that returns the only static DirectMessenger object
+     * @return the static DirectMessenger object initiated
+     */
+    public static DirectMessenger getInstance() {
+        if (directMessenger == null) {
+            synchronized (DirectMessenger.class) {
+                //double check null value to make sure
+                if (directMessenger == null) {
+                    directMessenger = new DirectMessenger();
+                }
+            }
+        }
+
+        return directMessenger;
+    }
+
+    /***
+     * Sends a direct message to an active client, as 'PRIV sender: text' or as a binary PRIV frame in the protocol the recipient speaks
+     * @param sender The client sending the message
+     * @param recipient The username of the client to send to
+     * @param text The text of the message, already checked to have 1-250 characters
+     * @return true if the message was sent, false if no active client has the username
+     */
+    public boolean send(ClientInfo sender, String recipient, String text) {
+        return send(sender.getUsername(), sender.getUserId(), recipient, text, true);
+    }
+
+    /***
+     * Delivers a direct message a client of another cluster node sent to a client of this node
+     * @param sender The username of the client sending the message
+     * @param recipient The username of the client to send to
+     * @param text The text of the message
+     * @return true if the message was sent, false if no active client of this node has the username
+     */
+    public boolean deliver(String sender, String recipient, String text) {
+        return send(sender, ClientList.getInstance().getUserId(sender), recipient, text, false);
+    }
+
+    /***
+     * Sends a direct message to an active client of this node, or to the node of the recipient
+     * @param sender The username of the client sending the message
+     * @param senderId The user id of the client sending the message
+     * @param recipient The username of the client to send to
+     * @param text The text of the message
+     * @param forward true if a recipient connected to another cluster node is sent the message through that node
+     * @return true if the message was sent, false if no active client has the username
+     */
+    private boolean send(String sender, int senderId, String recipient, String text, boolean forward) {
+        long start = System.nanoTime();
+        ClientInfo info = ClientList.getInstance().getClient(recipient);
+        if (info == null) {
+            if (forward && Cluster.getInstance().direct(sender, recipient, text)) {
+                return true;
+            }
+            OFFLINE.increment();
+            return false;
+        }
+
+        byte[] message = info.isBinary() ? encodeFrame(senderId, text) : null;
+        OutboundQueue outbound = info.getOutbound();
+        if (outbound != null) {
+            //the outbound queue takes whole lines, each ending with a line feed
+            if (outbound.offer(message != null ? message : encodeLine(sender, text, "\n"))) {
+                SENT.increment();
+                SEND_TIME.record((System.nanoTime() - start) / 1000);
+                return true;
+            }
+            if (outbound.isClosed()) {
+                //the connection is closing, the client leaves any moment
+                FAILED.increment();
+                return true;
+            }
+            //the queue is full, the datagram is the best that can be done
+        }
+
+        if (channel == null) {
+            FAILED.increment();
+            return true;
+        }
+        if (message == null) {
+            message = encodeLine(sender, text, "");
+        }
+        try {
+            channel.send(ByteBuffer.wrap(message), info.getSocketAddress());
+            SENT.increment();
+        } catch (IOException ioE) {
+            FAILED.increment();
+            Log.getInstance().error("Could not send direct message to '" + recipient + "': " + ioE.getMessage());
+        }
+        SEND_TIME.record((System.nanoTime() - start) / 1000);
+        return true;
+    }
+
+    /***
+     * Encodes a direct message as a text line, in the charset of the broadcasts
+     * @param sender The username of the client sending the message
+     * @param text The text of the message
+     * @param end What the line ends with
+     * @return the encoded line
+     */
+    private static byte[] encodeLine(String sender, String text, String end) {
+        return ("PRIV " + sender + ": " + text + end).getBytes(Charset.defaultCharset());
+    }
+
+    /***
+     * Encodes a direct message as a binary frame holding the user id of the sender and the text
+     * @param senderId The user id of the client sending the message
+     * @param text The text of the message
+     * @return the encoded frame, length included
+     */
+    private static byte[] encodeFrame(int senderId, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(BinaryProtocol.varintSize(senderId) + bytes.length);
+        BinaryProtocol.putVarint(payload, senderId);
+        payload.put(bytes);
+        return BinaryProtocol.frame(BinaryProtocol.PRIV, payload.array());
+    }
+}
@@ -0,0 +1,167 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/***
+ * Selector thread that serves many client connections at once. Used by the NioServer instead of one thread per client.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class EventLoop implements Runnable {
+
+    private Selector selector;
+    private Queue<SocketChannel> newChannels;
+    //work handed over by other threads, such as broadcasts to push to a connection
+    private Queue<Runnable> tasks;
+    private ByteBuffer readBuffer;
+    //the frames of a single gathering write, shared by all connections of the event loop
+    private ByteBuffer[] pushBuffers;
+    private ServerConfig config;
+    private AdmissionControl admission;
+
+    /***
+     * Constructor that opens the selector of the event loop
+     * @param config The server configuration
+     * @param admission The admission control, which is told each time a connection closes
+     * @throws IOException if the selector could not be opened
+     */
+    public EventLoop(ServerConfig config, AdmissionControl admission) throws IOException {
+        this.config = config;
+        this.admission = admission;
+        selector = Selector.open();
+        newChannels = new ConcurrentLinkedQueue<>();
+        tasks = new ConcurrentLinkedQueue<>();
+        readBuffer = ByteBuffer.allocateDirect(8192);
+        pushBuffers = new ByteBuffer[64];
+    }
+
+    /***
+     * Hands an accepted channel over to this event loop. Safe to call from the acceptor thread.
+     * @param channel The accepted socket channel
+     */
+    public void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /***
+     * Runs a task on the event loop thread. Safe to call from any thread.
+     * @param task The task to run
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /***
+     * Method that gets executed upon Thread.start() call
+     */
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                registerNewChannels();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NioConnection connection = (NioConnection)key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (RuntimeException rE) {
+                        //a bug in handling one client must not stop the loop and leave every other connection on it hanging
+                        Log.getInstance().error("Closing connection after it failed in event loop: " + rE);
+                        readBuffer.clear();
+                        close(connection);
+                    }
+                }
+            } catch (IOException ioE) {
+                Log.getInstance().error("IOException in event loop: " + ioE.getMessage());
+            }
+        }
+    }
+
+    /***
+     * Closes a connection that failed, without letting a second failure stop the loop
+     * @param connection The connection
+     */
+    private void close(NioConnection connection) {
+        try {
+            connection.close();
+        } catch (RuntimeException rE) {
+            Log.getInstance().error("Could not close connection that failed in event loop: " + rE);
+        }
+    }
+
+    /***
+     * Runs the tasks handed over by other threads since the last select
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException rE) {
+                Log.getInstance().error("Task failed in event loop: " + rE);
+            }
+        }
+    }
+
+    /***
+     * get method
+     * @return the read buffer shared by all connections of the event loop
+     */
+    ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    /***
+     * get method
+     * @return the frame array of a gathering write, shared by all connections of the event loop
+     */
+    ByteBuffer[] getPushBuffers() {
+        return pushBuffers;
+    }
+
+    /***
+     * Registers the channels handed over by the acceptor since the last select
+     */
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(channel, key, this, config, admission));
+                Log.getInstance().debug("Accepted new client connection.");
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not register client connection: " + ioE.getMessage());
+                admission.release(channel.socket().getInetAddress());
+                try {
+                    channel.close();
+                } catch (IOException closeE) {
+                    Log.getInstance().error("Could not close client channel: " + closeE.getMessage());
+                }
+            }
+        }
+    }
+}
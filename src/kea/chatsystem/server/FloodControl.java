@@ -0,0 +1,192 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.util.TokenBucket;
+
+/***
+ * Singleton class that keeps a client from flooding the chat. Every client gets a token bucket for its messages and one for their bytes,
+ * and the messages to everyone also take from buckets shared by every client, so all the clients together cannot send more than the
+ * watcher can broadcast. A message that does not fit is refused, and counts as a strike against the client: a client with more strikes
+ * than allowed within STRIKE_WINDOW_MS is disconnected. Every bucket is a lock-free TokenBucket, so a client that keeps to the limits
+ * pays a read of the clock and a compare-and-set per bucket.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class FloodControl {
+
+    private static volatile FloodControl floodControl;
+
+    //the time the strikes of a client are counted over
+    private static final long STRIKE_WINDOW_MS = 10000;
+
+    private static final Counter THROTTLED = Metrics.getInstance().counter("flood.throttled");
+    private static final Counter GLOBAL_THROTTLED = Metrics.getInstance().counter("flood.throttled.global");
+    private static final Counter DISCONNECTED = Metrics.getInstance().counter("flood.disconnected");
+
+    /***
+     * What happens to a message
+     */
+    public enum Verdict {
+        //the message may be sent
+        ALLOWED,
+        //the message must be refused
+        THROTTLED,
+        //the message must be refused, and the client disconnected
+        DISCONNECT
+    }
+
+    private int clientRate;
+    private int clientBytes;
+    private int burstMillis = 2000;
+    private int strikes;
+    //null when there is no limit on all the clients together
+    private TokenBucket globalMessageBucket;
+    private TokenBucket globalByteBucket;
+
+    /***
+     * Constructor with no parameters. There are no limits until configure() is called.
+     */
+    private FloodControl() { }
+
+    /***
+     * Singleton get method that returns the only static FloodControl object
+     * @return the static FloodControl object initiated
+     */
+    public static FloodControl getInstance() {
+        if (floodControl == null) {
+            synchronized (FloodControl.class) {
+                //double check null value to make sure
+                if (floodControl == null) {
+                    floodControl = new FloodControl();
+                }
+            }
+        }
+
+        return floodControl;
+    }
+
+    /***
+     * Sets the limits. Must be called before any clients connect.
+     * @param clientRate The messages a client may send per second, 0 for no limit
+     * @param clientBytes The bytes a client may send per second, 0 for no limit
+     * @param globalRate The messages to everyone all clients together may send per second, 0 for no limit
+     * @param globalBytes The bytes of the messages to everyone all clients together may send per second, 0 for no limit
+     * @param burstMillis How many milliseconds of messages and bytes can be sent at once, after a quiet period
+     * @param strikes The refused messages a client may send within STRIKE_WINDOW_MS before it is disconnected, 0 to never disconnect it
+     */
+    public void configure(int clientRate, int clientBytes, int globalRate, int globalBytes, int burstMillis, int strikes) {
+        this.clientRate = clientRate;
+        this.clientBytes = clientBytes;
+        this.burstMillis = burstMillis;
+        this.strikes = strikes;
+        globalMessageBucket = globalRate > 0 ? TokenBucket.perSecond(globalRate, burstMillis) : null;
+        globalByteBucket = globalBytes > 0 ? TokenBucket.perSecond(globalBytes, burstMillis) : null;
+    }
+
+    /***
+     * Creates the buckets of a client that connects
+     * @return the buckets, with the limits of a client that has not sent anything
+     */
+    public Allowance newAllowance() {
+        return new Allowance();
+    }
+
+    /***
+     * Takes a message from the buckets of a client, and from the buckets shared by every client if it is to everyone
+     * @param allowance The buckets of the client
+     * @param bytes The length of the message in bytes
+     * @param broadcast true if the message is to everyone
+     * @return whether the message may be sent
+     */
+    public Verdict take(Allowance allowance, int bytes, boolean broadcast) {
+        if (!allowance.take(bytes)) {
+            THROTTLED.increment();
+            return allowance.strike();
+        }
+
+        if (broadcast && !take(globalMessageBucket, globalByteBucket, bytes)) {
+            //every client is sending too much together, this one is not to blame, so it gets no strike
+            allowance.giveBack(bytes);
+            GLOBAL_THROTTLED.increment();
+            return Verdict.THROTTLED;
+        }
+        return Verdict.ALLOWED;
+    }
+
+    /***
+     * Takes a message from a message bucket and a byte bucket, or from neither
+     * @param messageBucket The message bucket, or null for no limit
+     * @param byteBucket The byte bucket, or null for no limit
+     * @param length The length of the message in bytes
+     * @return true if the message was taken from both
+     */
+    private static boolean take(TokenBucket messageBucket, TokenBucket byteBucket, int length) {
+        if (messageBucket != null && !messageBucket.tryTake(1)) {
+            return false;
+        }
+        if (byteBucket != null && !byteBucket.tryTake(length)) {
+            if (messageBucket != null) {
+                messageBucket.giveBack(1);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /***
+     * The buckets of one client
+     */
+    public class Allowance {
+
+        //null when there is no limit
+        private TokenBucket messages;
+        private TokenBucket bytes;
+        private TokenBucket strikeBucket;
+
+        /***
+         * Constructor that creates full buckets with the configured limits
+         */
+        private Allowance() {
+            messages = clientRate > 0 ? TokenBucket.perSecond(clientRate, burstMillis) : null;
+            bytes = clientBytes > 0 ? TokenBucket.perSecond(clientBytes, burstMillis) : null;
+            strikeBucket = strikes > 0 ? new TokenBucket(strikes, STRIKE_WINDOW_MS * 1000000L / strikes) : null;
+        }
+
+        /***
+         * Takes a message from the buckets of the client
+         * @param length The length of the message in bytes
+         * @return true if the client may send the message
+         */
+        private boolean take(int length) {
+            return FloodControl.take(messages, bytes, length);
+        }
+
+        /***
+         * Puts back a message that was not sent after all
+         * @param length The length of the message in bytes
+         */
+        private void giveBack(int length) {
+            if (messages != null) {
+                messages.giveBack(1);
+            }
+            if (bytes != null) {
+                bytes.giveBack(length);
+            }
+        }
+
+        /***
+         * Counts a refused message against the client
+         * @return DISCONNECT if the client has used up its strikes, THROTTLED if not
+         */
+        private Verdict strike() {
+            if (strikeBucket == null || strikeBucket.tryTake(1)) {
+                return Verdict.THROTTLED;
+            }
+            DISCONNECTED.increment();
+            return Verdict.DISCONNECT;
+        }
+    }
+}
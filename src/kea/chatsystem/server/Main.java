@@ -1,5 +1,12 @@
 package kea.chatsystem.server;
 
+import kea.chatsystem.server.cluster.Cluster;
+import kea.chatsystem.server.journal.Journal;
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /***
  * Main class for server
  *
@@ -11,10 +18,51 @@ public class Main {
 
     /***
      * Main starting point of the server process
-     * @param args Arguments to start process with (these are ignored)
+     * @param args Arguments on the form --name=value, e.g. --mode=nio (see ServerConfig)
      */
     public static void main(String[] args) {
-        Server server = new Server();
+        ServerConfig config;
+        try {
+            config = ServerConfig.parse(args);
+        } catch (IllegalArgumentException iaE) {
+            Log.getInstance().error(iaE.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Log.getInstance().setLevel(config.getLogLevel());
+        if (config.getLogFile() != null) {
+            try {
+                Log.getInstance().setFile(config.getLogFile(), config.getLogFileSize(), config.getLogFiles());
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not open log file '" + config.getLogFile() + "': " + ioE.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (config.getJournal() != null) {
+            try {
+                Journal.getInstance().open(Paths.get(config.getJournal()), config.getJournalSegmentSize(),
+                        config.getJournalRetentionSize(), config.getJournalRetentionAge(), config.getJournalSync());
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not open journal in '" + config.getJournal() + "': " + ioE.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (config.getCluster() != null) {
+            try {
+                Cluster.getInstance().start(config.getCluster(), config.getNode(), config.getClusterSecret());
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not listen for cluster nodes on " + config.getCluster().get(config.getNode()) + ": " + ioE.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+
+        Server server = new Server(config);
         server.listen();
     }
 }
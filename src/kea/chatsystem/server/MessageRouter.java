@@ -0,0 +1,86 @@
+package kea.chatsystem.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ * Splits a batch of messages into the messages to every active client and the messages to each room, keeping the order within each.
+ * A message is to a room if it is 'DATA #room ...', 'JOIN #room ...' or 'PART #room ...'.
+ * Not thread-safe: every thread that broadcasts needs its own router.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class MessageRouter {
+
+    private List<String> serverMessages;
+    //room name without '#', messages to its members
+    private Map<String, List<String>> roomMessages;
+
+    /***
+     * Constructor for an empty router
+     */
+    public MessageRouter() {
+        serverMessages = new ArrayList<>();
+        roomMessages = new LinkedHashMap<>();
+    }
+
+    /***
+     * Adds the messages of a batch to the messages to every client or to the messages of their room
+     * @param messages The messages
+     */
+    public void route(List<String> messages) {
+        for (String message : messages) {
+            String room = roomOf(message);
+            if (room == null) {
+                serverMessages.add(message);
+            } else {
+                roomMessages.computeIfAbsent(room, name -> new ArrayList<>()).add(message);
+            }
+        }
+    }
+
+    /***
+     * get method
+     * @return the messages to every active client
+     */
+    public List<String> getServerMessages() {
+        return serverMessages;
+    }
+
+    /***
+     * get method
+     * @return the messages to the members of each room, by the name of the room without '#'
+     */
+    public Map<String, List<String>> getRoomMessages() {
+        return roomMessages;
+    }
+
+    /***
+     * Empties the router for the next batch
+     */
+    public void clear() {
+        serverMessages.clear();
+        roomMessages.clear();
+    }
+
+    /***
+     * Finds the room a message is to
+     * @param message The message
+     * @return the name of the room without '#', or null if the message is to every active client
+     */
+    static String roomOf(String message) {
+        if (message.length() < 7 || message.charAt(4) != ' ' || message.charAt(5) != '#') {
+            return null;
+        }
+        if (!message.startsWith("DATA") && !message.startsWith("JOIN") && !message.startsWith("PART")) {
+            return null;
+        }
+
+        int end = message.indexOf(' ', 6);
+        return end < 0 ? null : message.substring(6, end);
+    }
+}
@@ -0,0 +1,290 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.util.OutboundQueue;
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * A single client connection served by an EventLoop. Hands the incoming bytes to a CommandDecoder, exactly like Worker does.
+ * Only the owning event loop thread touches this object.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class NioConnection implements Transport {
+
+    //reads per select, so a client that sends a lot cannot keep the event loop from the other connections and its tasks
+    private static final int MAX_READS = 4;
+
+    private static final Counter BYTES_RECEIVED = Metrics.getInstance().counter("bytes.received");
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private EventLoop eventLoop;
+    private AdmissionControl admission;
+    private InetAddress address;
+    private Session session;
+    private CommandDecoder decoder;
+    private boolean closeAfterFlush;
+    //true while a task the connection waits for has not run, the client is not read from meanwhile
+    private boolean paused;
+
+    private ByteBuffer readBuffer;
+    private Queue<ByteBuffer> pendingWrites;
+    //broadcasts to write in tcp delivery, null in udp delivery
+    private OutboundQueue outbound;
+
+    /***
+     * Constructor for a connection
+     * @param channel The accepted, non-blocking socket channel
+     * @param key The selection key the channel is registered with
+     * @param eventLoop The event loop that serves the connection
+     * @param config The server configuration
+     * @param admission The admission control, which is told when this connection closes
+     * @throws IOException if the remote address of the channel could not be read
+     */
+    public NioConnection(SocketChannel channel, SelectionKey key, EventLoop eventLoop, ServerConfig config, AdmissionControl admission) throws IOException {
+        this.channel = channel;
+        this.key = key;
+        this.admission = admission;
+        this.eventLoop = eventLoop;
+        readBuffer = eventLoop.getReadBuffer();
+        pendingWrites = new ArrayDeque<>();
+
+        InetSocketAddress remote = (InetSocketAddress)channel.getRemoteAddress();
+        address = remote.getAddress();
+        session = new Session(this, config, address, remote.getPort());
+        decoder = new CommandDecoder(session);
+    }
+
+    /***
+     * Reads what the channel has available, up to a few buffers, and handles every complete line. Called when the key is readable.
+     */
+    public void read() {
+        try {
+            int read = 0;
+            for (int reads = 0; reads < MAX_READS && (read = channel.read(readBuffer)) > 0; reads++) {
+                BYTES_RECEIVED.add(read);
+                readBuffer.flip();
+                boolean open = decoder.decode(readBuffer);
+                readBuffer.clear();
+
+                if (!open) {
+                    closeAfterFlush();
+                    return;
+                }
+                if (decoder.isWaiting()) {
+                    //the join waits for the cluster, the rest is read once it is answered
+                    return;
+                }
+            }
+
+            //the client closed the connection
+            if (read < 0) {
+                close();
+            }
+        } catch (IOException ioE) {
+            Log.getInstance().error("Client connection stopped unexpectedly: " + ioE.getMessage());
+            close();
+        }
+    }
+
+    /***
+     * Closes the connection once the replies written so far have been sent, because the join failed or the client is no longer active.
+     * The rest of what the client sent is ignored.
+     */
+    private void closeAfterFlush() {
+        Log.getInstance().info("Closing connection because client is no longer active...");
+        closeAfterFlush = true;
+        if (pendingWrites.isEmpty()) {
+            close();
+        } else {
+            //stop reading while the last replies are written
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /***
+     * The interest in reading, which is dropped while the connection waits for a task
+     * @return OP_READ, or 0 while the connection is paused
+     */
+    private int readInterest() {
+        return paused ? 0 : SelectionKey.OP_READ;
+    }
+
+    /***
+     * Queues a line for the client and tries to write it right away
+     * @param line The line to write
+     */
+    public void write(String line) {
+        byte[] bytes = line.getBytes(CHARSET);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + LINE_SEPARATOR.length);
+        buffer.put(bytes).put(LINE_SEPARATOR).flip();
+        pendingWrites.add(buffer);
+        flush();
+    }
+
+    /***
+     * Queues a binary frame for the client, and writes it right away if the socket has room
+     * @param frame The frame to write
+     */
+    public void write(byte[] frame) {
+        pendingWrites.add(ByteBuffer.wrap(frame));
+        flush();
+    }
+
+    /***
+     * Starts writing the broadcasts added to the returned queue from the event loop
+     * @param capacity The highest number of broadcasts waiting to be written before the client counts as a slow consumer
+     * @return the queue the sender shards add the broadcasts to
+     */
+    public OutboundQueue startPush(int capacity) {
+        outbound = new OutboundQueue(capacity, () -> eventLoop.execute(this::push), () -> eventLoop.execute(this::close));
+        return outbound;
+    }
+
+    /***
+     * Runs the task on the event loop once the future has completed. The client is not read from meanwhile, and the bytes it already sent
+     * are held by the decoder and handled after the task, so the event loop serves the other connections while the future is waited for.
+     * @param future The future to wait for
+     * @param task The task to run
+     */
+    public void runWhenDone(CompletableFuture<?> future, Runnable task) {
+        if (future.isDone()) {
+            task.run();
+            return;
+        }
+
+        paused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        future.whenComplete((result, error) -> eventLoop.execute(() -> resume(task)));
+    }
+
+    /***
+     * Runs the task a connection waited for, and goes on reading from the client. Must only be called from the event loop thread.
+     * @param task The task
+     */
+    private void resume(Runnable task) {
+        paused = false;
+        task.run();
+        if (!key.isValid() || closeAfterFlush) {
+            return;
+        }
+
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        if (!decoder.resume()) {
+            closeAfterFlush();
+        }
+    }
+
+    /***
+     * Writes the waiting broadcasts with gathering writes of up to a batch of frames each. Stops while the socket buffer is full,
+     * and continues from flush() once it has room. Must only be called from the event loop thread.
+     */
+    private void push() {
+        if (!key.isValid() || outbound.isClosed() || !pendingWrites.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer[] buffers = eventLoop.getPushBuffers();
+        try {
+            while (true) {
+                int count = 0;
+                byte[] frame;
+                while (count < buffers.length && (frame = outbound.poll()) != null) {
+                    buffers[count++] = ByteBuffer.wrap(frame);
+                }
+                if (count == 0) {
+                    if (outbound.idle()) {
+                        continue;
+                    }
+                    return;
+                }
+
+                channel.write(buffers, 0, count);
+                for (int i = 0; i < count; i++) {
+                    if (buffers[i].hasRemaining()) {
+                        pendingWrites.add(buffers[i]);
+                    }
+                    buffers[i] = null;
+                }
+                if (!pendingWrites.isEmpty()) {
+                    //the socket buffer is full, continue when the channel is writable again
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not push broadcast to client: " + ioE.getMessage());
+            Arrays.fill(buffers, null);
+            close();
+        }
+    }
+
+    /***
+     * Writes as much of the pending output as the channel accepts. Called when the key is writable.
+     */
+    public void flush() {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = pendingWrites.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    //the socket buffer is full, continue when the channel is writable again
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pendingWrites.poll();
+            }
+
+            key.interestOps(readInterest());
+            if (closeAfterFlush) {
+                close();
+            } else if (outbound != null) {
+                //broadcasts wait while a write is pending
+                push();
+            }
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not write to client: " + ioE.getMessage());
+            close();
+        }
+    }
+
+    /***
+     * Closes the connection and removes the client from the active client list
+     */
+    public void close() {
+        if (!key.isValid()) {
+            return;
+        }
+
+        key.cancel();
+        if (outbound != null) {
+            outbound.close();
+        }
+        session.leave();
+        admission.release(address);
+        try {
+            channel.close();
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not close client channel: " + ioE.getMessage());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Accepts client connections on a ServerSocketChannel and spreads them over a few EventLoop threads,
+ * so idle clients do not each hold a thread like they do with a Worker
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class NioServer {
+
+    private ServerConfig config;
+    private AdmissionControl admission;
+    private EventLoop[] eventLoops;
+    //connections are admitted by the acceptor and by connections that close, so the turn is shared
+    private AtomicInteger next;
+
+    /***
+     * Constructor for the nio server
+     * @param config The server configuration
+     * @param admission The admission control that decides which connections are served
+     */
+    public NioServer(ServerConfig config, AdmissionControl admission) {
+        this.config = config;
+        this.admission = admission;
+        next = new AtomicInteger();
+    }
+
+    /***
+     * Starts the event loop threads and accepts connections until the process is terminated. Blocks the calling thread.
+     * @throws IOException if the server socket could not be opened
+     */
+    public void listen() throws IOException {
+        eventLoops = new EventLoop[config.getEventLoops()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(config, admission);
+            Thread thread = new Thread(eventLoops[i], "EventLoop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Log.getInstance().info("Started " + eventLoops.length + " event loop thread(s).");
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()), config.getBacklog());
+
+        //accept connections and hand the admitted ones to the event loops in turn
+        while (true) {
+            SocketChannel channel = serverChannel.accept(); //blocks until a new connection is made
+            admission.request(channel.socket().getInetAddress(), new AdmissionControl.Candidate() {
+                public void admit() {
+                    eventLoops[Math.floorMod(next.getAndIncrement(), eventLoops.length)].register(channel);
+                }
+
+                public void reject(String reply) {
+                    NioServer.reject(channel, reply);
+                }
+            });
+        }
+    }
+
+    /***
+     * Tells a client that it is not served and closes the connection. The channel is still blocking at this point.
+     * @param channel The accepted channel to reject
+     * @param reply The J_ER line, without the line feed
+     */
+    private static void reject(SocketChannel channel, String reply) {
+        try {
+            channel.write(ByteBuffer.wrap((reply + System.lineSeparator()).getBytes(Charset.defaultCharset())));
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not reject client connection: " + ioE.getMessage());
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not close client channel: " + ioE.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Histogram;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.util.OutboundQueue;
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/***
+ * Sends broadcasts to one share of the clients from its own thread and datagram channel, so a broadcast to many clients
+ * is spread over several cores. The datagrams are encoded once by the Broadcaster and only read here, through views
+ * that keep their own position, in the protocol each client speaks. Clients that get their broadcasts over tcp get the frame added to their outbound queue instead,
+ * and the slow consumer policy decides what happens when the queue is full. Keeps track of how long its sends take.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class SenderShard implements Runnable {
+
+    //only the broadcasters of the watcher hand over jobs, and each waits for its job to finish, so a few slots are plenty
+    private static final int QUEUE_SIZE = 8;
+
+    private static final Counter DATAGRAMS_SENT = Metrics.getInstance().counter("datagrams.sent");
+    private static final Counter DATAGRAMS_FAILED = Metrics.getInstance().counter("datagrams.failed");
+    private static final Counter PUSH_FRAMES = Metrics.getInstance().counter("push.frames");
+    private static final Counter PUSH_DROPPED = Metrics.getInstance().counter("push.dropped");
+    private static final Counter PUSH_DEGRADED = Metrics.getInstance().counter("push.degraded");
+    private static final Counter PUSH_DISCONNECTED = Metrics.getInstance().counter("push.disconnected");
+    private static final Histogram SEND_TIME = Metrics.getInstance().histogram("shard.send.us");
+
+    private int index;
+    private DatagramChannel channel;
+    private BlockingQueue<Job> jobs;
+    private SlowConsumerPolicy slowConsumerPolicy;
+
+    //send statistics since the last report, guarded by the lock on this object
+    private long jobCount;
+    private long sendCount;
+    private long totalNanos;
+    private long maxNanos;
+
+    /***
+     * Constructor for a shard
+     * @param index The number of the shard, the clients assigned to it have the same number
+     * @param channel The datagram channel to send from, used by this shard alone
+     * @param slowConsumerPolicy What to do with a client whose outbound queue is full
+     */
+    public SenderShard(int index, DatagramChannel channel, SlowConsumerPolicy slowConsumerPolicy) {
+        this.index = index;
+        this.channel = channel;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        jobs = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    }
+
+    /***
+     * Hands a broadcast over to the shard. The datagrams must not be changed until the latch has been counted down.
+     * @param text The finished text datagrams
+     * @param frame The same messages encoded for clients that get their broadcasts over tcp, or null in udp delivery
+     * @param binary The finished datagrams of binary frames, or null if none of the recipients speak the binary protocol
+     * @param binaryFrame The binary frames for clients that get their broadcasts over tcp, or null
+     * @param recipients The clients of this shard to send to
+     * @param group The multicast group to send the text datagrams to as well, or null
+     * @param done Counted down when the shard has sent everything
+     * @throws InterruptedException if the thread is interrupted while waiting for room in the queue
+     */
+    public void submit(DatagramPacker text, byte[] frame, DatagramPacker binary, byte[] binaryFrame, List<ClientInfo> recipients, SocketAddress group, CountDownLatch done) throws InterruptedException {
+        jobs.put(new Job(text, frame, binary, binaryFrame, recipients, group, done));
+    }
+
+    /***
+     * Method that gets executed upon Thread.start() call
+     */
+    public void run() {
+
+        Thread.currentThread().setName("Sender-" + index);
+
+        try {
+            while (channel.isOpen()) {
+                Job job = jobs.take();
+                try {
+                    send(job);
+                } catch (RuntimeException rE) {
+                    //the broadcaster must never wait forever for a job that failed
+                    Log.getInstance().error("Sender shard " + index + " could not send broadcast: " + rE);
+                } finally {
+                    job.done.countDown();
+                }
+            }
+        } catch (InterruptedException iE) {
+            Log.getInstance().info("Sender shard " + index + " was interrupted...");
+        }
+    }
+
+    /***
+     * Sends the datagrams of a job to the multicast group and to every recipient
+     * @param job The job to send
+     */
+    private void send(Job job) {
+        long start = System.nanoTime();
+
+        //views of the shared datagrams, so the position this shard moves is not seen by the other shards
+        ByteBuffer[] views = views(job.text);
+        ByteBuffer[] binaryViews = job.binary != null ? views(job.binary) : null;
+        //counted here and added to the metrics once per job
+        long sent = 0;
+        long failed = 0;
+
+        if (job.group != null) {
+            for (ByteBuffer view : views) {
+                try {
+                    channel.send(view.rewind(), job.group);
+                    sent++;
+                } catch (IOException ioE) {
+                    failed++;
+                    Log.getInstance().error("Could not send datagram to multicast group " + job.group + ": " + ioE.getMessage());
+                }
+            }
+        }
+
+        for (ClientInfo info : job.recipients) {
+            boolean binary = info.isBinary() && binaryViews != null;
+            byte[] frame = binary ? job.binaryFrame : job.frame;
+            OutboundQueue outbound = info.getOutbound();
+            if (frame != null && outbound != null && push(info, outbound, frame)) {
+                continue;
+            }
+
+            for (ByteBuffer view : binary ? binaryViews : views) {
+                //the same bytes are sent to every client, only the position is reset
+                view.rewind();
+                try {
+                    channel.send(view, info.getSocketAddress());
+                    sent++;
+                } catch (IOException ioE) {
+                    failed++;
+                    Log.getInstance().error("Could not send datagram to '" + info.getUsername() + "': " + ioE.getMessage());
+                }
+            }
+        }
+
+        DATAGRAMS_SENT.add(sent);
+        DATAGRAMS_FAILED.add(failed);
+        long nanos = System.nanoTime() - start;
+        SEND_TIME.record(nanos / 1000);
+        record(job.recipients.size(), nanos);
+    }
+
+    /***
+     * Creates views of the datagrams of a batch
+     * @param packer The packer holding the datagrams
+     * @return a view of every datagram in the batch
+     */
+    private static ByteBuffer[] views(DatagramPacker packer) {
+        ByteBuffer[] views = new ByteBuffer[packer.getDatagramCount()];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = packer.getDatagrams().get(i).duplicate();
+        }
+        return views;
+    }
+
+    /***
+     * Adds a frame to the outbound queue of a client, or applies the slow consumer policy if the queue is full
+     * @param info The client
+     * @param outbound The outbound queue of the client
+     * @param frame The frame to add
+     * @return true if the frame was handled, false if the client must get it as datagrams instead
+     */
+    private boolean push(ClientInfo info, OutboundQueue outbound, byte[] frame) {
+        if (outbound.offer(frame)) {
+            PUSH_FRAMES.increment();
+            return true;
+        }
+        if (outbound.isClosed()) {
+            //the connection is closing, the client leaves any moment
+            return true;
+        }
+
+        switch (slowConsumerPolicy) {
+            case DROP:
+                if (outbound.getDroppedCount() == 0) {
+                    Log.getInstance().info("Client '" + info.getUsername() + "' does not keep up with its broadcasts, dropping some..");
+                }
+                outbound.drop();
+                PUSH_DROPPED.increment();
+                return true;
+            case DISCONNECT:
+                Log.getInstance().info("Disconnecting client '" + info.getUsername() + "' that does not keep up with its broadcasts..");
+                outbound.disconnect();
+                PUSH_DISCONNECTED.increment();
+                return true;
+            default:
+                //the client keeps its connection, but gets this and every later broadcast as datagrams
+                Log.getInstance().info("Client '" + info.getUsername() + "' does not keep up with its broadcasts, sending datagrams instead..");
+                info.setOutbound(null);
+                outbound.close();
+                PUSH_DEGRADED.increment();
+                return false;
+        }
+    }
+
+    /***
+     * Adds a finished job to the send statistics
+     * @param recipients The number of clients the job was sent to
+     * @param nanos How long the job took
+     */
+    private synchronized void record(int recipients, long nanos) {
+        jobCount++;
+        sendCount += recipients;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    /***
+     * Describes the send latency of the shard since the last report, and starts over
+     * @return a line with the number of broadcasts and their average and highest send time, or null if nothing was sent
+     */
+    public synchronized String report() {
+        if (jobCount == 0) {
+            return null;
+        }
+
+        String report = String.format("Sender shard %d: %d broadcast(s) with %d recipient(s) in total, average %.2f ms, max %.2f ms",
+                index, jobCount, sendCount, totalNanos / (double)jobCount / 1000000, maxNanos / 1000000.0);
+        jobCount = 0;
+        sendCount = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        return report;
+    }
+
+    /***
+     * get method
+     * @return the number of the shard
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /***
+     * A broadcast handed over to the shard
+     */
+    private static class Job {
+
+        private DatagramPacker text;
+        private byte[] frame;
+        private DatagramPacker binary;
+        private byte[] binaryFrame;
+        private List<ClientInfo> recipients;
+        private SocketAddress group;
+        private CountDownLatch done;
+
+        /***
+         * Constructor for a job
+         * @param text The text datagrams
+         * @param frame The text lines for tcp, or null
+         * @param binary The binary datagrams, or null
+         * @param binaryFrame The binary frames for tcp, or null
+         * @param recipients The clients to send to
+         * @param group The multicast group to send to as well, or null
+         * @param done Counted down when the job has been sent
+         */
+        private Job(DatagramPacker text, byte[] frame, DatagramPacker binary, byte[] binaryFrame, List<ClientInfo> recipients, SocketAddress group, CountDownLatch done) {
+            this.text = text;
+            this.frame = frame;
+            this.binary = binary;
+            this.binaryFrame = binaryFrame;
+            this.recipients = recipients;
+            this.group = group;
+            this.done = done;
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package kea.chatsystem.server;
 
-import kea.chatsystem.shared.ErrorType;
+import kea.chatsystem.server.journal.Journal;
+import kea.chatsystem.server.journal.JournalEntry;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.metrics.StatsServer;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.MessageHistory;
+import kea.chatsystem.server.util.MessageList;
 import kea.chatsystem.shared.Log;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.*;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 
 /***
  * Server class that manages the server part of the client/server chat system
@@ -18,16 +26,21 @@ import java.util.concurrent.ThreadPoolExecutor;
  */
 public class Server {
 
-    private static final int PORT = 1234;
-    private static final int MAX_THREADS = 5;
-    private ThreadPoolExecutor threadPoolExecutor;
+    //how many journaled messages are read for every message the history keeps when it is restored
+    private static final int RESTORE_FACTOR = 4;
+
+    private ServerConfig config;
+    private ExecutorService executor;
+    private ExecutorService pushExecutor;
+    private AdmissionControl admission;
 
     /***
-     * Constructor with no parameters
+     * Constructor for the server
+     * @param config The startup configuration of the server
      */
-    public Server() {
-        //initiate thread pool with static max threads count
-        threadPoolExecutor = (ThreadPoolExecutor)Executors.newFixedThreadPool(MAX_THREADS);
+    public Server(ServerConfig config) {
+        this.config = config;
+        admission = new AdmissionControl(config);
     }
 
     /***
@@ -35,40 +48,55 @@ public class Server {
      */
     public void listen() {
         try {
-            Log.getInstance().info("Starting server socket..");
-            ServerSocket serverSocket = new ServerSocket(PORT);
+            ClientList.getInstance().setHeartbeatTimeout(config.getHeartbeatTimeout());
+            ClientList.getInstance().setShardCount(config.getSenderShards());
+            MessageList.getInstance().configure(config.getQueueCapacity(), config.getQueueOverflow());
+            MessageHistory.getInstance().configure(config.getHistory(), config.getHistorySize(), config.getHistoryAge());
+            FloodControl.getInstance().configure(config.getFloodClientRate(), config.getFloodClientBytes(), config.getFloodGlobalRate(),
+                    config.getFloodGlobalBytes(), config.getFloodBurst(), config.getFloodStrikes());
+            if (Journal.getInstance().isOpen() && config.getHistory() > 0) {
+                restoreHistory();
+            }
+
+            //metrics are read through jmx, and as text from the stats port if there is one
+            Metrics.getInstance().registerJmx();
+            if (config.getStatsPort() > 0) {
+                Thread stats = new Thread(new StatsServer(config.getStatsPort()));
+                stats.setDaemon(true);
+                stats.start();
+            }
 
             //create client watcher daemon thread
             Log.getInstance().debug("Creating new daemon watcher thread..");
-            Thread watcher = new Thread(new Watcher());
+            Thread watcher = new Thread(new Watcher(config));
             watcher.setDaemon(true); //daemon thread (low priority)
             watcher.start();
             Log.getInstance().info("Watcher thread started successfully.");
 
-            Socket socket;
-            while (true) {
-                socket = serverSocket.accept(); //this method blocks the thread until a new connection is made
-
-                //if no threads from pool are available inform the client
-                if (threadPoolExecutor.getActiveCount() == MAX_THREADS) {
-                    PrintWriter writer = new PrintWriter(socket.getOutputStream());
-                    writer.println("J_ER " + ErrorType.NO_AVAILABLE_THREAD);
-                    Log.getInstance().transaction("J_ER " + ErrorType.NO_AVAILABLE_THREAD, false);
-                    writer.flush();
-
-                    //clean up
-                    writer.close();
-                    socket.close();
+            Log.getInstance().info("Starting server socket in " + config.getMode() + " mode with room for " + config.getMaxConnections() + " connections..");
+            if (config.getMode() == ServerMode.NIO) {
+                new NioServer(config, admission).listen();
+                return;
+            }
 
-                } else {
-                    Log.getInstance().debug("Accepting new client connection.");
+            executor = createExecutor();
+            //in tcp delivery every worker gets a second thread of the same kind that writes its broadcasts
+            if (config.getDelivery() == DeliveryMode.TCP) {
+                pushExecutor = createExecutor();
+            }
+            ServerSocket serverSocket = new ServerSocket(config.getPort(), config.getBacklog());
 
-                    //execute the thread from the thread pool
-                    Thread clientThread = new Thread(new Worker(socket));
-                    threadPoolExecutor.execute(clientThread);
+            while (true) {
+                Socket socket = serverSocket.accept(); //this method blocks the thread until a new connection is made
+                admission.request(socket.getInetAddress(), new AdmissionControl.Candidate() {
+                    public void admit() {
+                        serve(socket);
+                    }
 
-                    Log.getInstance().debug("Created new thread to handle client connection.");
-                }
+                    public void reject(String reply) {
+                        Server.reject(socket, reply);
+                    }
+                });
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
@@ -76,4 +104,95 @@ public class Server {
             System.exit(1);
         }
     }
+
+    /***
+     * Hands an admitted connection to a worker, and gives its place back once the worker is done
+     * @param socket The socket of the connection
+     */
+    private void serve(Socket socket) {
+        Log.getInstance().debug("Accepting new client connection.");
+
+        Worker worker;
+        try {
+            worker = new Worker(socket, config, pushExecutor);
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not set up client connection: " + ioE.getMessage());
+            admission.release(socket.getInetAddress());
+            close(socket);
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                worker.run();
+            } finally {
+                admission.release(socket.getInetAddress());
+            }
+        });
+
+        Log.getInstance().debug("Handed client connection to a worker.");
+    }
+
+    /***
+     * Tells a client that it is not served and closes the connection
+     * @param socket The socket of the connection
+     * @param reply The J_ER line, without the line feed
+     */
+    private static void reject(Socket socket, String reply) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write((reply + System.lineSeparator()).getBytes(Charset.defaultCharset()));
+            out.flush();
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not reject client connection: " + ioE.getMessage());
+        } finally {
+            close(socket);
+        }
+    }
+
+    /***
+     * Closes a client socket
+     * @param socket The socket
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not close client socket: " + ioE.getMessage());
+        }
+    }
+
+    /***
+     * Fills the chat history with the last messages in the journal, so clients joining right after a restart still see what was said before it.
+     * Room messages in the journal are left out by the history, so a few times more messages are read than it keeps, and it keeps the newest of them.
+     */
+    private void restoreHistory() {
+        Journal journal = Journal.getInstance();
+        int max = config.getHistory() * RESTORE_FACTOR;
+        long from = Math.max(journal.findSequence(System.currentTimeMillis() - config.getHistoryAge()), journal.getLastSequence() - max + 1);
+        for (JournalEntry entry : journal.read(from, max)) {
+            MessageHistory.getInstance().add(Collections.singletonList(entry.getData()), entry.getTime());
+        }
+        Log.getInstance().info("Restored " + MessageHistory.getInstance().size() + " message(s) of chat history from the journal.");
+    }
+
+    /***
+     * Creates the executor that runs the workers of the selected server mode
+     * @return a fixed thread pool in pool mode. In virtual mode an executor that starts a virtual thread per worker when run on Java 21 or newer,
+     * and on Java 17, which the server is built for, a pool that starts a platform thread per worker.
+     */
+    private ExecutorService createExecutor() {
+        if (config.getMode() == ServerMode.VIRTUAL) {
+            try {
+                //looked up by reflection so the server still compiles and runs on Java versions without virtual threads
+                return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException roE) {
+                Log.getInstance().error("Virtual threads need Java 21 or newer. Falling back to one platform thread per worker.");
+                return Executors.newCachedThreadPool();
+            }
+        }
+
+        //the pool never needs more threads than the server allows connections
+        return Executors.newFixedThreadPool(config.getMaxConnections());
+    }
 }
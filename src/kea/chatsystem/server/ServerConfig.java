@@ -0,0 +1,677 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.util.OverflowPolicy;
+import kea.chatsystem.shared.LogLevel;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/***
+ * Holds the startup configuration of the server. Values are read from command line arguments on the form --name=value
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class ServerConfig {
+
+    private int port = 1234;
+    private int udpPort = 1235;
+    private ServerMode mode = ServerMode.THREAD_POOL;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private int maxConnections = 0; //0 means the default of the selected mode
+    private int maxConnectionsPerAddress = 0; //0 means no limit
+    private int backlog = 1024;
+    private int admissionQueue = 256;
+    private int admissionWait = 2000; //milliseconds, 0 means new clients are turned away at once
+    private int retryAfter = 1000; //milliseconds
+    private int heartbeatTimeout = 65000;
+    private int queueCapacity = 4096;
+    private OverflowPolicy queueOverflow = OverflowPolicy.REJECT;
+    private int datagramSize = 1472; //ethernet mtu of 1500 bytes minus ip and udp headers
+    private boolean coalesce = true;
+    private int senderShards = 1;
+    private DeliveryMode delivery = DeliveryMode.UDP;
+    private int pushQueue = 1024;
+    private SlowConsumerPolicy slowConsumer = SlowConsumerPolicy.DEGRADE;
+    private InetSocketAddress multicastGroup; //null means every client gets its own datagrams
+    private String multicastInterface; //null means the interface chosen by the operating system
+    private LogLevel logLevel = LogLevel.INFO;
+    private String logFile; //null means the console only
+    private int logFileSize = 10 * 1024 * 1024;
+    private int logFiles = 5;
+    private int statsPort = 0; //0 means no stats port
+    private String journal; //null means no journal
+    private int journalSegmentSize = 64 * 1024 * 1024;
+    private int journalRetentionSize = 1024; //megabytes
+    private int journalRetentionAge = 7 * 24 * 60; //minutes
+    private int journalSync = 50;
+    private int history = 100;
+    private int historySize = 65536;
+    private int historyAge = 60; //minutes
+    private List<InetSocketAddress> cluster; //null means no cluster
+    private int node = 0;
+    private String clusterSecret; //required with a cluster
+    private int floodClientRate = 20; //0 means no limit
+    private int floodClientBytes = 8192;
+    private int floodGlobalRate = 0;
+    private int floodGlobalBytes = 0;
+    private int floodBurst = 2000; //milliseconds
+    private int floodStrikes = 50; //0 means never disconnect
+
+    /***
+     * Constructor that creates a configuration with default values
+     */
+    public ServerConfig() { }
+
+    /***
+     * Creates a configuration from command line arguments. Arguments not given keep their default value.
+     * @param args Arguments on the form --name=value
+     * @return The parsed configuration
+     * @throws IllegalArgumentException if an argument is unknown or has an illegal value
+     */
+    public static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Arguments must be on the form --name=value, got '" + arg + "'");
+            }
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "port":
+                    config.port = parseInt(name, value, 1);
+                    break;
+                case "udp-port":
+                    config.udpPort = parseInt(name, value, 0);
+                    break;
+                case "mode":
+                    config.mode = ServerMode.fromName(value);
+                    break;
+                case "event-loops":
+                    config.eventLoops = parseInt(name, value, 1);
+                    break;
+                case "max-connections":
+                    config.maxConnections = parseInt(name, value, 1);
+                    break;
+                case "max-connections-per-address":
+                    config.maxConnectionsPerAddress = parseInt(name, value, 0);
+                    break;
+                case "backlog":
+                    config.backlog = parseInt(name, value, 1);
+                    break;
+                case "admission-queue":
+                    config.admissionQueue = parseInt(name, value, 0);
+                    break;
+                case "admission-wait":
+                    config.admissionWait = parseInt(name, value, 0);
+                    break;
+                case "retry-after":
+                    config.retryAfter = parseInt(name, value, 0);
+                    break;
+                case "heartbeat-timeout":
+                    config.heartbeatTimeout = parseInt(name, value, 1000);
+                    break;
+                case "queue-capacity":
+                    config.queueCapacity = parseInt(name, value, 1);
+                    break;
+                case "queue-overflow":
+                    config.queueOverflow = OverflowPolicy.fromName(value);
+                    break;
+                case "datagram-size":
+                    config.datagramSize = parseInt(name, value, 269);
+                    break;
+                case "coalesce":
+                    config.coalesce = parseBoolean(name, value);
+                    break;
+                case "sender-shards":
+                    config.senderShards = parseInt(name, value, 1);
+                    break;
+                case "delivery":
+                    config.delivery = DeliveryMode.fromName(value);
+                    break;
+                case "push-queue":
+                    config.pushQueue = parseInt(name, value, 1);
+                    break;
+                case "slow-consumer":
+                    config.slowConsumer = SlowConsumerPolicy.fromName(value);
+                    break;
+                case "multicast":
+                    config.multicastGroup = parseMulticastGroup(name, value);
+                    break;
+                case "multicast-interface":
+                    config.multicastInterface = value;
+                    break;
+                case "log-level":
+                    config.logLevel = LogLevel.fromName(value);
+                    break;
+                case "log-file":
+                    config.logFile = value;
+                    break;
+                case "log-file-size":
+                    config.logFileSize = parseInt(name, value, 1024);
+                    break;
+                case "log-files":
+                    config.logFiles = parseInt(name, value, 0);
+                    break;
+                case "stats-port":
+                    config.statsPort = parseInt(name, value, 0);
+                    break;
+                case "journal":
+                    config.journal = value;
+                    break;
+                case "journal-segment-size":
+                    config.journalSegmentSize = parseInt(name, value, 65536);
+                    break;
+                case "journal-retention-size":
+                    config.journalRetentionSize = parseInt(name, value, 1);
+                    break;
+                case "journal-retention-age":
+                    config.journalRetentionAge = parseInt(name, value, 1);
+                    break;
+                case "journal-sync":
+                    config.journalSync = parseInt(name, value, 1);
+                    break;
+                case "history":
+                    config.history = parseInt(name, value, 0);
+                    break;
+                case "history-size":
+                    config.historySize = parseInt(name, value, 1);
+                    break;
+                case "history-age":
+                    config.historyAge = parseInt(name, value, 1);
+                    break;
+                case "cluster":
+                    config.cluster = parseCluster(name, value);
+                    break;
+                case "node":
+                    config.node = parseInt(name, value, 0);
+                    break;
+                case "cluster-secret":
+                    if (value.isEmpty()) {
+                        throw new IllegalArgumentException("--cluster-secret must not be empty");
+                    }
+                    config.clusterSecret = value;
+                    break;
+                case "flood-client-rate":
+                    config.floodClientRate = parseInt(name, value, 0);
+                    break;
+                case "flood-client-bytes":
+                    config.floodClientBytes = parseInt(name, value, 0);
+                    break;
+                case "flood-global-rate":
+                    config.floodGlobalRate = parseInt(name, value, 0);
+                    break;
+                case "flood-global-bytes":
+                    config.floodGlobalBytes = parseInt(name, value, 0);
+                    break;
+                case "flood-burst":
+                    config.floodBurst = parseInt(name, value, 1);
+                    break;
+                case "flood-strikes":
+                    config.floodStrikes = parseInt(name, value, 0);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument '--" + name + "'");
+            }
+        }
+
+        if (config.cluster != null && config.node >= config.cluster.size()) {
+            throw new IllegalArgumentException("--node must be below the number of addresses in --cluster (" + config.cluster.size() + ")");
+        }
+        if (config.cluster != null && config.clusterSecret == null) {
+            throw new IllegalArgumentException("--cluster needs --cluster-secret, the secret the nodes prove to each other that they share");
+        }
+
+        return config;
+    }
+
+    /***
+     * Parses a numeric argument value
+     * @param name Name of the argument (used in the error message)
+     * @param value The value to parse
+     * @param min The lowest legal value
+     * @return the parsed value
+     */
+    private static int parseInt(String name, String value, int min) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result < min) {
+                throw new IllegalArgumentException("--" + name + " must be at least " + min);
+            }
+            return result;
+        } catch (NumberFormatException nfE) {
+            throw new IllegalArgumentException("--" + name + " must be a number, got '" + value + "'");
+        }
+    }
+
+    /***
+     * Parses a true/false argument value
+     * @param name Name of the argument (used in the error message)
+     * @param value The value to parse
+     * @return the parsed value
+     */
+    private static boolean parseBoolean(String name, String value) {
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+
+        throw new IllegalArgumentException("--" + name + " must be true or false, got '" + value + "'");
+    }
+
+    /***
+     * Parses a multicast group argument value on the form address:port
+     * @param name Name of the argument (used in the error message)
+     * @param value The value to parse
+     * @return the parsed group address and port
+     */
+    private static InetSocketAddress parseMulticastGroup(String name, String value) {
+        int separator = value.lastIndexOf(':');
+        if (separator < 1) {
+            throw new IllegalArgumentException("--" + name + " must be on the form address:port, got '" + value + "'");
+        }
+
+        InetAddress address;
+        try {
+            address = InetAddress.getByName(value.substring(0, separator));
+        } catch (UnknownHostException uhE) {
+            throw new IllegalArgumentException("--" + name + " has an unknown address, got '" + value + "'");
+        }
+        if (!address.isMulticastAddress()) {
+            throw new IllegalArgumentException("--" + name + " must be a multicast address (224.0.0.0-239.255.255.255), got '" + value + "'");
+        }
+
+        int port = parseInt(name, value.substring(separator + 1), 1);
+        if (port > 65535) {
+            throw new IllegalArgumentException("--" + name + " must have a port below 65536");
+        }
+        return new InetSocketAddress(address, port);
+    }
+
+    /***
+     * Parses a cluster argument value on the form host:port,host:port,...
+     * @param name Name of the argument (used in the error message)
+     * @param value The value to parse
+     * @return the addresses of the nodes, in the order given
+     */
+    private static List<InetSocketAddress> parseCluster(String name, String value) {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String node : value.split(",")) {
+            int separator = node.lastIndexOf(':');
+            if (separator < 1) {
+                throw new IllegalArgumentException("--" + name + " must be on the form host:port,host:port,..., got '" + value + "'");
+            }
+
+            InetAddress address;
+            try {
+                address = InetAddress.getByName(node.substring(0, separator));
+            } catch (UnknownHostException uhE) {
+                throw new IllegalArgumentException("--" + name + " has an unknown address, got '" + node + "'");
+            }
+            int port = parseInt(name, node.substring(separator + 1), 1);
+            if (port > 65535) {
+                throw new IllegalArgumentException("--" + name + " must have ports below 65536");
+            }
+            nodes.add(new InetSocketAddress(address, port));
+        }
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /***
+     * get method
+     * @return the tcp port the server accepts clients on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /***
+     * get method
+     * @return the udp port the first sender shard sends broadcasts from, 0 for any free port
+     */
+    public int getUdpPort() {
+        return udpPort;
+    }
+
+    /***
+     * get method
+     * @return the way client connections are handled
+     */
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    /***
+     * get method
+     * @return the number of selector threads used in nio mode
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /***
+     * get method
+     * @return the number of client connections the server holds at once before new clients have to wait.
+     * Defaults to 5 in pool mode (one per pool thread) and 10000 in virtual and nio mode.
+     */
+    public int getMaxConnections() {
+        if (maxConnections > 0) {
+            return maxConnections;
+        }
+
+        return mode == ServerMode.THREAD_POOL ? 5 : 10000;
+    }
+
+    /***
+     * get method
+     * @return the number of client connections the server holds at once from a single ip address, 0 if there is no limit
+     */
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    /***
+     * get method
+     * @return the number of connections the operating system holds for the server before they are accepted
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /***
+     * get method
+     * @return the number of clients that may wait for a connection to close while the server is full
+     */
+    public int getAdmissionQueue() {
+        return admissionQueue;
+    }
+
+    /***
+     * get method
+     * @return how long a client waits for a connection to close before it gets J_ER 0, in milliseconds, 0 if it gets it at once
+     */
+    public int getAdmissionWait() {
+        return admissionWait;
+    }
+
+    /***
+     * get method
+     * @return the least time a client that was turned away is told to wait before it connects again, in milliseconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /***
+     * get method
+     * @return how long a client may go without sending IMAV before it is removed, in milliseconds
+     */
+    public int getHeartbeatTimeout() {
+        return heartbeatTimeout;
+    }
+
+    /***
+     * get method
+     * @return the highest number of chat messages waiting to be broadcast
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /***
+     * get method
+     * @return what happens to a new chat message when the message list is full
+     */
+    public OverflowPolicy getQueueOverflow() {
+        return queueOverflow;
+    }
+
+    /***
+     * get method
+     * @return the largest datagram built when several messages are packed together, in bytes
+     */
+    public int getDatagramSize() {
+        return datagramSize;
+    }
+
+    /***
+     * get method
+     * @return true if several messages waiting to be broadcast are packed into one datagram
+     */
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    /***
+     * get method
+     * @return the number of threads broadcasts are sent from, each to its own share of the clients
+     */
+    public int getSenderShards() {
+        return senderShards;
+    }
+
+    /***
+     * get method
+     * @return how broadcasts are delivered to the clients
+     */
+    public DeliveryMode getDelivery() {
+        return delivery;
+    }
+
+    /***
+     * get method
+     * @return the highest number of broadcasts waiting to be written to a client in tcp delivery before it counts as a slow consumer
+     */
+    public int getPushQueue() {
+        return pushQueue;
+    }
+
+    /***
+     * get method
+     * @return what happens to a client that does not read its broadcasts fast enough in tcp delivery
+     */
+    public SlowConsumerPolicy getSlowConsumer() {
+        return slowConsumer;
+    }
+
+    /***
+     * get method
+     * @return the multicast group broadcasts are sent to once for every client that listens on it, or null if multicast is off
+     */
+    public InetSocketAddress getMulticastGroup() {
+        return multicastGroup;
+    }
+
+    /***
+     * get method
+     * @return the name of the network interface multicast datagrams are sent from, or null to let the operating system choose
+     */
+    public String getMulticastInterface() {
+        return multicastInterface;
+    }
+
+    /***
+     * get method
+     * @return the lowest level of the log lines that are written
+     */
+    public LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    /***
+     * get method
+     * @return the path of the rolling log file, or null if the log is only written to the console
+     */
+    public String getLogFile() {
+        return logFile;
+    }
+
+    /***
+     * get method
+     * @return the size in bytes the log file may grow to before a new one is started
+     */
+    public int getLogFileSize() {
+        return logFileSize;
+    }
+
+    /***
+     * get method
+     * @return the number of old log files kept besides the current one
+     */
+    public int getLogFiles() {
+        return logFiles;
+    }
+
+    /***
+     * get method
+     * @return the tcp port the metrics are served on as plain text, or 0 if there is none
+     */
+    public int getStatsPort() {
+        return statsPort;
+    }
+
+    /***
+     * get method
+     * @return the directory the journal of chat messages is written to, or null if there is no journal
+     */
+    public String getJournal() {
+        return journal;
+    }
+
+    /***
+     * get method
+     * @return the size of each journal segment file in bytes
+     */
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    /***
+     * get method
+     * @return the most bytes the journal segments may take up before the oldest are deleted
+     */
+    public long getJournalRetentionSize() {
+        return journalRetentionSize * 1024L * 1024L;
+    }
+
+    /***
+     * get method
+     * @return how long a journal segment is kept after its last message was written, in milliseconds
+     */
+    public long getJournalRetentionAge() {
+        return journalRetentionAge * 60000L;
+    }
+
+    /***
+     * get method
+     * @return the longest time a journaled message stays in memory before it is written to the disk, in milliseconds
+     */
+    public int getJournalSync() {
+        return journalSync;
+    }
+
+    /***
+     * get method
+     * @return the most recent chat messages replayed to a client that joins, 0 if none are
+     */
+    public int getHistory() {
+        return history;
+    }
+
+    /***
+     * get method
+     * @return the most bytes the replayed chat messages may take up
+     */
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    /***
+     * get method
+     * @return how long a chat message is replayed to clients that join, in milliseconds
+     */
+    public long getHistoryAge() {
+        return historyAge * 60000L;
+    }
+
+    /***
+     * get method
+     * @return the addresses the nodes of the cluster accept connections from each other on, in the same order on every node, or null if there is no cluster
+     */
+    public List<InetSocketAddress> getCluster() {
+        return cluster;
+    }
+
+    /***
+     * get method
+     * @return the position of this server in the list of cluster nodes, counting from 0
+     */
+    public int getNode() {
+        return node;
+    }
+
+    /***
+     * get method
+     * @return the secret every node of the cluster is given, which a node must prove it knows before the others listen to it
+     */
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    /***
+     * get method
+     * @return the chat messages a client may send per second, 0 if there is no limit
+     */
+    public int getFloodClientRate() {
+        return floodClientRate;
+    }
+
+    /***
+     * get method
+     * @return the bytes of chat messages a client may send per second, 0 if there is no limit
+     */
+    public int getFloodClientBytes() {
+        return floodClientBytes;
+    }
+
+    /***
+     * get method
+     * @return the chat messages to everyone all clients together may send per second, 0 if there is no limit
+     */
+    public int getFloodGlobalRate() {
+        return floodGlobalRate;
+    }
+
+    /***
+     * get method
+     * @return the bytes of chat messages to everyone all clients together may send per second, 0 if there is no limit
+     */
+    public int getFloodGlobalBytes() {
+        return floodGlobalBytes;
+    }
+
+    /***
+     * get method
+     * @return how many milliseconds of chat messages can be sent at once after a quiet period
+     */
+    public int getFloodBurst() {
+        return floodBurst;
+    }
+
+    /***
+     * get method
+     * @return the refused chat messages a client may send within 10 seconds before it is disconnected, 0 if it never is
+     */
+    public int getFloodStrikes() {
+        return floodStrikes;
+    }
+}
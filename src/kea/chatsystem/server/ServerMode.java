@@ -0,0 +1,50 @@
+package kea.chatsystem.server;
+
+/***
+ * The ways the server can handle client connections. Selected at startup with the --mode argument.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public enum ServerMode {
+
+    THREAD_POOL("pool"),
+    VIRTUAL("virtual"),
+    NIO("nio");
+
+    private String name;
+
+    /***
+     * Constructor of a server mode
+     * @param name The name used to select the mode on the command line
+     */
+    ServerMode(String name) {
+        this.name = name;
+    }
+
+    /***
+     * Finds the server mode matching a name given on the command line
+     * @param name The name of the mode
+     * @return the matching server mode
+     * @throws IllegalArgumentException if no mode has the given name
+     */
+    public static ServerMode fromName(String name) {
+        for (ServerMode mode : values()) {
+            if (mode.name.equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown server mode '" + name + "'");
+    }
+
+    /***
+     * toString method
+     * @return the name used to select the mode on the command line
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
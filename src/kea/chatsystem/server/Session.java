@@ -0,0 +1,344 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.cluster.Cluster;
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.MessageHistory;
+import kea.chatsystem.server.util.MessageList;
+import kea.chatsystem.server.util.Room;
+import kea.chatsystem.server.util.RoomList;
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.ErrorType;
+import kea.chatsystem.shared.Log;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/***
+ * Protocol state of a single client connection. Carries out the JOIN/IMAV/DATA/PRIV/LIST/MCST/QUIT/PART commands recognized by the
+ * CommandDecoder independently of how the bytes are read, so the same rules apply whether the connection is served by a Worker thread or by the NioServer.
+ * Replies are text lines, or binary frames once the client has joined with the binary v2 protocol.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Session {
+
+    private static final Counter MESSAGES_RECEIVED = Metrics.getInstance().counter("messages.received");
+    private static final Counter MESSAGES_REJECTED = Metrics.getInstance().counter("messages.rejected");
+    private static final Counter HISTORY_REPLAYED = Metrics.getInstance().counter("history.replayed");
+
+    private Transport transport;
+    private ServerConfig config;
+    private InetAddress ipAddress;
+    private int port;
+    private String username;
+    private ClientInfo clientInfo;
+    private boolean binary;
+    private FloodControl.Allowance allowance;
+    private boolean closed;
+
+    /***
+     * Constructor for a session
+     * @param transport The transport replies are written to
+     * @param config The server configuration
+     * @param ipAddress The remote ip address of the client
+     * @param port The remote port of the client
+     */
+    public Session(Transport transport, ServerConfig config, InetAddress ipAddress, int port) {
+        this.transport = transport;
+        this.config = config;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        allowance = FloodControl.getInstance().newAllowance();
+    }
+
+    /***
+     * Claims the username and adds the client to the active client list. Replies with J_OK followed by the recent chat history, or with J_ER
+     * if the username is taken on this server or, in a cluster, on any node. In a cluster the answer of the node that owns the username is
+     * waited for without holding up the thread of the connection, the transport finishes the join when it arrives.
+     * @param name The username from the JOIN line, already checked to be legal
+     * @param binary true if the JOIN line asked for the binary v2 protocol
+     * @param done Told on the thread of the connection whether the client was added to the active client list
+     */
+    public void join(String name, boolean binary, Consumer<Boolean> done) {
+        CompletableFuture<ErrorType> claim = Cluster.getInstance().claim(name);
+        transport.runWhenDone(claim, () -> done.accept(join(name, binary, claim.join())));
+    }
+
+    /***
+     * Adds the client to the active client list once the username has been claimed
+     * @param name The username from the JOIN line
+     * @param binary true if the JOIN line asked for the binary v2 protocol
+     * @param error The answer to the claim, null if the client may join
+     * @return true if the client was added to the active client list, false if not
+     */
+    private boolean join(String name, boolean binary, ErrorType error) {
+        if (closed) {
+            //the connection closed while the claim was on its way, so the username is given back
+            if (error == null) {
+                Cluster.getInstance().left(name);
+            }
+            return false;
+        }
+
+        if (error == null) {
+            clientInfo = ClientList.getInstance().addClient(name, ipAddress, port, binary);
+            if (clientInfo == null) {
+                error = ErrorType.DUPLICATE_USERNAME;
+            }
+        }
+        if (error != null) {
+            transport.write("J_ER " + error);
+
+            if (error == ErrorType.DUPLICATE_USERNAME) {
+                Log.getInstance().info("JOIN FAILED: Username '" + name + "' was already active. (Client must reconnect with a different username)");
+            } else {
+                Log.getInstance().info("JOIN FAILED: Username '" + name + "' could not be claimed in the cluster. (Client must reconnect)");
+            }
+            return false;
+        }
+
+        username = name;
+        this.binary = binary;
+        Log.getInstance().info("JOIN OK: Added client with username '" + username + "' to the active list.");
+
+        //send join ok message to client, announcing how broadcasts are delivered if not as plain datagrams.
+        //the multicast group only carries text lines, so it is not offered to binary clients.
+        StringBuilder reply = new StringBuilder("J_OK");
+        InetSocketAddress group = config.getMulticastGroup();
+        if (config.getDelivery() == DeliveryMode.TCP) {
+            reply.append(" push=tcp");
+        } else if (group != null && !binary) {
+            reply.append(" mcast=").append(group.getAddress().getHostAddress()).append(':').append(group.getPort());
+        }
+        if (binary) {
+            //everything after the J_OK line is binary frames
+            reply.append(' ').append(BinaryProtocol.JOIN_OPTION);
+        }
+        transport.write(reply.toString());
+
+        //the messages sent before the client joined come first, written in one go without going through the watcher
+        MessageHistory.Replay replay = MessageHistory.getInstance().getReplay();
+        if (replay.getCount() > 0) {
+            transport.write(binary ? replay.getBinary() : replay.getText());
+            HISTORY_REPLAYED.add(replay.getCount());
+        }
+
+        if (config.getDelivery() == DeliveryMode.TCP) {
+            //broadcasts follow the J_OK on the same connection
+            clientInfo.setOutbound(transport.startPush(config.getPushQueue()));
+        }
+        return true;
+    }
+
+    /***
+     * Replies to the client with an error
+     * @param error The error to reply with
+     */
+    public void reject(ErrorType error) {
+        if (binary) {
+            transport.write(BinaryProtocol.frame(error));
+        } else {
+            transport.write("J_ER " + error);
+        }
+    }
+
+    /***
+     * Handles IMAV by updating the heartbeat of the client
+     */
+    public void heartbeat() {
+        ClientList.getInstance().updateHeartbeat(username);
+    }
+
+    /***
+     * Checks a message against the flood control of the client. A message that is refused is answered with an error,
+     * and a client that keeps sending refused messages is removed, which closes its connection.
+     * @param bytes The length of the message in bytes, as it was received
+     * @param broadcast true if the message is to everyone
+     * @return true if the message may be sent
+     */
+    private boolean allow(int bytes, boolean broadcast) {
+        FloodControl.Verdict verdict = FloodControl.getInstance().take(allowance, bytes, broadcast);
+        if (verdict == FloodControl.Verdict.ALLOWED) {
+            return true;
+        }
+
+        reject(ErrorType.RATE_LIMITED);
+        if (verdict == FloodControl.Verdict.DISCONNECT) {
+            Log.getInstance().info("Disconnecting client '" + username + "', it kept sending after it was rate limited.");
+            ClientList.getInstance().remove(clientInfo);
+        }
+        return false;
+    }
+
+    /***
+     * Handles DATA by adding the line to the message list, and in a cluster by sending it to the other nodes, unless the client sends too much
+     * @param data The line on the form 'DATA username: text', already checked to carry the username of the client and 1-250 characters of text
+     * @param bytes The length of the line or frame in bytes, as it was received
+     */
+    public void data(String data, int bytes) {
+        if (allow(bytes, !data.startsWith("DATA #"))) {
+            addData(data);
+        }
+    }
+
+    /***
+     * Adds a message that passed the flood control to the message list
+     * @param data The message as it is broadcast
+     */
+    private void addData(String data) {
+        if (!MessageList.getInstance().addData(data)) {
+            //the message list is full and rejects new messages
+            MESSAGES_REJECTED.increment();
+            reject(ErrorType.MESSAGE_QUEUE_FULL);
+        } else {
+            MESSAGES_RECEIVED.increment();
+            Cluster.getInstance().forward(data);
+        }
+    }
+
+    /***
+     * Handles 'DATA #room username: text' by adding the line to the message list, if the client is a member of the room
+     * @param room The name of the room, without '#'
+     * @param data The line, already checked to carry the username of the client and 1-250 characters of text
+     * @param bytes The length of the line in bytes
+     */
+    public void roomData(String room, String data, int bytes) {
+        if (!clientInfo.isInRoom(room)) {
+            reject(ErrorType.NOT_IN_ROOM);
+            return;
+        }
+
+        //a room message is only sent to the members, so it does not take from the limit of all the clients together
+        if (allow(bytes, false)) {
+            addData(data);
+        }
+    }
+
+    /***
+     * Handles PRIV by sending the text straight to the recipient, past the message list
+     * @param recipient The username of the client to send to, already checked to be legal
+     * @param text The text of the message, already checked to have 1-250 characters
+     * @param bytes The length of the line or frame in bytes, as it was received
+     */
+    public void direct(String recipient, String text, int bytes) {
+        if (!allow(bytes, false)) {
+            return;
+        }
+        if (!DirectMessenger.getInstance().send(clientInfo, recipient, text)) {
+            reject(ErrorType.USER_NOT_ONLINE);
+        }
+    }
+
+    /***
+     * Handles 'JOIN #room' by adding the client to the room, and replies with the members of the room
+     * @param room The name of the room, without '#'
+     */
+    public void joinRoom(String room) {
+        Room joined = RoomList.getInstance().join(clientInfo, room);
+        if (joined == null) {
+            reject(ErrorType.ROOM_LIMIT);
+            return;
+        }
+
+        Log.getInstance().debug("Client '" + username + "' joined room #" + room + ".");
+        transport.write(joined.getSnapshot().getListMessage());
+    }
+
+    /***
+     * Handles 'PART #room' by removing the client from the room
+     * @param room The name of the room, without '#'
+     */
+    public void partRoom(String room) {
+        if (!RoomList.getInstance().part(clientInfo, room)) {
+            reject(ErrorType.NOT_IN_ROOM);
+            return;
+        }
+
+        Log.getInstance().debug("Client '" + username + "' parted room #" + room + ".");
+    }
+
+    /***
+     * Handles 'LIST #room' by replying with the members of a room the client is a member of
+     * @param room The name of the room, without '#'
+     */
+    public void listRoom(String room) {
+        Room current = RoomList.getInstance().getRoom(room);
+        if (current == null || !clientInfo.isInRoom(room)) {
+            reject(ErrorType.NOT_IN_ROOM);
+            return;
+        }
+
+        transport.write(current.getSnapshot().getListMessage());
+    }
+
+    /***
+     * Handles LIST by replying with the full list of active users, because the client just joined or missed a change
+     */
+    public void list() {
+        if (binary) {
+            transport.write(ClientList.getInstance().getSnapshot().getListFrame());
+        } else {
+            transport.write(ClientList.getInstance().getSnapshot().getListMessage());
+        }
+    }
+
+    /***
+     * Handles MCST: the client has joined the multicast group announced in J_OK and no longer needs its own datagrams
+     */
+    public void multicast() {
+        if (config.getMulticastGroup() != null && !binary) {
+            ClientList.getInstance().setMulticast(clientInfo, true);
+        } else {
+            Log.getInstance().error("Client '" + username + "' sent MCST, but multicast is not enabled for it.");
+        }
+    }
+
+    /***
+     * Handles QUIT by removing the client from the active client list
+     */
+    public void quit() {
+        ClientList.getInstance().remove(clientInfo);
+    }
+
+    /***
+     * Method to determine if the session still belongs to an active client
+     * @return true if the client has joined and still exists in the active client list
+     */
+    public boolean isActive() {
+        return clientInfo != null && clientInfo.isActive();
+    }
+
+    /***
+     * Removes the client from the active client list if it still exists there. Called when the connection closes.
+     * A client that has already expired is left alone, even if another client has since joined with the same username.
+     */
+    public void leave() {
+        closed = true;
+        if (clientInfo != null) {
+            ClientList.getInstance().remove(clientInfo);
+        }
+    }
+
+    /***
+     * Method to determine if the session speaks the binary v2 protocol
+     * @return true if the client joined with 'proto=v2'
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /***
+     * get method
+     * @return the username of the client, or null if the client has not joined
+     */
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,51 @@
+package kea.chatsystem.server;
+
+/***
+ * What a sender shard does with a client whose push queue is full, because the client does not read from its tcp connection
+ * fast enough. Selected at startup with the --slow-consumer argument.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public enum SlowConsumerPolicy {
+
+    DROP("drop"),
+    DISCONNECT("disconnect"),
+    DEGRADE("degrade");
+
+    private String name;
+
+    /***
+     * Constructor of a slow consumer policy
+     * @param name The name used to select the policy on the command line
+     */
+    SlowConsumerPolicy(String name) {
+        this.name = name;
+    }
+
+    /***
+     * Finds the slow consumer policy matching a name given on the command line
+     * @param name The name of the policy
+     * @return the matching policy
+     * @throws IllegalArgumentException if no policy has the given name
+     */
+    public static SlowConsumerPolicy fromName(String name) {
+        for (SlowConsumerPolicy policy : values()) {
+            if (policy.name.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown slow consumer policy '" + name + "'");
+    }
+
+    /***
+     * toString method
+     * @return the name used to select the policy on the command line
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
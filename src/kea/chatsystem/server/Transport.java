@@ -0,0 +1,42 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.util.OutboundQueue;
+
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * The connection a session writes its replies to, and in tcp delivery the broadcasts too. Implemented by the blocking Worker and the non-blocking NioConnection.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public interface Transport {
+
+    /***
+     * Writes a single protocol line to the client. The line separator is added by the transport.
+     * @param line The line to write
+     */
+    void write(String line);
+
+    /***
+     * Writes encoded bytes to the client as they are: a binary frame to a session that speaks the binary v2 protocol, or text lines that end with a line feed
+     * @param frame The frame, length included. May be shared, so it must not be changed.
+     */
+    void write(byte[] frame);
+
+    /***
+     * Starts writing broadcasts to the client over the connection, instead of the client getting them as datagrams
+     * @param capacity The highest number of broadcasts waiting to be written before the client counts as a slow consumer
+     * @return the queue the sender shards add the broadcasts to
+     */
+    OutboundQueue startPush(int capacity);
+
+    /***
+     * Runs a task on the thread that serves the connection once a future has completed, and reads nothing from the client until then.
+     * The task also runs if the connection closed meanwhile.
+     * @param future The future to wait for. It must not complete exceptionally.
+     * @param task The task to run
+     */
+    void runWhenDone(CompletableFuture<?> future, Runnable task);
+}
@@ -1,19 +1,36 @@
 package kea.chatsystem.server;
 
-import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Histogram;
+import kea.chatsystem.server.metrics.Metrics;
 import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.MessageHistory;
 import kea.chatsystem.server.util.MessageList;
+import kea.chatsystem.server.util.PresenceLog;
+import kea.chatsystem.server.util.Room;
+import kea.chatsystem.server.util.RoomList;
 import kea.chatsystem.shared.Log;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.util.HashSet;
-import java.util.Set;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /***
- * Watcher class that automatically removes inactive clients, broadcasts chat messages and re-sends list of active users whenever it changes
+ * Watcher class that automatically removes inactive clients, broadcasts chat messages and sends the changes to the list of active users.
+ * Each job runs as its own stage: the watcher thread broadcasts messages as soon as they are added to the message list,
+ * while client expiry and the list of active users are checked on their own schedules.
+ * Broadcasts are sent by the sender shards, each to its own share of the clients.
+ * When a multicast group is configured, every broadcast is sent once to the group, and only to the clients that do not listen on it one by one.
+ * Messages to a room are sent to the members of the room alone, so they cost a send per member instead of per active client.
  *
  * @author Andreas Dan Petersen
  * @version 1.0
@@ -21,10 +38,40 @@ import java.util.Set;
  */
 public class Watcher implements Runnable {
 
+    //how often inactive clients are removed (a client gets 65 seconds, so a second is plenty precise)
+    private static final long EXPIRY_INTERVAL_MS = 1000;
+    //how often changes to the list of active users are sent
+    private static final long PRESENCE_INTERVAL_MS = 200;
+    //the highest number of messages taken from the message list in one go
+    private static final int BATCH_SIZE = 256;
+    //how often the send latency of the sender shards is logged
+    private static final long SHARD_REPORT_INTERVAL_MS = 10000;
+
+    private static final Counter BATCHES = Metrics.getInstance().counter("broadcast.batches");
+    private static final Counter BROADCAST_MESSAGES = Metrics.getInstance().counter("broadcast.messages");
+    private static final Counter ROOM_BROADCASTS = Metrics.getInstance().counter("broadcast.rooms");
+    private static final Histogram MESSAGE_FANOUT_TIME = Metrics.getInstance().histogram("broadcast.fanout.us");
+    private static final Histogram PRESENCE_FANOUT_TIME = Metrics.getInstance().histogram("presence.fanout.us");
+
+    private ServerConfig config;
+    private SenderShard[] shards;
+    private DatagramChannel[] channels;
+    private Broadcaster messageBroadcaster;
+    private Broadcaster presenceBroadcaster;
+    private MessageRouter messageRouter;
+    private MessageRouter presenceRouter;
+    private List<String> presenceChanges;
+
     /***
-     * Constructor with no parameters
+     * Constructor for the watcher
+     * @param config The server configuration
      */
-    public Watcher() { }
+    public Watcher(ServerConfig config) {
+        this.config = config;
+        messageRouter = new MessageRouter();
+        presenceRouter = new MessageRouter();
+        presenceChanges = new ArrayList<>();
+    }
 
     /***
      * Method that gets executed upon Thread.start() call
@@ -34,60 +81,187 @@ public class Watcher implements Runnable {
         Thread.currentThread().setName("Watcher");
 
         try {
-            DatagramPacket datagramPacket;
-            DatagramSocket datagramSocket = new DatagramSocket(1235);
-            String message;
-            int clientsRemoved;
-            Set<String> lastKnownClientList = new HashSet<>();
+            openShards();
+        } catch (IOException ioE) {
+            Log.getInstance().error("IOException: " + ioE.getMessage());
+            closeChannels();
+            return;
+        }
+
+        //the broadcast and presence stages run on different threads, so each gets its own buffers
+        boolean pushFrames = config.getDelivery() == DeliveryMode.TCP;
+        messageBroadcaster = new Broadcaster(shards, config.getDatagramSize(), config.isCoalesce(), pushFrames);
+        presenceBroadcaster = new Broadcaster(shards, config.getDatagramSize(), config.isCoalesce(), pushFrames);
+
+        //expiry, presence and the shard reports share two threads, so while one of them is busy with a slow broadcast the others still run
+        AtomicInteger schedulerThreads = new AtomicInteger();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "Scheduler-" + schedulerThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::removeInactiveClients, EXPIRY_INTERVAL_MS, EXPIRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::sendPresenceChanges, PRESENCE_INTERVAL_MS, PRESENCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::reportShards, SHARD_REPORT_INTERVAL_MS, SHARD_REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        try {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
 
             //run always unless the process gets terminated
             while (true) {
-                Thread.sleep(200); //sleep 150 ms
-
-                //broadcast messages if any new ones are in the list
-                while ((message = MessageList.getInstance().getNextMessage()) != null) {
-                    //make byte array from message
-                    byte[] bMessage = message.getBytes();
-                    //send datagram packet to all users
-                    for (ClientInfo info : ClientList.getInstance().getClientInfoList()) {
-                        datagramPacket = new DatagramPacket(bMessage, bMessage.length, info.getIpAddress(), info.getPort());
-                        datagramSocket.send(datagramPacket);
-                    }
-                }
+                //wait until a worker adds a message, then broadcast it together with any others that are waiting
+                MessageList.getInstance().takeMessages(batch, BATCH_SIZE);
+                broadcast(messageBroadcaster, messageRouter, batch, MESSAGE_FANOUT_TIME);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Log.getInstance().info("Watcher thread was interrupted...");
+        } finally {
+            scheduler.shutdownNow();
+            closeChannels();
+        }
+    }
+
+    /***
+     * Opens a datagram channel for every sender shard and starts the shard threads. The first shard sends from the udp port
+     * (1235 like the server always has, unless another is configured), the others from any free port, since clients do not look at where a datagram comes from.
+     * @throws IOException if a channel could not be opened
+     */
+    private void openShards() throws IOException {
+        shards = new SenderShard[config.getSenderShards()];
+        channels = new DatagramChannel[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            channels[i] = DatagramChannel.open();
+            channels[i].bind(new InetSocketAddress(i == 0 ? config.getUdpPort() : 0));
+        }
+        //the first shard sends to the multicast group
+        if (config.getMulticastGroup() != null) {
+            setUpMulticast(channels[0]);
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new SenderShard(i, channels[i], config.getSlowConsumer());
+            Thread thread = new Thread(shards[i]);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
 
-                //remove inactive clients, log the number of removed clients if it is more than 0
-                if ((clientsRemoved = ClientList.getInstance().removeInactiveClients()) > 0) {
-                    Log.getInstance().info("Removed " + clientsRemoved + " client(s) that stopped sending heartbeats..");
+    /***
+     * Closes the datagram channels of the sender shards, which stops the shards
+     */
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ioE) {
+                    Log.getInstance().error("IOException: " + ioE.getMessage());
                 }
+            }
+        }
+    }
 
-                //send list of clients if it has changed since last time
-                Set<String> currentSet = ClientList.getInstance().getUsernameList();
-                if (!currentSet.containsAll(lastKnownClientList) || currentSet.size() != lastKnownClientList.size()) {
-
-                    //clear the list of known clients then add all the current ones
-                    lastKnownClientList.clear();
-                    lastKnownClientList.addAll(currentSet);
-
-                    //make list into byte array
-                    String newList = "LIST";
-                    for (String username : lastKnownClientList) {
-                        newList += " " + username;
-                    }
-                    byte[] bNewList = newList.getBytes();
-
-                    //send datagram packet to all users with new list
-                    for (ClientInfo info : ClientList.getInstance().getClientInfoList()) {
-                        datagramPacket = new DatagramPacket(bNewList, bNewList.length, info.getIpAddress(), info.getPort());
-                        datagramSocket.send(datagramPacket);
-                    }
+    /***
+     * Sets up a datagram channel to send to the multicast group
+     * @param datagramChannel The channel to set up
+     * @throws IOException if the multicast interface does not exist or the options could not be set
+     */
+    private void setUpMulticast(DatagramChannel datagramChannel) throws IOException {
+        String interfaceName = config.getMulticastInterface();
+        if (interfaceName != null) {
+            NetworkInterface networkInterface = NetworkInterface.getByName(interfaceName);
+            if (networkInterface == null) {
+                throw new IOException("Unknown multicast interface '" + interfaceName + "'");
+            }
+            datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        }
+        //clients on the same host as the server must get the datagrams too
+        datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+
+        Log.getInstance().info("Broadcasting to multicast group " + config.getMulticastGroup() + "..");
+    }
+
+    /***
+     * Sends a batch of messages to every active client, through the multicast group if there is one,
+     * except the messages to a room, which are sent to the members of the room
+     * @param broadcaster The broadcaster of the calling thread
+     * @param router The router of the calling thread
+     * @param messages The messages to send
+     * @param fanoutTime The histogram to record how long the broadcast took in
+     * @throws InterruptedException if the thread is interrupted while the shards send
+     */
+    private void broadcast(Broadcaster broadcaster, MessageRouter router, List<String> messages, Histogram fanoutTime) throws InterruptedException {
+        long start = System.nanoTime();
+        router.route(messages);
+        try {
+            if (!router.getServerMessages().isEmpty()) {
+                //kept before the snapshot is taken, so a client joining now gets the messages either in its replay or in the broadcast
+                MessageHistory.getInstance().add(router.getServerMessages());
+                broadcaster.broadcast(router.getServerMessages(), ClientList.getInstance().getSnapshot(), config.getMulticastGroup());
+            }
+            for (Map.Entry<String, List<String>> roomMessages : router.getRoomMessages().entrySet()) {
+                //the room is gone if its last member parted after the messages were added
+                Room room = RoomList.getInstance().getRoom(roomMessages.getKey());
+                if (room != null) {
+                    //the multicast group reaches every client, so a room is always sent to its members one by one
+                    broadcaster.broadcast(roomMessages.getValue(), room.getSnapshot(), null);
+                    ROOM_BROADCASTS.increment();
                 }
             }
-        } catch (InterruptedException e) {
-            Log.getInstance().info("Watcher thread was interrupted...");
-        } catch (SocketException sE) {
-            Log.getInstance().error("SocketException: " + sE.getMessage());
-        } catch (IOException ioE) {
-            Log.getInstance().error("IOException: " + ioE.getMessage());
+        } finally {
+            router.clear();
+        }
+        fanoutTime.record((System.nanoTime() - start) / 1000);
+        BATCHES.increment();
+        BROADCAST_MESSAGES.add(messages.size());
+    }
+
+    /***
+     * Removes inactive clients and logs the number of removed clients if it is more than 0
+     */
+    private void removeInactiveClients() {
+        try {
+            int clientsRemoved;
+            if ((clientsRemoved = ClientList.getInstance().removeInactiveClients()) > 0) {
+                Log.getInstance().info("Removed " + clientsRemoved + " client(s) that stopped sending heartbeats..");
+            }
+        } catch (RuntimeException rE) {
+            //an exception would cancel the schedule, so log it and try again next time
+            Log.getInstance().error("Could not remove inactive clients: " + rE);
+        }
+    }
+
+    /***
+     * Sends the JOIN and LEFT changes to the list of active users since last time to all clients
+     */
+    private void sendPresenceChanges() {
+        try {
+            if (PresenceLog.getInstance().drainTo(presenceChanges) > 0) {
+                broadcast(presenceBroadcaster, presenceRouter, presenceChanges, PRESENCE_FANOUT_TIME);
+            }
+        } catch (InterruptedException iE) {
+            //the scheduler is shutting down
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException rE) {
+            //an exception would cancel the schedule, so log it and try again next time
+            Log.getInstance().error("Could not send changes to the list of active users: " + rE);
+        } finally {
+            //the changes are gone from the log, so changes that failed are dropped rather than sent again with later ones.
+            //Clients that miss a version ask for a full LIST.
+            presenceChanges.clear();
+        }
+    }
+
+    /***
+     * Logs the send latency of every sender shard that has sent anything since the last report
+     */
+    private void reportShards() {
+        for (SenderShard shard : shards) {
+            String report = shard.report();
+            if (report != null) {
+                Log.getInstance().debug(report);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,16 @@
 package kea.chatsystem.server;
 
-import kea.chatsystem.server.util.ClientList;
-import kea.chatsystem.server.util.MessageList;
-import kea.chatsystem.shared.ErrorType;
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.util.OutboundQueue;
 import kea.chatsystem.shared.Log;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
 
 /***
  * Worker class that is designed to handle a single client connection in a separate thread
@@ -17,139 +19,169 @@ import java.util.regex.Pattern;
  * @version 1.0
  * @since 25-09-2019
  */
-public class Worker implements Runnable {
+public class Worker implements Runnable, Transport {
 
-    //regex pattern to check for illegal chars in username
-    private static Pattern regexPattern = Pattern.compile("[^a-zA-Z0-9_-æøåÆØÅ]+$");
+    private static final Counter BYTES_RECEIVED = Metrics.getInstance().counter("bytes.received");
 
     private Socket socket;
-    private BufferedReader input;
-    private PrintWriter output;
-    private String username;
+    //bytes are read straight from the socket into the buffer and handed to the decoder
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private InputStream input;
+    //the socket stream until broadcasts are pushed, then a buffer over it. Guarded by writeLock.
+    private OutputStream stream;
+    private Object writeLock;
+    private int datagramSize;
+    private Session session;
+    private CommandDecoder decoder;
+    private Executor pushExecutor;
+    private OutboundQueue outbound;
+    //the thread that writes the broadcasts, while it waits for more
+    private volatile Thread pusher;
 
     /***
      * Constructor for a worker
      * @param socket The socket that holds the information needed to communicate
+     * @param config The server configuration
+     * @param pushExecutor Runs the thread that writes broadcasts to the client in tcp delivery, null in udp delivery
      * @throws IOException
      */
-    public Worker(Socket socket) throws IOException {
+    public Worker(Socket socket, ServerConfig config, Executor pushExecutor) throws IOException {
         this.socket = socket;
-        input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        output = new PrintWriter(socket.getOutputStream());
+        this.pushExecutor = pushExecutor;
+        input = socket.getInputStream();
+        stream = socket.getOutputStream();
+        writeLock = new Object();
+        datagramSize = config.getDatagramSize();
+        session = new Session(this, config, socket.getInetAddress(), socket.getPort());
+        decoder = new CommandDecoder(session);
     }
 
     /***
      * Method that gets called upon Thread.start() call, which starts the worker thread.
      */
     public void run() {
-        try {
-            //assume username is illegal
-            boolean usernameOK = false;
-            String joinMessage;
-            if ((joinMessage = input.readLine()) != null) {
-
-                // 6 is the minimum length to have a 1 character username
-                if (joinMessage.length() > 5) {
-                    if (!joinMessage.substring(0, 4).equals("JOIN")) {
-                        output.println("J_ER " + ErrorType.UNEXPECTED_COMMAND);
-                        output.flush();
-                    } else {
-                        username = joinMessage.substring(5).split(",")[0];
-                        Matcher matcher = regexPattern.matcher(username);
-                        if (username.length() > 12 || matcher.find()) {
-                            output.println("J_ER " + ErrorType.ILLEGAL_USERNAME);
-                            output.flush();
-                        } else {
-                            usernameOK = true;
-                        }
-                    }
-                } else {
-                    //send join error message back
-                    output.println("J_ER " + ErrorType.MISUSED_COMMAND);
-                    output.flush();
-                }
 
-                //if username is not illegal, attempt to add it
-                if (usernameOK) {
-                    if (ClientList.getInstance().addClient(username, socket.getInetAddress(), socket.getPort())) {
-                        Log.getInstance().info("JOIN OK: Added client with username '" + username + "' to the active list.");
+        Thread.currentThread().setName("Worker-" + socket.getPort());
 
-                        //send join ok message to client
-                        output.println("J_OK");
-                        output.flush();
-
-                        //keep the worker working to receive messages
-                        work();
-                    } else {
-                        output.println("J_ER " + ErrorType.DUPLICATE_USERNAME);
-                        output.flush();
-
-                        Log.getInstance().info("JOIN FAILED: Leaving thread as username was already active. (Client must reconnect with a different username)");
-                    }
+        try {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            //handle whatever the socket has, then block until the client sends more
+            while ((read = input.read(buffer)) >= 0) {
+                BYTES_RECEIVED.add(read);
+                if (!decoder.decode(buffer, 0, read)) {
+                    break;
                 }
             }
+
+            Log.getInstance().info("Leaving thread because client is no longer active...");
         } catch (IOException ioE) {
             Log.getInstance().error("Client connection stopped unexpectedly: " + ioE.getMessage());
-        } catch (InterruptedException iE) {
-            Log.getInstance().info("Thread interrupted.. Closing thread..");
+        } finally {
+            //if the user still exists in the list somehow, then remove it, also when the connection was reset
+            session.leave();
+            if (outbound != null) {
+                outbound.close();
+            }
+            try {
+                socket.close();
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not close client socket: " + ioE.getMessage());
+            }
         }
     }
 
     /***
-     * Method that gets called once the client connection has been properly set up and verified
-     * @throws InterruptedException
-     * @throws IOException
+     * Writes a line to the client and flushes it immediately
+     * @param line The line to write
      */
-    private void work() throws InterruptedException, IOException {
-        //run while client still exists in the active client list
-        while (ClientList.getInstance().isActive(username)) {
-            //read message
-            String message;
-            if ((message = input.readLine()) != null) {
-                //log transaction
-                Log.getInstance().transaction(message, true);
-                //check if message is more than 4 chars
-                if (message.length() < 4) {
-                    Log.getInstance().error("Client message is too short to contain any meaningful information. (Minimum is 4 characters)");
-                } else {
-                    //check client type
-                    String type = message.substring(0, 4);
-                    switch (type) {
-                        case "IMAV":
-                            ClientList.getInstance().updateHeartbeat(username); //update heartbeat
-                            break;
-                        case "DATA":
-                            //get the message length minus the DATA : part of the message
-                            int actualLength = message.length() - (username.length() + 7);
-                            if (actualLength > 0) {
-                                //check if message exceeds the 250 char limit (this is also checked in the list object)
-                                if (actualLength > 250) {
-                                    Log.getInstance().error("Invalid DATA message received. Reason: Message was too long ( > 250 chars )");
-                                } else {
-                                    String msg = message.substring(7 + username.length());
-                                    MessageList.getInstance().addMessage(username, msg);
-                                }
-                            } else {
-                                //if message found to be 0 chars long, simply print out an error message
-                                Log.getInstance().error("Invalid DATA message received. Reason: No message was attached.");
-                            }
-                            break;
-                        case "QUIT":
-                            ClientList.getInstance().remove(username); //remove on quit message
-                            break;
-                        default:
-                            Log.getInstance().error("Unknown/unexpected client message: '" + message + "'");
-                            break;
-                    }
-                }
+    public void write(String line) {
+        write((line + System.lineSeparator()).getBytes(Charset.defaultCharset()));
+    }
+
+    /***
+     * Writes a binary frame to the client
+     * @param frame The frame to write
+     */
+    public void write(byte[] frame) {
+        //the pusher writes to the same stream
+        synchronized (writeLock) {
+            try {
+                stream.write(frame);
+                stream.flush();
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not write to client: " + ioE.getMessage());
             }
+        }
+    }
+
+    /***
+     * Waits for the future on the worker thread, which has nothing else to do meanwhile, and runs the task
+     * @param future The future to wait for
+     * @param task The task to run
+     */
+    public void runWhenDone(CompletableFuture<?> future, Runnable task) {
+        future.join();
+        task.run();
+    }
 
-            Thread.sleep(200);
+    /***
+     * Starts a thread that writes the broadcasts added to the returned queue
+     * @param capacity The highest number of broadcasts waiting to be written before the client counts as a slow consumer
+     * @return the queue the sender shards add the broadcasts to
+     */
+    public OutboundQueue startPush(int capacity) {
+        //frames up to a datagram are collected and written together, larger ones go straight to the socket
+        synchronized (writeLock) {
+            stream = new BufferedOutputStream(stream, datagramSize);
         }
+        outbound = new OutboundQueue(capacity, () -> LockSupport.unpark(pusher), this::disconnect);
+        pushExecutor.execute(this::push);
+        return outbound;
+    }
+
+    /***
+     * Writes the broadcasts in the outbound queue until it is closed. Every frame waiting is written before a single flush.
+     */
+    private void push() {
+        pusher = Thread.currentThread();
+        Thread.currentThread().setName("Pusher-" + socket.getPort());
+
+        try {
+            while (!outbound.isClosed()) {
+                boolean wrote = false;
+                synchronized (writeLock) {
+                    byte[] frame;
+                    while ((frame = outbound.poll()) != null) {
+                        stream.write(frame);
+                        wrote = true;
+                    }
+                    if (wrote) {
+                        stream.flush();
+                    }
+                }
 
-        //if the user still exists in the list somehow, then remove it
-        ClientList.getInstance().remove(username);
+                //wait for the next broadcast, unless one was added while the flag was set
+                if (!wrote && !outbound.idle()) {
+                    LockSupport.park(this);
+                }
+            }
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not push broadcast to client: " + ioE.getMessage());
+        } finally {
+            pusher = null;
+        }
+    }
 
-        Log.getInstance().info("Leaving thread because client is no longer active...");
+    /***
+     * Closes the socket, which makes the worker leave. Safe to call from any thread.
+     */
+    private void disconnect() {
+        try {
+            socket.close();
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not close client socket: " + ioE.getMessage());
+        }
     }
 }
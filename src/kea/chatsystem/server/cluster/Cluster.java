@@ -0,0 +1,599 @@
+package kea.chatsystem.server.cluster;
+
+import kea.chatsystem.server.CommandDecoder;
+import kea.chatsystem.server.DirectMessenger;
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Histogram;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.server.util.ClientInfo;
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.MessageList;
+import kea.chatsystem.shared.ErrorType;
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/***
+ * Singleton class that joins this server to other server nodes, so clients connected to different nodes chat as if they were on one.
+ * Every node is given the same list of node addresses, and connects to every other node over TCP: it writes to a PeerLink
+ * of its own, and reads what the peer writes from the PeerConnection the peer opened. Lines between nodes are text:
+ * <ul>
+ *     <li>'HELLO challenge' is written by the node that accepted a connection, and the connecting node answers with 'NODE id mac',
+ *     where mac is an HMAC-SHA256 of the challenge and the id made with the cluster secret. Nothing else is read from a peer that does not
+ *     prove it knows the secret.</li>
+ *     <li>'FWD DATA ...' is a chat message a client of the node sent, which the peer broadcasts to its own clients</li>
+ *     <li>'UP username' and 'DOWN username' are clients that joined or left the node, which the peer adds to its LIST</li>
+ *     <li>'CLAIM request username' asks the owner of a username for it, answered with 'GRANT request' or 'DENY request'.
+ *     Request 0 is a client the node already has, and is not answered.</li>
+ *     <li>'PRIV sender recipient text' is a direct message to a client of the peer</li>
+ *     <li>'PING' is written when there has been nothing else to write for a second</li>
+ * </ul>
+ * The lines of a peer are checked like the lines of a client: a chat message, a direct message or a user must have a legal username
+ * and text, and messages must come from a client the peer has told about.
+ * The username registry is split between the nodes by a hash of the username. While the owner of a username is not connected,
+ * the next connected node in the list owns it, and the nodes claim the usernames of their clients again at the new owner.
+ * Does nothing until start() is called.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Cluster {
+
+    private static volatile Cluster cluster;
+
+    //how long a joining client waits for the owner of its username to answer
+    private static final long CLAIM_TIMEOUT_MS = 2000;
+    //connections from other hosts that may be waiting to introduce themselves at once, the rest are closed right away
+    private static final int MAX_HANDSHAKES = 16;
+
+    private static final Counter FORWARDED = Metrics.getInstance().counter("cluster.forwarded");
+    private static final Counter RECEIVED = Metrics.getInstance().counter("cluster.received");
+    private static final Counter REJECTED = Metrics.getInstance().counter("cluster.rejected");
+    private static final Counter INVALID = Metrics.getInstance().counter("cluster.invalid");
+    private static final Counter CLAIMS = Metrics.getInstance().counter("cluster.claims");
+    private static final Counter CLAIMS_TAKEN = Metrics.getInstance().counter("cluster.claims.taken");
+    private static final Counter CLAIMS_FAILED = Metrics.getInstance().counter("cluster.claims.failed");
+    private static final Counter DIRECT = Metrics.getInstance().counter("cluster.direct");
+    private static final Histogram CLAIM_TIME = Metrics.getInstance().histogram("cluster.claim.us");
+    //shared with PeerLink, which counts the peers that fell too far behind
+    private static final Counter REFUSED = Metrics.getInstance().counter("cluster.refused");
+    static final Counter OVERFLOWS = Metrics.getInstance().counter("cluster.overflows");
+
+    private volatile boolean started;
+    private int nodeId;
+    private SecretKeySpec secret;
+    private SecureRandom random;
+    //places for the connections that have not introduced themselves yet
+    private Semaphore handshakes;
+    //indexed by node id, null for this node
+    private PeerLink[] links;
+    //the socket of the connection each peer opened to this node, null while there is none
+    private AtomicReferenceArray<Socket> connections;
+    private UsernameRegistry registry;
+    //claims waiting for an answer from the owner of the username
+    private ConcurrentHashMap<Long, CompletableFuture<Boolean>> pending;
+    private AtomicLong nextRequest;
+
+    /***
+     * Constructor with no parameters
+     */
+    private Cluster() {
+        registry = new UsernameRegistry();
+        pending = new ConcurrentHashMap<>();
+        nextRequest = new AtomicLong();
+    }
+
+    /***
+     * Singleton get method that returns the only static Cluster object
+     * @return the static Cluster object initiated
+     */
+    public static Cluster getInstance() {
+        if (cluster == null) {
+            synchronized (Cluster.class) {
+                //double check null value to make sure
+                if (cluster == null) {
+                    cluster = new Cluster();
+                }
+            }
+        }
+
+        return cluster;
+    }
+
+    /***
+     * Starts listening for the other nodes, and starts connecting to them. Must be called once, before any clients join.
+     * @param nodes The addresses the nodes accept connections from other nodes on, in the same order on every node
+     * @param nodeId The position of this node in the list, counting from 0
+     * @param secret The secret every node is given, which the nodes prove to each other that they know
+     * @throws IOException if the address of this node could not be listened on
+     */
+    public synchronized void start(List<InetSocketAddress> nodes, int nodeId, String secret) throws IOException {
+        if (started) {
+            throw new IllegalStateException("The cluster is already started");
+        }
+        this.nodeId = nodeId;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        random = new SecureRandom();
+        handshakes = new Semaphore(MAX_HANDSHAKES);
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(nodes.get(nodeId));
+
+        links = new PeerLink[nodes.size()];
+        connections = new AtomicReferenceArray<>(nodes.size());
+        for (int i = 0; i < links.length; i++) {
+            if (i != nodeId) {
+                links[i] = new PeerLink(this, i, nodes.get(i));
+            }
+        }
+        Metrics.getInstance().gauge("cluster.peers", this::getConnectedPeers);
+        Metrics.getInstance().gauge("cluster.registry", registry::size);
+        started = true;
+
+        Thread acceptor = new Thread(() -> accept(serverSocket), "ClusterAcceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links) {
+            if (link != null) {
+                link.start();
+            }
+        }
+        Log.getInstance().info("Cluster node " + nodeId + " of " + nodes.size() + " listening for other nodes on " + nodes.get(nodeId) + ".");
+    }
+
+    /***
+     * Accepts the connections the other nodes open, and starts a thread to read each of them, as long as not too many are still introducing themselves
+     * @param serverSocket The socket to accept connections from
+     */
+    private void accept(ServerSocket serverSocket) {
+        while (true) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!handshakes.tryAcquire()) {
+                    //every handshake gives up within a second, so a node that is turned away gets in when it connects again
+                    REFUSED.increment();
+                    Log.getInstance().error("Closing cluster connection from " + socket.getRemoteSocketAddress() + ", " + MAX_HANDSHAKES + " connections are already introducing themselves.");
+                    socket.close();
+                    continue;
+                }
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(new PeerConnection(this, socket), "PeerConnection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ioE) {
+                Log.getInstance().error("Stopped accepting cluster connections: " + ioE.getMessage());
+                return;
+            }
+        }
+    }
+
+    /***
+     * Method to determine if the cluster is started
+     * @return true if this server is a node of a cluster
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /***
+     * Claims a username for a client that is joining this node, from the node that owns it. If the owner is another node the answer comes
+     * after a round trip between the nodes, so the returned future completes on the thread of the peer connection or of the timeout,
+     * and the thread of the client is free meanwhile.
+     * @param username The username, already checked to be legal
+     * @return a future that completes with null if the client may join with the username, DUPLICATE_USERNAME if it is taken on any node,
+     * or CLUSTER_UNAVAILABLE if the owner did not answer in time
+     */
+    public CompletableFuture<ErrorType> claim(String username) {
+        if (!started) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        int owner = owner(username, -1);
+        if (owner == nodeId) {
+            return CompletableFuture.completedFuture(registry.claim(username, nodeId, false) ? null : taken());
+        }
+
+        long start = System.nanoTime();
+        long request = nextRequest.incrementAndGet();
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        pending.put(request, reply);
+        if (!links[owner].send("CLAIM " + request + " " + username)) {
+            reply.complete(null);
+        }
+
+        return reply.completeOnTimeout(null, CLAIM_TIMEOUT_MS, TimeUnit.MILLISECONDS).handle((granted, e) -> {
+            pending.remove(request);
+            CLAIMS.increment();
+            CLAIM_TIME.record((System.nanoTime() - start) / 1000);
+
+            if (granted == null) {
+                CLAIMS_FAILED.increment();
+                Log.getInstance().error("Cluster node " + owner + " did not answer the claim for username '" + username + "'.");
+                //the owner may still grant it after the wait ran out, and would keep it for a client that never joined
+                if (!ClientList.getInstance().isActive(username)) {
+                    links[owner].send("DOWN " + username);
+                }
+                return ErrorType.CLUSTER_UNAVAILABLE;
+            }
+            return granted ? null : taken();
+        });
+    }
+
+    /***
+     * Counts a username that was refused because it is taken
+     * @return DUPLICATE_USERNAME
+     */
+    private ErrorType taken() {
+        CLAIMS_TAKEN.increment();
+        return ErrorType.DUPLICATE_USERNAME;
+    }
+
+    /***
+     * Tells the other nodes that a client joined this node. Called by the client list.
+     * @param username The username of the client
+     */
+    public void joined(String username) {
+        if (!started) {
+            return;
+        }
+        sendToAll("UP " + username);
+    }
+
+    /***
+     * Releases the username of a client that left this node, and tells the other nodes. Called by the client list.
+     * @param username The username of the client
+     */
+    public void left(String username) {
+        if (!started) {
+            return;
+        }
+        registry.release(username, nodeId);
+        sendToAll("DOWN " + username);
+    }
+
+    /***
+     * Sends a chat message a client of this node sent to the other nodes, which broadcast it to their own clients
+     * @param data The message as it is broadcast
+     */
+    public void forward(String data) {
+        if (!started) {
+            return;
+        }
+        sendToAll("FWD " + toLine(data));
+        FORWARDED.increment();
+    }
+
+    /***
+     * Sends a direct message to a client of another node
+     * @param sender The username of the client sending the message
+     * @param recipient The username of the client to send to
+     * @param text The text of the message
+     * @return true if the recipient is a client of a connected node, false if no node has it
+     */
+    public boolean direct(String sender, String recipient, String text) {
+        if (!started) {
+            return false;
+        }
+        int node = ClientList.getInstance().getRemoteNode(recipient);
+        if (node < 0 || !links[node].send("PRIV " + sender + " " + recipient + " " + toLine(text))) {
+            return false;
+        }
+        DIRECT.increment();
+        return true;
+    }
+
+    /***
+     * Carries out a line a peer wrote. Called from the thread reading the connection of the peer.
+     * @param node The id of the peer
+     * @param line The line, without the line feed
+     */
+    void handle(int node, String line) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String rest = space < 0 ? "" : line.substring(space + 1);
+        try {
+            switch (command) {
+                case "PING":
+                    break;
+                case "FWD": {
+                    //added like a message from a client of this node, but not forwarded again
+                    String sender = CommandDecoder.senderOf(rest);
+                    if (sender == null || ClientList.getInstance().getRemoteNode(sender) != node) {
+                        invalid(node, line);
+                    } else if (MessageList.getInstance().addData(rest)) {
+                        RECEIVED.increment();
+                    } else {
+                        REJECTED.increment();
+                    }
+                    break;
+                }
+                case "UP":
+                    if (!CommandDecoder.isLegalUsername(rest)) {
+                        invalid(node, line);
+                        break;
+                    }
+                    ClientList.getInstance().addRemoteUser(rest, node);
+                    break;
+                case "DOWN":
+                    ClientList.getInstance().removeRemoteUser(rest, node);
+                    registry.release(rest, node);
+                    break;
+                case "CLAIM": {
+                    int separator = rest.indexOf(' ');
+                    long request = Long.parseLong(rest.substring(0, separator));
+                    String username = rest.substring(separator + 1);
+                    if (!CommandDecoder.isLegalUsername(username)) {
+                        invalid(node, line);
+                        break;
+                    }
+                    boolean granted = registry.claim(username, node, request == 0);
+                    if (request != 0) {
+                        links[node].send((granted ? "GRANT " : "DENY ") + request);
+                    }
+                    break;
+                }
+                case "GRANT":
+                case "DENY": {
+                    CompletableFuture<Boolean> reply = pending.remove(Long.parseLong(rest));
+                    if (reply != null) {
+                        reply.complete(command.equals("GRANT"));
+                    }
+                    break;
+                }
+                case "PRIV": {
+                    int first = rest.indexOf(' ');
+                    int second = rest.indexOf(' ', first + 1);
+                    String sender = rest.substring(0, first);
+                    String recipient = rest.substring(first + 1, second);
+                    String text = rest.substring(second + 1);
+                    if (ClientList.getInstance().getRemoteNode(sender) != node || !CommandDecoder.isLegalUsername(recipient)
+                            || !CommandDecoder.isLegalText(text)) {
+                        invalid(node, line);
+                        break;
+                    }
+                    DirectMessenger.getInstance().deliver(sender, recipient, text);
+                    break;
+                }
+                default:
+                    Log.getInstance().error("Unknown line from cluster node " + node + ": '" + line + "'");
+            }
+        } catch (RuntimeException rE) {
+            //a malformed line is skipped, the ones after it are still read
+            Log.getInstance().error("Malformed line from cluster node " + node + ": '" + line + "'");
+        }
+    }
+
+    /***
+     * Skips a line of a peer that breaks the rules a client is held to
+     * @param node The id of the peer
+     * @param line The line
+     */
+    private void invalid(int node, String line) {
+        INVALID.increment();
+        Log.getInstance().error("Invalid line from cluster node " + node + ": '" + line + "'");
+    }
+
+    /***
+     * Makes the challenge a peer that opens a connection to this node must answer
+     * @return a random challenge, as hex
+     */
+    String challenge() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    /***
+     * Makes the first line of a connection to a peer, which proves this node knows the cluster secret
+     * @param challenge The challenge the peer wrote
+     * @return the line 'NODE id mac'
+     */
+    String introduce(String challenge) {
+        return "NODE " + nodeId + " " + HexFormat.of().formatHex(mac(challenge, nodeId));
+    }
+
+    /***
+     * Parses the first line of a connection opened by a peer
+     * @param line The line
+     * @param challenge The challenge this node wrote to the peer
+     * @return the id of the peer, or -1 if the line is not 'NODE id mac' with the id of another node and the mac of the challenge and the id
+     */
+    int parseNode(String line, String challenge) {
+        if (line == null || !line.startsWith("NODE ")) {
+            return -1;
+        }
+        try {
+            int separator = line.indexOf(' ', 5);
+            int node = Integer.parseInt(line.substring(5, separator));
+            if (node < 0 || node >= links.length || node == nodeId) {
+                return -1;
+            }
+            //compared in constant time, so the time it takes tells nothing about the right mac
+            byte[] mac = HexFormat.of().parseHex(line.substring(separator + 1));
+            return MessageDigest.isEqual(mac, mac(challenge, node)) ? node : -1;
+        } catch (RuntimeException rE) {
+            return -1;
+        }
+    }
+
+    /***
+     * Gives back the place of a connection that has introduced itself, or failed to
+     */
+    void handshakeDone() {
+        handshakes.release();
+    }
+
+    /***
+     * Makes the mac a node answers a challenge with
+     * @param challenge The challenge
+     * @param node The id of the node that answers it
+     * @return the HMAC-SHA256 of the challenge and the id, made with the cluster secret
+     */
+    private byte[] mac(String challenge, int node) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            return mac.doFinal((challenge + " " + node).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException gsE) {
+            //every Java platform has HmacSHA256
+            throw new IllegalStateException("HmacSHA256 is not available", gsE);
+        }
+    }
+
+    /***
+     * Records the connection a peer opened. A connection the peer opened before is closed, and the clients it told about are removed,
+     * since the peer tells about all of its clients again on the new connection.
+     * @param node The id of the peer
+     * @param socket The socket of the connection
+     */
+    void connectionOpened(int node, Socket socket) {
+        Socket old = connections.getAndSet(node, socket);
+        if (old != null) {
+            try {
+                old.close();
+            } catch (IOException ioE) {
+                Log.getInstance().error("IOException: " + ioE.getMessage());
+            }
+            forget(node);
+        }
+        Log.getInstance().info("Cluster node " + node + " connected from " + socket.getRemoteSocketAddress() + ".");
+    }
+
+    /***
+     * Removes the clients a peer told about once its connection is closed, unless the peer has opened a new connection since
+     * @param node The id of the peer
+     * @param socket The socket of the connection
+     */
+    void connectionClosed(int node, Socket socket) {
+        if (connections.compareAndSet(node, socket, null)) {
+            forget(node);
+        }
+    }
+
+    /***
+     * Removes the clients of a peer from the list of active users, and releases their usernames
+     * @param node The id of the peer
+     */
+    private void forget(int node) {
+        int removed = ClientList.getInstance().removeRemoteUsers(node);
+        registry.releaseAll(node);
+        Log.getInstance().info("Removed " + removed + " client(s) of cluster node " + node + ".");
+    }
+
+    /***
+     * Builds the lines that tell a peer about the clients of this node. Called by the link to the peer every time it connects.
+     * @param node The id of the peer
+     * @return an UP line for every client, and a CLAIM line for every username the peer owns
+     */
+    List<String> linkUp(int node) {
+        List<String> lines = new ArrayList<>();
+        List<ClientInfo> clients = ClientList.getInstance().getClientInfoList();
+        for (ClientInfo clientInfo : clients) {
+            lines.add("UP " + clientInfo.getUsername());
+        }
+        for (ClientInfo clientInfo : clients) {
+            if (owner(clientInfo.getUsername(), -1) == node) {
+                lines.add("CLAIM 0 " + clientInfo.getUsername());
+            }
+        }
+        return lines;
+    }
+
+    /***
+     * Claims the usernames the peer owned at their new owners. Called by the link to the peer when it is lost.
+     * @param node The id of the peer
+     */
+    void linkDown(int node) {
+        for (ClientInfo clientInfo : ClientList.getInstance().getClientInfoList()) {
+            String username = clientInfo.getUsername();
+            if (owner(username, node) == node) {
+                int owner = owner(username, -1);
+                if (owner == nodeId) {
+                    registry.claim(username, nodeId, true);
+                } else {
+                    links[owner].send("CLAIM 0 " + username);
+                }
+            }
+        }
+    }
+
+    /***
+     * Finds the node that owns a username: the node picked by the hash of the username if it is connected, otherwise the next connected node after it
+     * @param username The username
+     * @param connectedNode The id of a node to count as connected whether it is or not, or -1
+     * @return the id of the node
+     */
+    private int owner(String username, int connectedNode) {
+        int first = Math.floorMod(username.hashCode(), links.length);
+        for (int i = 0; i < links.length; i++) {
+            int node = (first + i) % links.length;
+            if (node == nodeId || node == connectedNode || links[node].isConnected()) {
+                return node;
+            }
+        }
+        return nodeId;
+    }
+
+    /***
+     * Makes text from a binary client fit on one line between the nodes
+     * @param text The text
+     * @return the text with every line feed replaced by a space
+     */
+    private static String toLine(String text) {
+        return text.indexOf('\n') < 0 ? text : text.replace('\n', ' ');
+    }
+
+    /***
+     * Adds a line to the link of every peer
+     * @param line The line
+     */
+    private void sendToAll(String line) {
+        for (PeerLink link : links) {
+            if (link != null) {
+                link.send(line);
+            }
+        }
+    }
+
+    /***
+     * get method
+     * @return the id of this node
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /***
+     * get method
+     * @return the number of peers this node is connected to
+     */
+    public int getConnectedPeers() {
+        int count = 0;
+        for (PeerLink link : links) {
+            if (link != null && link.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
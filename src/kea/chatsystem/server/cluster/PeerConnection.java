@@ -0,0 +1,96 @@
+package kea.chatsystem.server.cluster;
+
+import kea.chatsystem.shared.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+/***
+ * A connection opened by a peer, which reads everything the peer tells this node on a thread of its own.
+ * The connection starts with a challenge to the peer, the first line of the peer names the node and answers the challenge with the cluster
+ * secret, and every line after it is handed to the cluster. Until the peer has answered, at most a short line is read from it and it
+ * gets a second to write it, so a host that is not a node cannot hold on to more than a thread and a few bytes. A peer that has written nothing,
+ * not even a PING, for several ping intervals counts as gone, and the clients it had are removed.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+class PeerConnection implements Runnable {
+
+    private static final int READ_TIMEOUT_MS = (int)(PeerLink.PING_INTERVAL_MS * 5);
+    private static final int HANDSHAKE_TIMEOUT_MS = 1000;
+    //'NODE id mac' with the 64 hex digits of the mac
+    private static final int MAX_INTRODUCTION_LENGTH = 96;
+
+    private Cluster cluster;
+    private Socket socket;
+
+    /***
+     * Constructor for a connection opened by a peer
+     * @param cluster The cluster the connection belongs to
+     * @param socket The socket of the connection
+     */
+    PeerConnection(Cluster cluster, Socket socket) {
+        this.cluster = cluster;
+        this.socket = socket;
+    }
+
+    /***
+     * Method that gets executed upon Thread.start() call
+     */
+    public void run() {
+        int node = -1;
+        try {
+            //a new challenge for every connection, so an answer seen on the network cannot be used again
+            String challenge = cluster.challenge();
+            String line;
+            try {
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                OutputStream out = socket.getOutputStream();
+                out.write(("HELLO " + challenge + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                line = PeerLink.readLine(socket.getInputStream(), MAX_INTRODUCTION_LENGTH);
+                node = cluster.parseNode(line, challenge);
+            } catch (SocketTimeoutException stE) {
+                Log.getInstance().error("Closing cluster connection from " + socket.getRemoteSocketAddress() + " that did not introduce itself in time.");
+                return;
+            } finally {
+                cluster.handshakeDone();
+            }
+            if (node < 0) {
+                Log.getInstance().error("Closing cluster connection from " + socket.getRemoteSocketAddress() + " that started with '" + line + "'.");
+                return;
+            }
+            Thread.currentThread().setName("PeerConnection-" + node);
+            cluster.connectionOpened(node, socket);
+
+            //the introduction was read a byte at a time, so the reader starts right after it
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            while ((line = reader.readLine()) != null) {
+                cluster.handle(node, line);
+            }
+            Log.getInstance().info("Cluster node " + node + " closed its connection.");
+        } catch (SocketTimeoutException stE) {
+            Log.getInstance().error("Cluster node " + node + " stopped sending, closing its connection.");
+        } catch (IOException ioE) {
+            Log.getInstance().error("Lost connection from cluster node " + node + ": " + ioE.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ioE) {
+                Log.getInstance().error("IOException: " + ioE.getMessage());
+            }
+            if (node >= 0) {
+                cluster.connectionClosed(node, socket);
+            }
+        }
+    }
+}
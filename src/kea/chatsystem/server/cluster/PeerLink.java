@@ -0,0 +1,234 @@
+package kea.chatsystem.server.cluster;
+
+import kea.chatsystem.shared.Log;
+import kea.chatsystem.shared.RingBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/***
+ * The connection from this node to one peer, which everything this node tells the peer is written to. Lines are added to
+ * a lock-free ring buffer from any thread, and a thread of its own writes them, so a slow peer never holds up a client.
+ * The connection is opened again every second until it succeeds, and every time it opens the peer is first told about every client
+ * of this node, so nothing sent while it was closed is needed. If the peer falls so far behind that the buffer is full,
+ * the connection is closed and opened again instead of lines being lost.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+class PeerLink implements Runnable {
+
+    //lines waiting to be written, and the most the link thread takes before it writes them
+    private static final int QUEUE_SIZE = 65536;
+    private static final int BATCH_SIZE = 1024;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int MAX_CHALLENGE_LENGTH = 64;
+    private static final long RECONNECT_INTERVAL_MS = 1000;
+    //how often a PING is written while there is nothing else to write, so the peer can tell a quiet node from a dead one
+    static final long PING_INTERVAL_MS = 1000;
+
+    private Cluster cluster;
+    private int node;
+    private InetSocketAddress address;
+    private RingBuffer<String> queue;
+    private Thread thread;
+    private volatile boolean connected;
+    private volatile boolean overflowed;
+    //true while the link thread has nothing to write and is about to sleep
+    private volatile boolean waiting;
+
+    /***
+     * Constructor for the link to a peer
+     * @param cluster The cluster the link belongs to
+     * @param node The id of the peer
+     * @param address The address the peer accepts connections from other nodes on
+     */
+    PeerLink(Cluster cluster, int node, InetSocketAddress address) {
+        this.cluster = cluster;
+        this.node = node;
+        this.address = address;
+        queue = new RingBuffer<>(QUEUE_SIZE);
+    }
+
+    /***
+     * Starts the link thread, which connects to the peer
+     */
+    void start() {
+        thread = new Thread(this, "PeerLink-" + node);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /***
+     * Adds a line to be written to the peer. Called from any thread.
+     * @param line The line, without the line feed
+     * @return true if the line was added, false if the peer is not connected
+     */
+    boolean send(String line) {
+        if (!connected) {
+            return false;
+        }
+        if (!queue.offer(line)) {
+            //the peer starts over from a new connection
+            overflowed = true;
+            LockSupport.unpark(thread);
+            return false;
+        }
+
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /***
+     * Method to determine if the peer is connected
+     * @return true if lines sent to the peer are written to it
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    /***
+     * Method that gets executed by the link thread. Connects to the peer, and connects again whenever the connection is lost.
+     */
+    public void run() {
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.setTcpNoDelay(true);
+                socket.connect(address, CONNECT_TIMEOUT_MS);
+                Log.getInstance().info("Connected to cluster node " + node + " at " + address + ".");
+                serve(socket.getOutputStream(), readChallenge(socket));
+            } catch (IOException ioE) {
+                if (connected) {
+                    Log.getInstance().error("Lost connection to cluster node " + node + ": " + ioE.getMessage());
+                }
+            } finally {
+                if (connected) {
+                    connected = false;
+                    cluster.linkDown(node);
+                }
+            }
+
+            try {
+                Thread.sleep(RECONNECT_INTERVAL_MS);
+            } catch (InterruptedException iE) {
+                return;
+            }
+        }
+    }
+
+    /***
+     * Reads the challenge the peer starts the connection with
+     * @param socket The socket of the connection
+     * @return the challenge
+     * @throws IOException if the connection fails, or the peer does not start with 'HELLO challenge' in time
+     */
+    private String readChallenge(Socket socket) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+        //the peer writes nothing else, so the line can be read without a buffer
+        String line = readLine(socket.getInputStream(), MAX_CHALLENGE_LENGTH);
+        if (line == null) {
+            throw new IOException("Cluster node " + node + " did not send a challenge");
+        }
+        if (!line.startsWith("HELLO ")) {
+            throw new IOException("Cluster node " + node + " started with '" + line + "' instead of a challenge");
+        }
+        return line.substring(6);
+    }
+
+    /***
+     * Reads a line a byte at a time, so nothing after it is read, and never more than a number of bytes.
+     * Used for the first line of a connection, before the other end has shown that it is a node of the cluster.
+     * @param in The stream to read from
+     * @param maxLength The most bytes the line may have, line feed excluded
+     * @return the line without the line feed, or null if the stream ended or the line is longer
+     * @throws IOException if the connection fails or the socket timeout runs out
+     */
+    static String readLine(InputStream in, int maxLength) throws IOException {
+        byte[] line = new byte[maxLength];
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0 || length == maxLength) {
+                return null;
+            }
+            line[length++] = (byte)b;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /***
+     * Introduces this node to the peer, tells it about every client of this node, then writes lines as they are added until the connection fails
+     * @param stream The stream of the connection
+     * @param challenge The challenge the peer wrote, which the introduction answers
+     * @throws IOException if the connection fails
+     */
+    private void serve(OutputStream stream, String challenge) throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, 65536);
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        //what was added before belongs to the last connection, the peer starts over from what is written now
+        while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+            batch.clear();
+        }
+        overflowed = false;
+
+        write(out, cluster.introduce(challenge));
+        //lines added from now on follow the ones about the clients, so a client that leaves meanwhile is not left behind at the peer
+        connected = true;
+        for (String line : cluster.linkUp(node)) {
+            write(out, line);
+        }
+        out.flush();
+
+        long lastWrite = System.currentTimeMillis();
+        while (!overflowed) {
+            if (queue.drainTo(batch, BATCH_SIZE) > 0) {
+                for (String line : batch) {
+                    write(out, line);
+                }
+                batch.clear();
+                if (queue.isEmpty()) {
+                    out.flush();
+                    lastWrite = System.currentTimeMillis();
+                }
+                continue;
+            }
+
+            if (System.currentTimeMillis() - lastWrite >= PING_INTERVAL_MS) {
+                write(out, "PING");
+                out.flush();
+                lastWrite = System.currentTimeMillis();
+            }
+            waiting = true;
+            //a line added just before the flag was set did not wake the link thread up
+            if (queue.isEmpty() && !overflowed) {
+                LockSupport.parkNanos(this, PING_INTERVAL_MS * 1000000L);
+            }
+            waiting = false;
+        }
+
+        Cluster.OVERFLOWS.increment();
+        throw new IOException("Cluster node " + node + " fell " + QUEUE_SIZE + " lines behind");
+    }
+
+    /***
+     * Writes a line to the connection
+     * @param out The buffered stream of the connection
+     * @param line The line, without the line feed
+     * @throws IOException if the connection fails
+     */
+    private static void write(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+}
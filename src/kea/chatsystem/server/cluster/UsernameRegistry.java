@@ -0,0 +1,73 @@
+package kea.chatsystem.server.cluster;
+
+import kea.chatsystem.shared.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * The share of the cluster-wide username registry owned by this node: which node each username is active on.
+ * Every username is owned by one node, chosen from a hash of the username, and only the owner decides whether it may be taken,
+ * so two clients can never get the same username on two nodes, even if they join at the same time.
+ * Safe to use from every thread at once.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+class UsernameRegistry {
+
+    //username, id of the node the client with the username is connected to
+    private ConcurrentHashMap<String, Integer> claims;
+
+    /***
+     * Constructor with no parameters
+     */
+    UsernameRegistry() {
+        claims = new ConcurrentHashMap<>();
+    }
+
+    /***
+     * Claims a username for a client on a node
+     * @param username The username
+     * @param node The id of the node the client is connected to
+     * @param reclaim true if the node already has the client and tells a new owner about it, false for a client that is joining
+     * @return true if the username is now held by the node, false if it is taken
+     */
+    boolean claim(String username, int node, boolean reclaim) {
+        Integer holder = claims.putIfAbsent(username, node);
+        if (holder == null || (reclaim && holder == node)) {
+            return true;
+        }
+
+        if (reclaim) {
+            //both nodes let the client join while the cluster was split, the first one keeps the username
+            Log.getInstance().error("Username '" + username + "' is active on both node " + holder + " and node " + node + ".");
+        }
+        return false;
+    }
+
+    /***
+     * Releases a username, unless it has since been claimed by another node
+     * @param username The username
+     * @param node The id of the node that held it
+     */
+    void release(String username, int node) {
+        claims.remove(username, node);
+    }
+
+    /***
+     * Releases every username held by a node, because the connection to it was lost
+     * @param node The id of the node
+     */
+    void releaseAll(int node) {
+        claims.values().removeIf(holder -> holder == node);
+    }
+
+    /***
+     * get method
+     * @return the number of usernames held in this share of the registry
+     */
+    int size() {
+        return claims.size();
+    }
+}
@@ -0,0 +1,337 @@
+package kea.chatsystem.server.journal;
+
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Histogram;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.shared.Log;
+import kea.chatsystem.shared.RingBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/***
+ * Singleton class that keeps a durable history of the chat messages in an append-only journal of memory-mapped segment files.
+ * The message list hands every message it accepts to append(), which only adds it to a lock-free ring buffer, so the workers
+ * never wait for the disk. The journal thread numbers the messages, writes them to the current segment, and writes the segment
+ * to the disk once per sync interval for every message written in it (group commit). A full segment is closed and a new one started,
+ * and the oldest segments are deleted once the segments take up more than the retention size or are older than the retention age.
+ * Does nothing until open() is called. If the ring buffer is full the message is left out of the journal instead of the worker waiting.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Journal {
+
+    private static volatile Journal journal;
+
+    //messages waiting to be written, and the most the journal thread takes before it writes them
+    private static final int BUFFER_SIZE = 65536;
+    private static final int BATCH_SIZE = 1024;
+    //how often old segments are looked for while no segment is rolled
+    private static final long RETENTION_INTERVAL_MS = 60000;
+
+    private static final Counter APPENDED = Metrics.getInstance().counter("journal.appended");
+    private static final Counter DROPPED = Metrics.getInstance().counter("journal.dropped");
+    private static final Counter SYNCS = Metrics.getInstance().counter("journal.syncs");
+    private static final Histogram SYNC_TIME = Metrics.getInstance().histogram("journal.sync.us");
+
+    private volatile boolean open;
+    private RingBuffer<String> pending;
+    private Thread writer;
+    //true while the journal thread has nothing to write and is about to sleep
+    private volatile boolean waiting;
+
+    private Path directory;
+    private int segmentSize;
+    private long retentionBytes;
+    private long retentionMillis;
+    private long syncNanos;
+
+    //oldest first, the last one is written to. Only changed by the journal thread.
+    private CopyOnWriteArrayList<JournalSegment> segments;
+    private volatile long lastSequence;
+    private long lastTime;
+    private boolean unsynced;
+    private long lastSync;
+    private long lastRetention;
+
+    /***
+     * Constructor with no parameters
+     */
+    private Journal() {
+        segments = new CopyOnWriteArrayList<>();
+        Metrics.getInstance().gauge("journal.segments", segments::size);
+    }
+
+    /***
+     * Singleton get method that returns the only static Journal object
+     * @return the static Journal object initiated
+     */
+    public static Journal getInstance() {
+        if (journal == null) {
+            synchronized (Journal.class) {
+                //double check null value to make sure
+                if (journal == null) {
+                    journal = new Journal();
+                }
+            }
+        }
+
+        return journal;
+    }
+
+    /***
+     * Opens the journal in a directory, carrying on from the segments already in it, and starts the journal thread.
+     * Must be called once, before any messages are added to the message list.
+     * @param directory The directory of the segment files, created if it does not exist
+     * @param segmentSize The size of each segment file in bytes
+     * @param retentionBytes The most bytes the segments may take up before the oldest are deleted
+     * @param retentionMillis How long a segment is kept after its last message was written, in milliseconds
+     * @param syncMillis The longest time a message stays in memory before it is written to the disk, in milliseconds
+     * @throws IOException if the directory or the segments in it could not be opened
+     */
+    public synchronized void open(Path directory, int segmentSize, long retentionBytes, long retentionMillis, long syncMillis) throws IOException {
+        if (open) {
+            throw new IllegalStateException("The journal is already open");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        syncNanos = syncMillis * 1000000L;
+
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(JournalSegment::isSegment).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            segments.add(JournalSegment.open(file));
+        }
+        if (segments.isEmpty()) {
+            segments.add(JournalSegment.create(directory, 1, segmentSize));
+        }
+        JournalSegment current = segments.get(segments.size() - 1);
+        lastSequence = current.getLastSequence();
+        lastTime = current.getLastTime();
+        Log.getInstance().info("Journal opened in '" + directory + "' with " + segments.size() + " segment(s), continuing after message " + lastSequence + ".");
+
+        pending = new RingBuffer<>(BUFFER_SIZE);
+        lastSync = System.nanoTime();
+        lastRetention = System.currentTimeMillis();
+        open = true;
+
+        writer = new Thread(this::run, "Journal");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "JournalFlush"));
+    }
+
+    /***
+     * Adds a message to the journal. Called by the message list for every message it accepts, from any thread.
+     * @param data The message as it is broadcast
+     */
+    public void append(String data) {
+        if (!open) {
+            return;
+        }
+        if (!pending.offer(data)) {
+            DROPPED.increment();
+            return;
+        }
+
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /***
+     * Method that gets executed by the journal thread. Writes messages as they arrive, and sleeps while there are none
+     * or until the next sync is due.
+     */
+    private void run() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            write(batch);
+            //everything written since the last sync goes to the disk together, at most once per sync interval
+            long sinceSync = System.nanoTime() - lastSync;
+            if (unsynced && sinceSync >= syncNanos) {
+                sync();
+                sinceSync = 0;
+            }
+            if (System.currentTimeMillis() - lastRetention >= RETENTION_INTERVAL_MS) {
+                deleteOldSegments();
+            }
+
+            waiting = true;
+            //a message added just before the flag was set did not wake the journal thread up
+            if (pending.isEmpty()) {
+                LockSupport.parkNanos(this, unsynced ? syncNanos - sinceSync : syncNanos);
+            }
+            waiting = false;
+        }
+    }
+
+    /***
+     * Writes up to a batch of waiting messages to the current segment
+     * @param batch An empty list to take the messages into, left empty
+     * @return the number of messages written
+     */
+    private synchronized int write(List<String> batch) {
+        int count = pending.drainTo(batch, BATCH_SIZE);
+        for (String data : batch) {
+            //the times never go backwards, so the segments can be searched by time
+            long time = Math.max(System.currentTimeMillis(), lastTime);
+            byte[] text = data.getBytes(StandardCharsets.UTF_8);
+            JournalSegment current = segments.get(segments.size() - 1);
+            try {
+                if (!current.append(lastSequence + 1, time, text)) {
+                    roll(current).append(lastSequence + 1, time, text);
+                }
+            } catch (IOException ioE) {
+                //the message is lost, the next one tries a new segment again
+                Log.getInstance().error("Could not start a new journal segment in '" + directory + "': " + ioE.getMessage());
+                DROPPED.increment();
+                continue;
+            }
+            lastTime = time;
+            lastSequence++;
+            unsynced = true;
+        }
+        batch.clear();
+        APPENDED.add(count);
+        return count;
+    }
+
+    /***
+     * Closes a full segment and starts a new one after it, then deletes the segments that are too old or too many
+     * @param full The segment that is full
+     * @return the new segment
+     * @throws IOException if the new segment could not be created
+     */
+    private JournalSegment roll(JournalSegment full) throws IOException {
+        full.force();
+        JournalSegment next = JournalSegment.create(directory, lastSequence + 1, segmentSize);
+        segments.add(next);
+        Log.getInstance().debug("Journal segment " + full.getBaseSequence() + " is full, started segment " + next.getBaseSequence() + ".");
+        deleteOldSegments();
+        return next;
+    }
+
+    /***
+     * Writes the current segment to the disk, along with every message written to it since the last time
+     */
+    private synchronized void sync() {
+        long start = System.nanoTime();
+        segments.get(segments.size() - 1).force();
+        lastSync = System.nanoTime();
+        unsynced = false;
+        SYNCS.increment();
+        SYNC_TIME.record((lastSync - start) / 1000);
+    }
+
+    /***
+     * Deletes the oldest segments while they take up more than the retention size, or their last message is older than the retention age.
+     * The current segment is never deleted.
+     */
+    private synchronized void deleteOldSegments() {
+        lastRetention = System.currentTimeMillis();
+        long total = 0;
+        for (JournalSegment segment : segments) {
+            total += segment.getCapacity();
+        }
+
+        while (segments.size() > 1) {
+            JournalSegment oldest = segments.get(0);
+            if (total <= retentionBytes && oldest.getLastTime() >= lastRetention - retentionMillis) {
+                break;
+            }
+            segments.remove(0);
+            total -= oldest.getCapacity();
+            try {
+                oldest.delete();
+                Log.getInstance().debug("Deleted journal segment " + oldest.getBaseSequence() + ".");
+            } catch (IOException ioE) {
+                Log.getInstance().error("Could not delete journal segment " + oldest.getBaseSequence() + ": " + ioE.getMessage());
+            }
+        }
+    }
+
+    /***
+     * Writes every waiting message, and writes the current segment to the disk. Called when the process exits.
+     */
+    public void flush() {
+        if (!open) {
+            return;
+        }
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        while (write(batch) > 0) {
+            //keep writing until the buffer is empty
+        }
+        sync();
+    }
+
+    /***
+     * Reads the messages from a sequence number onwards, oldest first. Safe to call from any thread while messages are written.
+     * @param fromSequence The sequence number of the first message to read
+     * @param max The highest number of messages to read
+     * @return the messages, empty if the journal is not open or none are left from the sequence number
+     */
+    public List<JournalEntry> read(long fromSequence, int max) {
+        List<JournalEntry> entries = new ArrayList<>();
+        //the segment holding the sequence number is the last one starting at or before it
+        List<JournalSegment> current = new ArrayList<>(segments);
+        int first = 0;
+        for (int i = 0; i < current.size(); i++) {
+            if (current.get(i).getBaseSequence() <= fromSequence) {
+                first = i;
+            }
+        }
+
+        for (int i = first; i < current.size() && entries.size() < max; i++) {
+            current.get(i).read(fromSequence, max - entries.size(), entries);
+        }
+        return entries;
+    }
+
+    /***
+     * Finds the first message written at or after a time, to read from with read()
+     * @param time The time in milliseconds since the epoch
+     * @return the sequence number of the message, or the sequence number the next message will get if none were written since the time
+     */
+    public long findSequence(long time) {
+        for (JournalSegment segment : segments) {
+            //segments are in time order, so the first one with a message at or after the time holds the first such message
+            long sequence = segment.findSequence(time);
+            if (sequence >= 0) {
+                return sequence;
+            }
+        }
+        return lastSequence + 1;
+    }
+
+    /***
+     * Method to determine if the journal is open
+     * @return true if messages are written to the journal
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /***
+     * get method
+     * @return the sequence number of the last message written, 0 if none have been written
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+}
@@ -0,0 +1,51 @@
+package kea.chatsystem.server.journal;
+
+/***
+ * A chat message read back from the journal, with the sequence number and time it was written with
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class JournalEntry {
+
+    private long sequence;
+    private long time;
+    private String data;
+
+    /***
+     * Constructor for an entry
+     * @param sequence The sequence number of the message, counting from 1 for the first message ever written
+     * @param time The time the message was written, in milliseconds since the epoch
+     * @param data The message on the form 'DATA username: text' or 'DATA #room username: text'
+     */
+    public JournalEntry(long sequence, long time, String data) {
+        this.sequence = sequence;
+        this.time = time;
+        this.data = data;
+    }
+
+    /***
+     * get method
+     * @return the sequence number of the message
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /***
+     * get method
+     * @return the time the message was written, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /***
+     * get method
+     * @return the message as it was broadcast
+     */
+    public String getData() {
+        return data;
+    }
+}
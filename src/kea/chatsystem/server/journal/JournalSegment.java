@@ -0,0 +1,359 @@
+package kea.chatsystem.server.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/***
+ * One fixed-size file of the journal, memory-mapped as a whole, so a message is written with a copy into the mapping instead of a system call.
+ * The file starts with a header holding the sequence number of its first message, followed by the records back to back:
+ * the length of the text, a CRC32 of the rest of the record, the sequence number, the time and the UTF-8 text. A length of 0 marks the end.
+ * A sparse index file next to it holds the sequence number, time and position of a record for every INDEX_INTERVAL bytes,
+ * so a message is found by a binary search of the index and a short scan of the records.
+ * Written by the journal thread alone, and read by any thread: a record is only visible once it has been written in full.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+class JournalSegment {
+
+    private static final int MAGIC = 0x4B45414A; //'KEAJ'
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    //length, crc, sequence and time
+    static final int RECORD_HEADER_SIZE = 24;
+    //bytes of records between two index entries
+    private static final int INDEX_INTERVAL = 4096;
+    //sequence, time and position
+    private static final int INDEX_ENTRY_SIZE = 20;
+
+    private Path logPath;
+    private Path indexPath;
+    private MappedByteBuffer log;
+    private MappedByteBuffer index;
+    private long baseSequence;
+    private CRC32 crc;
+
+    //the end of the records written so far, and the number of index entries written so far
+    private volatile int size;
+    private volatile int indexEntries;
+    private int lastIndexedPosition;
+    private long lastSequence;
+    private long lastTime;
+
+    /***
+     * Constructor that maps the files of a segment, creating them if they do not exist
+     * @param logPath The path of the file holding the records
+     * @param baseSequence The sequence number of the first record in the segment
+     * @param capacity The size of the file in bytes
+     * @throws IOException if the files could not be created or mapped
+     */
+    private JournalSegment(Path logPath, long baseSequence, int capacity) throws IOException {
+        this.logPath = logPath;
+        this.baseSequence = baseSequence;
+        indexPath = logPath.resolveSibling(name(baseSequence, ".idx"));
+        log = map(logPath, capacity);
+        index = map(indexPath, (capacity / INDEX_INTERVAL + 1) * INDEX_ENTRY_SIZE);
+        crc = new CRC32();
+        size = HEADER_SIZE;
+        lastIndexedPosition = -INDEX_INTERVAL;
+        lastSequence = baseSequence - 1;
+    }
+
+    /***
+     * Creates a new, empty segment
+     * @param directory The directory of the journal
+     * @param baseSequence The sequence number of the first record that will be written to it
+     * @param capacity The size of the file in bytes
+     * @return the segment
+     * @throws IOException if the files could not be created
+     */
+    static JournalSegment create(Path directory, long baseSequence, int capacity) throws IOException {
+        JournalSegment segment = new JournalSegment(directory.resolve(name(baseSequence, ".log")), baseSequence, capacity);
+        segment.log.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, baseSequence);
+        return segment;
+    }
+
+    /***
+     * Opens a segment written before, and finds the end of its records. A record that was only partly written when the server
+     * stopped fails its CRC, and is cut off together with everything after it.
+     * @param logPath The path of the file holding the records
+     * @return the segment
+     * @throws IOException if the files could not be mapped, or the file is not a journal segment
+     */
+    static JournalSegment open(Path logPath) throws IOException {
+        long fileSize = Files.size(logPath);
+        if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Not a journal segment: " + logPath);
+        }
+
+        long baseSequence;
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a journal segment: " + logPath);
+            }
+            baseSequence = header.getLong(8);
+        }
+
+        JournalSegment segment = new JournalSegment(logPath, baseSequence, (int)fileSize);
+        segment.recover();
+        return segment;
+    }
+
+    /***
+     * Finds the end of the index and of the records, starting the scan of the records at the last index entry
+     */
+    private void recover() {
+        int entries = 0;
+        while ((entries + 1) * INDEX_ENTRY_SIZE <= index.capacity() && index.getLong(entries * INDEX_ENTRY_SIZE) != 0) {
+            entries++;
+        }
+        int position = HEADER_SIZE;
+        while (entries > 0) {
+            int entry = (entries - 1) * INDEX_ENTRY_SIZE;
+            position = index.getInt(entry + 16);
+            if (isValid(position)) {
+                lastIndexedPosition = position;
+                break;
+            }
+            //the index reached the disk before the record it points to did
+            index.putLong(entry, 0);
+            position = HEADER_SIZE;
+            entries--;
+        }
+
+        while (isValid(position)) {
+            lastSequence = log.getLong(position + 8);
+            lastTime = log.getLong(position + 16);
+            position += RECORD_HEADER_SIZE + log.getInt(position);
+        }
+
+        //clear what is left of a record that was cut off, so it is not mistaken for the end of a later one
+        for (int i = position; i < Math.min(position + RECORD_HEADER_SIZE, log.capacity()); i++) {
+            log.put(i, (byte)0);
+        }
+        size = position;
+        indexEntries = entries;
+    }
+
+    /***
+     * Method to determine if a whole record was written at a position
+     * @param position The position of the record
+     * @return true if the record fits the file and its checksum matches
+     */
+    private boolean isValid(int position) {
+        if (position < HEADER_SIZE || position + RECORD_HEADER_SIZE > log.capacity()) {
+            return false;
+        }
+        int length = log.getInt(position);
+        return length > 0 && position + RECORD_HEADER_SIZE + length <= log.capacity()
+                && checksum(position, length) == log.getInt(position + 4);
+    }
+
+    /***
+     * Writes a record at the end of the segment
+     * @param sequence The sequence number of the message
+     * @param time The time the message is written, in milliseconds since the epoch
+     * @param text The message in UTF-8
+     * @return true if it was written, false if the segment is full
+     */
+    boolean append(long sequence, long time, byte[] text) {
+        int position = size;
+        int end = position + RECORD_HEADER_SIZE + text.length;
+        if (end > log.capacity()) {
+            return false;
+        }
+
+        log.putLong(position + 8, sequence).putLong(position + 16, time);
+        log.put(position + RECORD_HEADER_SIZE, text);
+        log.putInt(position + 4, checksum(position, text.length));
+        //the length goes last, so a reader never sees a record that is not complete
+        log.putInt(position, text.length);
+
+        if (position - lastIndexedPosition >= INDEX_INTERVAL) {
+            int entry = indexEntries * INDEX_ENTRY_SIZE;
+            index.putLong(entry, sequence).putLong(entry + 8, time).putInt(entry + 16, position);
+            lastIndexedPosition = position;
+            indexEntries++;
+        }
+        lastSequence = sequence;
+        lastTime = time;
+        size = end;
+        return true;
+    }
+
+    /***
+     * Calculates the CRC32 of the sequence number, time and text of a record
+     * @param position The position of the record
+     * @param length The length of the text
+     * @return the checksum
+     */
+    private int checksum(int position, int length) {
+        crc.reset();
+        crc.update(log.duplicate().limit(position + RECORD_HEADER_SIZE + length).position(position + 8));
+        return (int)crc.getValue();
+    }
+
+    /***
+     * Writes the mapped records and index to the disk
+     */
+    void force() {
+        log.force();
+        index.force();
+    }
+
+    /***
+     * Reads the records from a sequence number onwards
+     * @param fromSequence The sequence number of the first record to read
+     * @param max The highest number of records to read
+     * @param entries The list to add the records to
+     * @return the number of records read
+     */
+    int read(long fromSequence, int max, List<JournalEntry> entries) {
+        ByteBuffer records = log.duplicate();
+        int end = size;
+        int position = floor(false, fromSequence);
+        int count = 0;
+        while (position < end && count < max) {
+            int length = records.getInt(position);
+            long sequence = records.getLong(position + 8);
+            if (sequence >= fromSequence) {
+                byte[] text = new byte[length];
+                records.get(position + RECORD_HEADER_SIZE, text);
+                entries.add(new JournalEntry(sequence, records.getLong(position + 16), new String(text, StandardCharsets.UTF_8)));
+                count++;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return count;
+    }
+
+    /***
+     * Finds the first record written at or after a time
+     * @param time The time in milliseconds since the epoch
+     * @return the sequence number of the record, or -1 if every record in the segment was written before the time
+     */
+    long findSequence(long time) {
+        ByteBuffer records = log.duplicate();
+        int end = size;
+        int position = floor(true, time);
+        while (position < end) {
+            if (records.getLong(position + 16) >= time) {
+                return records.getLong(position + 8);
+            }
+            position += RECORD_HEADER_SIZE + records.getInt(position);
+        }
+        return -1;
+    }
+
+    /***
+     * Searches the index for the last entry before a sequence number or time
+     * @param byTime true to search by time, false by sequence number
+     * @param key The sequence number or time
+     * @return the position of the record to start scanning from
+     */
+    private int floor(boolean byTime, long key) {
+        ByteBuffer entries = index.duplicate();
+        int offset = byTime ? 8 : 0;
+        int low = 0;
+        int high = indexEntries - 1;
+        int position = HEADER_SIZE;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = middle * INDEX_ENTRY_SIZE;
+            //by time the scan must start before the key, since several records can have the same time
+            long value = entries.getLong(entry + offset);
+            if (byTime ? value < key : value <= key) {
+                position = entries.getInt(entry + 16);
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return position;
+    }
+
+    /***
+     * Deletes the files of the segment. The mapping stays valid until it is garbage collected, so a read in progress is not affected.
+     * @throws IOException if a file could not be deleted
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    /***
+     * get method
+     * @return the sequence number of the first record in the segment
+     */
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /***
+     * get method
+     * @return the sequence number of the last record in the segment, or one less than the base sequence if it is empty
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /***
+     * get method
+     * @return the time of the last record in the segment, or 0 if it is empty
+     */
+    long getLastTime() {
+        return lastTime;
+    }
+
+    /***
+     * get method
+     * @return the size of the file holding the records
+     */
+    int getCapacity() {
+        return log.capacity();
+    }
+
+    /***
+     * Method to determine if a segment file name is the file holding the records of a segment
+     * @param path The path of the file
+     * @return true if it is
+     */
+    static boolean isSegment(Path path) {
+        return path.getFileName().toString().endsWith(".log");
+    }
+
+    /***
+     * Builds the name of a segment file, which is the base sequence padded with zeros so the files sort in the order they were written
+     * @param baseSequence The sequence number of the first record
+     * @param extension '.log' or '.idx'
+     * @return the name of the file
+     */
+    private static String name(long baseSequence, String extension) {
+        return String.format("%020d%s", baseSequence, extension);
+    }
+
+    /***
+     * Maps a whole file for reading and writing, making it the given size if it is new
+     * @param path The path of the file
+     * @param size The size of the mapping
+     * @return the mapping
+     * @throws IOException if the file could not be opened or mapped
+     */
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
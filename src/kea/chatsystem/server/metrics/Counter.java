@@ -0,0 +1,46 @@
+package kea.chatsystem.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * A count that only goes up, such as the number of messages received. Backed by a LongAdder, which spreads the additions
+ * of different threads over separate cells, so threads counting at the same time do not compete for one variable.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Counter {
+
+    private LongAdder count;
+
+    /***
+     * Constructor for a counter starting at 0
+     */
+    public Counter() {
+        count = new LongAdder();
+    }
+
+    /***
+     * Adds one to the count
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /***
+     * Adds to the count
+     * @param value The number to add
+     */
+    public void add(long value) {
+        count.add(value);
+    }
+
+    /***
+     * get method
+     * @return the count. Only an estimate while other threads add to it.
+     */
+    public long get() {
+        return count.sum();
+    }
+}
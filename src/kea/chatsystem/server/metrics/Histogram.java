@@ -0,0 +1,137 @@
+package kea.chatsystem.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * Distribution of recorded values, such as how many microseconds a broadcast took, from which percentiles can be read.
+ * Works like an HDR histogram: every power of two is split into 16 buckets of equal width, so any value from 0 to Long.MAX_VALUE
+ * is counted in a fixed array of 960 buckets with a relative error of at most 1/16, and recording is a single atomic increment with no allocation.
+ * Values below 16 are counted exactly.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Histogram {
+
+    //number of bits below the highest one bit that pick the bucket within a power of two
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //one row of buckets for the values below SUB_BUCKETS, and one for every power of two above it up to 2^62
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private AtomicLongArray buckets;
+    private LongAdder count;
+    private LongAdder sum;
+    private AtomicLong max;
+
+    /***
+     * Constructor for an empty histogram
+     */
+    public Histogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new AtomicLong();
+    }
+
+    /***
+     * Records a value
+     * @param value The value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /***
+     * get method
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /***
+     * get method
+     * @return the average of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+        long values = count.sum();
+        return values == 0 ? 0 : sum.sum() / (double)values;
+    }
+
+    /***
+     * get method
+     * @return the highest value recorded, or 0 if there are none
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /***
+     * Finds the value that a given share of the recorded values are at or below
+     * @param percentile The share in percent, for example 99.9
+     * @return the highest value of the bucket the percentile falls in, never above the highest value recorded, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /***
+     * Finds the bucket of a value
+     * @param value The value, not negative
+     * @return the index of the bucket
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+
+        //the power of two decides the row, the bits just below the highest one bit decide the bucket in the row
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /***
+     * Finds the highest value counted in a bucket
+     * @param bucket The index of the bucket
+     * @return the highest value of the bucket
+     */
+    private static long highestValueOf(int bucket) {
+        int row = bucket / SUB_BUCKETS;
+        int subBucket = bucket % SUB_BUCKETS;
+        if (row == 0) {
+            return subBucket;
+        }
+
+        //the buckets of a row are 2^(row - 1) wide, the last one ends at Long.MAX_VALUE
+        return ((long)(SUB_BUCKETS + subBucket + 1) << (row - 1)) - 1;
+    }
+}
@@ -0,0 +1,108 @@
+package kea.chatsystem.server.metrics;
+
+import javax.management.*;
+import java.util.Map;
+import java.util.SortedMap;
+
+/***
+ * Exposes the metrics through JMX with one read-only attribute for every value, so new metrics show up without an interface
+ * to change. Counters and gauges are longs, histograms are split into count, mean, percentiles and max.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class JmxMetrics implements DynamicMBean {
+
+    private Metrics metrics;
+
+    /***
+     * Constructor
+     * @param metrics The registry to read the values from
+     */
+    public JmxMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /***
+     * Reads a single value
+     * @param attribute The name of the metric
+     * @return the value
+     * @throws AttributeNotFoundException if there is no metric with the name
+     */
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = metrics.values().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("Unknown metric '" + attribute + "'");
+        }
+        return value;
+    }
+
+    /***
+     * Reads several values, reading the metrics only once
+     * @param attributes The names of the metrics
+     * @return the values of the metrics that exist
+     */
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        SortedMap<String, Number> values = metrics.values();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    /***
+     * Metrics are read-only
+     * @param attribute The attribute to set
+     * @throws AttributeNotFoundException always
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric '" + attribute.getName() + "' is read-only");
+    }
+
+    /***
+     * Metrics are read-only
+     * @param attributes The attributes to set
+     * @return an empty list, since none are set
+     */
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /***
+     * There are no operations
+     * @param actionName The name of the operation
+     * @param params The parameters
+     * @param signature The parameter types
+     * @return never
+     * @throws ReflectionException always
+     */
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /***
+     * Describes the attributes, built every time since metrics are registered while the server runs
+     * @return an attribute for every metric value
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        SortedMap<String, Number> values = metrics.values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> value : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(), value.getKey(), true, false, false);
+        }
+
+        return new MBeanInfo(getClass().getName(), "Chat server metrics", attributes, null, null, null);
+    }
+}
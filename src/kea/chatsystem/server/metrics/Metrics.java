@@ -0,0 +1,144 @@
+package kea.chatsystem.server.metrics;
+
+import kea.chatsystem.shared.Log;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/***
+ * Singleton registry of the counters, gauges and histograms of the server, by name. Classes look up their metrics once
+ * and keep them in static fields, so counting on the hot path is a single LongAdder or atomic increment.
+ * The values can be read through JMX (kea.chatsystem.server:type=Metrics) and as plain text from the stats port.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Metrics {
+
+    private static volatile Metrics metrics;
+
+    //the percentiles every histogram reports
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    //sorted by name, so the stats always come out in the same order
+    private ConcurrentSkipListMap<String, Counter> counters;
+    private ConcurrentSkipListMap<String, LongSupplier> gauges;
+    private ConcurrentSkipListMap<String, Histogram> histograms;
+
+    /***
+     * Constructor with no parameters
+     */
+    private Metrics() {
+        counters = new ConcurrentSkipListMap<>();
+        gauges = new ConcurrentSkipListMap<>();
+        histograms = new ConcurrentSkipListMap<>();
+    }
+
+    /***
+     * Synchronized singleton get to avoid more than one instance
+     * @return The static metrics registry
+     */
+    public static Metrics getInstance() {
+        if (metrics == null) {
+            synchronized (Metrics.class) {
+                //double check null value to make sure
+                if (metrics == null) {
+                    metrics = new Metrics();
+                }
+            }
+        }
+
+        return metrics;
+    }
+
+    /***
+     * Gets a counter, creating it the first time it is asked for
+     * @param name The name of the counter, for example 'messages.received'
+     * @return the counter with the name
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /***
+     * Gets a histogram, creating it the first time it is asked for
+     * @param name The name of the histogram, ending with the unit of its values, for example 'broadcast.fanout.us'
+     * @return the histogram with the name
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /***
+     * Registers a value that is read when the metrics are, such as the number of messages waiting. Replaces any gauge with the same name.
+     * @param name The name of the gauge
+     * @param gauge Reads the current value. Called from the JMX and stats threads, so it must be thread-safe.
+     */
+    public void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /***
+     * Reads every metric. A histogram is given as its count, mean, percentiles and max, each as its own value.
+     * @return the values by name, in name order
+     */
+    public SortedMap<String, Number> values() {
+        SortedMap<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().get());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", histogram.getMean());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                values.put(name + "." + PERCENTILE_NAMES[i], histogram.getPercentile(PERCENTILES[i]));
+            }
+            values.put(name + ".max", histogram.getMax());
+        }
+
+        return values;
+    }
+
+    /***
+     * Describes every metric as plain text
+     * @return a line on the form 'name value' for every value, in name order
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Number> value : values().entrySet()) {
+            report.append(value.getKey()).append(' ');
+            if (value.getValue() instanceof Double) {
+                report.append(String.format("%.2f", value.getValue().doubleValue()));
+            } else {
+                report.append(value.getValue());
+            }
+            report.append('\n');
+        }
+
+        return report.toString();
+    }
+
+    /***
+     * Makes the metrics readable through JMX, for example from JConsole or a JMX exporter
+     */
+    public void registerJmx() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxMetrics(this), new ObjectName("kea.chatsystem.server:type=Metrics"));
+        } catch (JMException jmE) {
+            Log.getInstance().error("Could not register metrics with JMX: " + jmE.getMessage());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package kea.chatsystem.server.metrics;
+
+import kea.chatsystem.shared.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/***
+ * Answers every connection to the stats port with the current metrics as plain text, one 'name value' per line, and closes it.
+ * Read it with for example 'nc localhost 1240', or from a script that graphs the values.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class StatsServer implements Runnable {
+
+    private int port;
+
+    /***
+     * Constructor
+     * @param port The tcp port to answer on
+     */
+    public StatsServer(int port) {
+        this.port = port;
+    }
+
+    /***
+     * Method that gets executed upon Thread.start() call
+     */
+    public void run() {
+
+        Thread.currentThread().setName("Stats");
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            Log.getInstance().info("Serving metrics on port " + port + "..");
+            while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                    OutputStream output = socket.getOutputStream();
+                    output.write(Metrics.getInstance().report().getBytes(StandardCharsets.UTF_8));
+                    output.flush();
+                } catch (IOException ioE) {
+                    Log.getInstance().error("Could not send metrics: " + ioE.getMessage());
+                }
+            }
+        } catch (IOException ioE) {
+            Log.getInstance().error("Could not open stats port " + port + ": " + ioE.getMessage());
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package kea.chatsystem.server.util;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /***
  * Holds the connection information of a given client connected
@@ -11,20 +14,71 @@ import java.net.InetAddress;
  */
 public class ClientInfo {
 
+    private String username;
+    //id of the username in the binary protocol
+    private int userId;
+    //true if the client speaks the binary v2 protocol, and gets its broadcasts as binary frames
+    private boolean binary;
     private InetAddress ipAddress;
     private int port;
-    private long lastHeartbeat;
+    private InetSocketAddress socketAddress;
+    //written by the worker of the client and read by the watcher, so it must be volatile
+    private volatile long lastHeartbeat;
+    private volatile boolean active;
+    //true once the client has joined the multicast group and no longer needs its own datagrams
+    private volatile boolean multicast;
+    //broadcasts waiting to be written over the tcp connection, null while the client gets them as datagrams
+    private volatile OutboundQueue outbound;
+    //sender shard the client is assigned to
+    private volatile int shard;
+    //bucket of the heartbeat wheel the client is in, guarded by the lock on this object
+    private int wheelSlot = -1;
+    //names of the rooms the client is a member of, kept by the RoomList
+    private Set<String> rooms;
 
     /***
      * Constructor of client info
+     * @param username The username of the client
      * @param ipAddress The remote ip address of the client
      * @param port The port number of the client
      * @param lastHeartbeat The last heartbeat timestamp
+     * @param userId The id of the username in the binary protocol
+     * @param binary true if the client speaks the binary v2 protocol
      */
-    public ClientInfo(InetAddress ipAddress, int port, long lastHeartbeat) {
+    public ClientInfo(String username, InetAddress ipAddress, int port, long lastHeartbeat, int userId, boolean binary) {
+        this.username = username;
+        this.userId = userId;
+        this.binary = binary;
         this.ipAddress = ipAddress;
         this.port = port;
         this.lastHeartbeat = lastHeartbeat;
+        socketAddress = new InetSocketAddress(ipAddress, port);
+        active = true;
+        rooms = ConcurrentHashMap.newKeySet();
+    }
+
+    /***
+     * get method
+     * @return the username of the client
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /***
+     * get method
+     * @return the id of the username in the binary protocol
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /***
+     * Method to determine if the client speaks the binary v2 protocol
+     * @return true if the client gets binary frames, false if it gets text lines
+     */
+    public boolean isBinary() {
+        return binary;
     }
 
     /***
@@ -41,6 +95,7 @@ public class ClientInfo {
      */
     public void setIpAddress(InetAddress ipAddress) {
         this.ipAddress = ipAddress;
+        socketAddress = new InetSocketAddress(ipAddress, port);
     }
 
     /***
@@ -57,6 +112,15 @@ public class ClientInfo {
      */
     public void setPort(int port) {
         this.port = port;
+        socketAddress = new InetSocketAddress(ipAddress, port);
+    }
+
+    /***
+     * get method
+     * @return the ip address and port of the client, created once so sending datagrams does not allocate one every time
+     */
+    public InetSocketAddress getSocketAddress() {
+        return socketAddress;
     }
 
     /***
@@ -74,4 +138,101 @@ public class ClientInfo {
     public void setLastHeartbeat(long lastHeartbeat) {
         this.lastHeartbeat = lastHeartbeat;
     }
+
+    /***
+     * Method to determine if the client is still in the active client list
+     * @return true until the client is removed from the active client list
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /***
+     * set method
+     * @param active false when the client has been removed from the active client list
+     */
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    /***
+     * Method to determine if the client receives broadcasts through the multicast group
+     * @return true if the client listens on the multicast group, false if it must get its own datagrams
+     */
+    public boolean isMulticast() {
+        return multicast;
+    }
+
+    /***
+     * set method
+     * @param multicast true when the client listens on the multicast group
+     */
+    void setMulticast(boolean multicast) {
+        this.multicast = multicast;
+    }
+
+    /***
+     * get method
+     * @return the queue of broadcasts written to the client over its tcp connection, or null if the client gets datagrams
+     */
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    /***
+     * set method
+     * @param outbound the queue to write broadcasts to the client with, or null to send the client datagrams
+     */
+    public void setOutbound(OutboundQueue outbound) {
+        this.outbound = outbound;
+    }
+
+    /***
+     * get method
+     * @return the number of the sender shard that sends broadcasts to the client
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /***
+     * Method to determine if the client is a member of a room
+     * @param room The name of the room, without '#'
+     * @return true if the client has joined the room and not parted it
+     */
+    public boolean isInRoom(String room) {
+        return rooms.contains(room);
+    }
+
+    /***
+     * get method
+     * @return the names of the rooms the client is a member of. Changed by the RoomList only.
+     */
+    Set<String> getRooms() {
+        return rooms;
+    }
+
+    /***
+     * set method
+     * @param shard the number of the sender shard the client has been assigned to
+     */
+    void setShard(int shard) {
+        this.shard = shard;
+    }
+
+    /***
+     * get method
+     * @return the bucket of the heartbeat wheel the client is in, or -1 if it is not in the wheel
+     */
+    int getWheelSlot() {
+        return wheelSlot;
+    }
+
+    /***
+     * set method
+     * @param wheelSlot the bucket of the heartbeat wheel the client has been put in
+     */
+    void setWheelSlot(int wheelSlot) {
+        this.wheelSlot = wheelSlot;
+    }
 }
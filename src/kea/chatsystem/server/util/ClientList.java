@@ -1,10 +1,25 @@
 package kea.chatsystem.server.util;
 
+import kea.chatsystem.server.cluster.Cluster;
+import kea.chatsystem.server.metrics.Counter;
+import kea.chatsystem.server.metrics.Metrics;
+
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /***
- * Singleton class to hold active clients in a collection
+ * Singleton class to hold active clients in a collection. Safe to use from every worker thread at once:
+ * heartbeats never lock, and clients are added and removed concurrently through the ConcurrentHashMap.
+ * Every join and leave is recorded in the PresenceLog while the map holds the username, so the changes of one username are logged
+ * in the order they happened. Snapshots are built from the log, by applying the changes after the last snapshot to a copy of the clients,
+ * so building one does not hold up a client that joins or leaves. The thread that makes a change applies the changes waiting in the log
+ * if no other thread is applying or building, so the log stays short even when no one asks for a snapshot for a while.
+ * Only when a snapshot takes so long to build that MAX_UNAPPLIED changes are waiting, the threads making changes wait for it.
  *
  * @author Andreas Dan Petersen
  * @version 1.0
@@ -12,16 +27,87 @@ import java.util.*;
  */
 public class ClientList {
 
-    private static ClientList clientList;
+    private static volatile ClientList clientList;
+
+    //tick of the heartbeat wheel, which is also the precision clients are expired with
+    private static final long WHEEL_TICK_MS = 1000;
+    //usernames that left and still keep their id, so the LEFT and the last DATA of a user can be encoded after it is gone
+    private static final int MAX_DEPARTED_IDS = 65536;
+    //changes the presence log may hold that are not applied yet before the threads making changes wait for a snapshot being built
+    private static final int MAX_UNAPPLIED = 4096;
+
+    private static final Counter JOINED = Metrics.getInstance().counter("clients.joined");
+    private static final Counter DUPLICATES = Metrics.getInstance().counter("clients.duplicate");
+    private static final Counter LEFT = Metrics.getInstance().counter("clients.left");
+    private static final Counter EXPIRED = Metrics.getInstance().counter("clients.expired");
 
     //username, client info
-    private Map<String, ClientInfo> clients;
+    private ConcurrentHashMap<String, ClientInfo> clients;
+
+    //username, id of the cluster node the client is connected to, for the clients of the other nodes in a cluster
+    private ConcurrentHashMap<String, Integer> remoteUsers;
+
+    //cached view of the clients, with the last change of the presence log it includes. A newer one is built when the log has changes after it.
+    private volatile BuiltSnapshot snapshot;
+    //the clients and the usernames of the clients of the other nodes as of the last change applied, guarded by snapshotLock.
+    //Only the threads building a snapshot wait for each other, the threads adding and removing clients only apply if the lock is free.
+    private ReentrantLock snapshotLock;
+    private Map<String, ClientInfo> builtClients;
+    private Set<String> builtRemoteUsers;
+
+    //heartbeat deadlines of the clients
+    private volatile HeartbeatWheel heartbeatWheel;
+
+    //number of clients assigned to each sender shard
+    private volatile AtomicIntegerArray shardLoads;
+
+    //username, id in the binary protocol, for the active users and the last MAX_DEPARTED_IDS users that left.
+    //A username that joins again before it is forgotten keeps its id.
+    private ConcurrentHashMap<String, Integer> userIds;
+    private AtomicInteger nextUserId;
+    private Queue<String> departed;
+    private AtomicInteger departedCount;
 
     /***
      * Constructor with no parameters
      */
     private ClientList() {
-        clients = new HashMap<>();
+        clients = new ConcurrentHashMap<>();
+        remoteUsers = new ConcurrentHashMap<>();
+        snapshotLock = new ReentrantLock();
+        builtClients = new HashMap<>();
+        builtRemoteUsers = new HashSet<>();
+        //65000 ms is 5 seconds after the last heartbeat should have been received (after a minute) (tolerance is then 5 seconds)
+        heartbeatWheel = new HeartbeatWheel(65000, WHEEL_TICK_MS, System.currentTimeMillis());
+        shardLoads = new AtomicIntegerArray(1);
+        userIds = new ConcurrentHashMap<>();
+        nextUserId = new AtomicInteger();
+        departed = new ConcurrentLinkedQueue<>();
+        departedCount = new AtomicInteger();
+        Metrics.getInstance().gauge("clients.active", clients::size);
+        Metrics.getInstance().gauge("clients.remote", remoteUsers::size);
+
+        PresenceLog.Change last = PresenceLog.getInstance().takeChanges(this::apply);
+        snapshot = new BuiltSnapshot(new ClientSnapshot(builtClients.values(), builtRemoteUsers, last.getVersion(), 1), last);
+    }
+
+    /***
+     * A snapshot, and the last change of the presence log it includes
+     */
+    private static class BuiltSnapshot {
+
+        private ClientSnapshot snapshot;
+        private PresenceLog.Change change;
+
+        /***
+         * Constructor for a built snapshot
+         * @param snapshot The snapshot
+         * @param change The last change it includes
+         */
+        private BuiltSnapshot(ClientSnapshot snapshot, PresenceLog.Change change) {
+            this.snapshot = snapshot;
+            this.change = change;
+        }
     }
 
     /***
@@ -41,42 +127,159 @@ public class ClientList {
         return clientList;
     }
 
+    /***
+     * Sets how long a client may go without a heartbeat before it is removed. Clients already in the list get the new timeout
+     * from their last heartbeat.
+     * @param timeoutMillis The timeout in milliseconds
+     */
+    public void setHeartbeatTimeout(long timeoutMillis) {
+        long now = System.currentTimeMillis();
+        HeartbeatWheel wheel = new HeartbeatWheel(timeoutMillis, WHEEL_TICK_MS, now);
+        heartbeatWheel = wheel;
+
+        for (ClientInfo clientInfo : clients.values()) {
+            //the slot belongs to the old wheel
+            synchronized (clientInfo) {
+                clientInfo.setWheelSlot(-1);
+            }
+            wheel.schedule(clientInfo, clientInfo.getLastHeartbeat());
+        }
+    }
+
+    /***
+     * Sets the number of sender shards the clients are spread over. Clients already in the list are spread over the new shards.
+     * Called when the server starts, before clients join.
+     * @param shardCount The number of sender shards
+     */
+    public void setShardCount(int shardCount) {
+        shardLoads = new AtomicIntegerArray(shardCount);
+        for (ClientInfo clientInfo : clients.values()) {
+            assignShard(clientInfo);
+        }
+        PresenceLog.getInstance().clientsChanged();
+    }
+
+    /***
+     * get method
+     * @return the number of sender shards the clients are spread over
+     */
+    public int getShardCount() {
+        return shardLoads.length();
+    }
+
     /***
      * Update the last heartbeat timestamp for a client
      * @param username The username of the client
      * @return true if the client exists and the value was updated, false if not
      */
     public boolean updateHeartbeat(String username) {
-        if (clients.containsKey(username)) {
-            //get client from map
-            ClientInfo clientInfo = clients.get(username);
-            //update heartbeat
-            clientInfo.setLastHeartbeat(System.currentTimeMillis());
-            //replace the new client with old one in the map
-            clients.replace(username, clientInfo);
-            return true;
-        } else {
+        ClientInfo clientInfo = clients.get(username);
+        if (clientInfo == null) {
             return false;
         }
+
+        //a single volatile write, so concurrent heartbeats are never lost
+        long now = System.currentTimeMillis();
+        clientInfo.setLastHeartbeat(now);
+        //move the deadline of the client in the wheel
+        heartbeatWheel.schedule(clientInfo, now);
+        return true;
     }
 
     /***
-     * Synchronized method to add a client to the collection. Synchronized, to prevent two clients added with the same username at the same time
+     * Adds a client to the collection if the username is not taken. Two clients can never be added with the same username,
+     * even if they join at the same time.
      * @param username The username of the client
      * @param ipAddress The ip address of the client
      * @param port The port number of the client
-     * @return true if the client was successfully added, false if not
+     * @param binary true if the client speaks the binary v2 protocol
+     * @return the info of the added client, or null if the username was already taken
      */
-    public synchronized boolean addClient(String username, InetAddress ipAddress, int port) {
-        //check if its a unique username
-        boolean uniqueUsername = !clients.containsKey(username);
+    public ClientInfo addClient(String username, InetAddress ipAddress, int port, boolean binary) {
+        //a taken username gets no id, so joins that are refused never grow the ids
+        if (clients.containsKey(username)) {
+            DUPLICATES.increment();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        int userId = assignUserId(username);
+        ClientInfo clientInfo = new ClientInfo(username, ipAddress, port, now, userId, binary);
 
-        //if username found to be unique, add it
-        if (uniqueUsername) {
-            clients.put(username, new ClientInfo(ipAddress, port, System.currentTimeMillis()));
+        //runs while the map holds the username, so a leave of the same username cannot be logged in between
+        ClientInfo added = clients.computeIfAbsent(username, name -> {
+            //the id may have been forgotten while the client was added
+            userIds.putIfAbsent(name, userId);
+            heartbeatWheel.schedule(clientInfo, now);
+            assignShard(clientInfo);
+            PresenceLog.getInstance().joined(name, clientInfo);
+            return clientInfo;
+        });
+        if (added != clientInfo) {
+            //another client got the username at the same moment, and the id belongs to it
+            DUPLICATES.increment();
+            return null;
         }
+        JOINED.increment();
+        catchUp();
 
-        return uniqueUsername;
+        Cluster.getInstance().joined(username);
+        return clientInfo;
+    }
+
+    /***
+     * Gets the id of a username in the binary protocol, the one it had the last time it was active if it is not active now
+     * @param username The username
+     * @return the id, or 0 if the username is not active and has been forgotten or never was
+     */
+    public int getUserId(String username) {
+        Integer userId = userIds.get(username);
+        if (userId != null) {
+            return userId;
+        }
+        ClientInfo clientInfo = clients.get(username);
+        return clientInfo == null ? 0 : clientInfo.getUserId();
+    }
+
+    /***
+     * Gives a username that is about to be added the id it already has, or the next free id
+     * @param username The username
+     * @return the id
+     */
+    private int assignUserId(String username) {
+        return userIds.computeIfAbsent(username, name -> nextUserId.incrementAndGet());
+    }
+
+    /***
+     * Remembers that a username left, and forgets the ids of the usernames that left longest ago and are not active again
+     * @param username The username that left
+     */
+    private void departed(String username) {
+        departed.add(username);
+        if (departedCount.incrementAndGet() <= MAX_DEPARTED_IDS) {
+            return;
+        }
+
+        //every username that leaves past the limit makes the one that left longest ago forget its id
+        departedCount.decrementAndGet();
+        String oldest = departed.poll();
+        Integer userId = oldest == null ? null : userIds.get(oldest);
+        if (userId == null || isKnown(oldest)) {
+            return;
+        }
+        userIds.remove(oldest, userId);
+        //the username may have joined again while it was forgotten, then it keeps its id
+        if (isKnown(oldest)) {
+            userIds.putIfAbsent(oldest, userId);
+        }
+    }
+
+    /***
+     * Method to determine if a username is active on this node or on another node of the cluster
+     * @param username The username
+     * @return true if a client has the username
+     */
+    private boolean isKnown(String username) {
+        return clients.containsKey(username) || remoteUsers.containsKey(username);
     }
 
     /***
@@ -84,7 +287,121 @@ public class ClientList {
      * @param username Username of the client to remove
      */
     public void remove(String username) {
-        clients.remove(username);
+        ClientInfo clientInfo = clients.get(username);
+        if (clientInfo != null) {
+            remove(clientInfo);
+        }
+    }
+
+    /***
+     * Removes a client from the collection, unless the username has since been taken by another client, and parts it from its rooms
+     * @param clientInfo The info of the client to remove
+     * @return true if the client was removed, false if it was not in the collection
+     */
+    public boolean remove(ClientInfo clientInfo) {
+        //set by the mapping function, which runs while the map holds the username
+        boolean[] removed = new boolean[1];
+        clients.computeIfPresent(clientInfo.getUsername(), (name, current) -> {
+            if (current != clientInfo) {
+                return current;
+            }
+            removed[0] = true;
+            clientInfo.setActive(false);
+            PresenceLog.getInstance().left(name, clientInfo);
+            return null;
+        });
+        if (!removed[0]) {
+            return false;
+        }
+        heartbeatWheel.cancel(clientInfo);
+        shardLoads.decrementAndGet(clientInfo.getShard());
+        LEFT.increment();
+        catchUp();
+
+        departed(clientInfo.getUsername());
+        //the client is inactive now, so it cannot join another room while it parts the ones it is in
+        RoomList.getInstance().partAll(clientInfo);
+        Cluster.getInstance().left(clientInfo.getUsername());
+        return true;
+    }
+
+    /***
+     * Adds a client of another cluster node to the list of active users, unless a client of this node has the username
+     * @param username The username of the client
+     * @param node The id of the node the client is connected to
+     */
+    public void addRemoteUser(String username, int node) {
+        if (clients.containsKey(username) || remoteUsers.containsKey(username)) {
+            return;
+        }
+        int userId = assignUserId(username);
+        remoteUsers.computeIfAbsent(username, name -> {
+            userIds.putIfAbsent(name, userId);
+            PresenceLog.getInstance().joined(name, null);
+            return node;
+        });
+        catchUp();
+    }
+
+    /***
+     * Removes a client of another cluster node from the list of active users, unless the username has since moved to another node
+     * @param username The username of the client
+     * @param node The id of the node the client was connected to
+     */
+    public void removeRemoteUser(String username, int node) {
+        //set by the mapping function, which runs while the map holds the username
+        boolean[] removed = new boolean[1];
+        remoteUsers.computeIfPresent(username, (name, current) -> {
+            if (current != node) {
+                return current;
+            }
+            removed[0] = true;
+            PresenceLog.getInstance().left(name, null);
+            return null;
+        });
+        if (removed[0]) {
+            departed(username);
+            catchUp();
+        }
+    }
+
+    /***
+     * Removes every client of another cluster node from the list of active users, because the connection to the node was lost
+     * @param node The id of the node
+     * @return the number of clients removed
+     */
+    public int removeRemoteUsers(int node) {
+        int counter = 0;
+        for (Map.Entry<String, Integer> entry : remoteUsers.entrySet()) {
+            if (entry.getValue() == node) {
+                removeRemoteUser(entry.getKey(), node);
+                counter++;
+            }
+        }
+        return counter;
+    }
+
+    /***
+     * Looks up the cluster node a client of another node is connected to
+     * @param username The username of the client
+     * @return the id of the node, or -1 if no other node has a client with the username
+     */
+    public int getRemoteNode(String username) {
+        Integer node = remoteUsers.get(username);
+        return node == null ? -1 : node;
+    }
+
+    /***
+     * Sets whether a client receives broadcasts through the multicast group or gets its own datagrams
+     * @param clientInfo The info of the client
+     * @param multicast true if the client listens on the multicast group
+     */
+    public void setMulticast(ClientInfo clientInfo, boolean multicast) {
+        if (clientInfo.isMulticast() != multicast) {
+            clientInfo.setMulticast(multicast);
+            //the snapshot holds the clients that need their own datagrams
+            PresenceLog.getInstance().clientsChanged();
+        }
     }
 
     /***
@@ -97,42 +414,138 @@ public class ClientList {
         return clients.containsKey(username);
     }
 
+    /***
+     * Looks up an active client by username, without building a snapshot, so it takes the same time however many clients are active
+     * @param username Username of a given client
+     * @return the client, or null if no active client has the username
+     */
+    public ClientInfo getClient(String username) {
+        return clients.get(username);
+    }
+
     /***
      * get method
-     * @return a set collection containing the usernames currently in the active client list
+     * @return a read-only set containing the usernames in the active client list at one point in time, the clients of the other cluster nodes included
      */
     public Set<String> getUsernameList() {
-        return clients.keySet();
+        return getSnapshot().getUsernames();
     }
 
     /***
      * get method
-     * @return a list of ClientInfo objects that are currently in the active client list
+     * @return a read-only list of ClientInfo objects in the active client list at one point in time, only the clients of this node
      */
     public List<ClientInfo> getClientInfoList() {
-        return new ArrayList<>(clients.values());
+        return getSnapshot().getClients();
     }
 
     /***
-     * Method to automatically remove clients that are no longe active
+     * Method to automatically remove clients that are no longe active. Only the clients whose deadline has passed are looked at.
+     * Must only be called from one thread at a time.
      * @return A number representing how many clients were removed
      */
     public int removeInactiveClients() {
         //create counter
         int counter = 0;
 
-        //synchronize the removal
-        synchronized (ClientList.class) {
-            for (Map.Entry<String, ClientInfo> entry : clients.entrySet()) {
-                //65000 ms is 5 seconds after the last heartbeat should have been received (after a minute) (tolerance is then 5 seconds)
-                if (System.currentTimeMillis() - entry.getValue().getLastHeartbeat() > 65000) {
-                    clients.remove(entry.getKey());
-                    counter++;
-                }
+        for (ClientInfo clientInfo : heartbeatWheel.expire(System.currentTimeMillis())) {
+            if (remove(clientInfo)) {
+                counter++;
             }
         }
 
         //return number of clients removed
+        EXPIRED.add(counter);
         return counter;
     }
+
+    /***
+     * Returns the cached snapshot, or builds a new one if clients were added or removed since the last one. A new snapshot holds the clients
+     * exactly as of the last change in the presence log it includes, so it matches its presence version.
+     * @return the active clients at one point in time
+     */
+    public ClientSnapshot getSnapshot() {
+        BuiltSnapshot current = snapshot;
+        if (current.change == PresenceLog.getInstance().getLast()) {
+            return current.snapshot;
+        }
+
+        snapshotLock.lock();
+        try {
+            current = snapshot;
+            if (current.change == PresenceLog.getInstance().getLast()) {
+                //another thread built it meanwhile
+                return current.snapshot;
+            }
+            PresenceLog.Change last = PresenceLog.getInstance().takeChanges(this::apply);
+            current = new BuiltSnapshot(new ClientSnapshot(builtClients.values(), builtRemoteUsers, last.getVersion(), shardLoads.length()), last);
+            snapshot = current;
+        } finally {
+            snapshotLock.unlock();
+        }
+
+        return current.snapshot;
+    }
+
+    /***
+     * Applies the changes waiting in the presence log, unless another thread is applying them or building a snapshot and few changes are waiting.
+     * The log keeps every change until it is applied, so without this the changes would pile up between two snapshots.
+     */
+    private void catchUp() {
+        if (PresenceLog.getInstance().getUnapplied() > MAX_UNAPPLIED) {
+            //the threads making changes are faster than the snapshots are built, so slow them down
+            snapshotLock.lock();
+        } else if (!snapshotLock.tryLock()) {
+            return;
+        }
+        try {
+            PresenceLog.getInstance().takeChanges(this::apply);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /***
+     * Applies a change of the presence log to the clients the snapshots are built from. Called while holding snapshotLock.
+     * @param change The change
+     */
+    private void apply(PresenceLog.Change change) {
+        ClientInfo clientInfo = change.getClientInfo();
+        switch (change.getKind()) {
+            case JOINED:
+                if (clientInfo != null) {
+                    builtClients.put(change.getUsername(), clientInfo);
+                } else {
+                    builtRemoteUsers.add(change.getUsername());
+                }
+                break;
+            case LEFT:
+                if (clientInfo != null) {
+                    builtClients.remove(change.getUsername(), clientInfo);
+                } else {
+                    builtRemoteUsers.remove(change.getUsername());
+                }
+                break;
+            default:
+                //rooms have snapshots of their own, and the other changes are read from the clients when the snapshot is built
+                break;
+        }
+    }
+
+    /***
+     * Assigns a client to the sender shard with the fewest clients, so every shard sends to about the same number of clients
+     * @param clientInfo The client to assign
+     */
+    private void assignShard(ClientInfo clientInfo) {
+        AtomicIntegerArray loads = shardLoads;
+        int shard = 0;
+        for (int i = 1; i < loads.length(); i++) {
+            if (loads.get(i) < loads.get(shard)) {
+                shard = i;
+            }
+        }
+
+        loads.incrementAndGet(shard);
+        clientInfo.setShard(shard);
+    }
 }
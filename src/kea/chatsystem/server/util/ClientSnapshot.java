@@ -0,0 +1,225 @@
+package kea.chatsystem.server.util;
+
+import kea.chatsystem.shared.BinaryProtocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/***
+ * Read-only view of the active clients at one point in time, together with the presence version it matches
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class ClientSnapshot {
+
+    private List<ClientInfo> clients;
+    //the clients of the other nodes in a cluster, which are listed but never sent to
+    private List<String> remoteUsernames;
+    private Set<String> usernames;
+    private long presenceVersion;
+    //'#name' of the room the snapshot is of, null for every active client of the server
+    private String room;
+    //the clients of each sender shard, and the ones of them that do not listen on the multicast group
+    private List<ClientInfo>[] shardClients;
+    private List<ClientInfo>[] unicastShardClients;
+    private boolean multicastClients;
+    private boolean binaryClients;
+    //built the first time they are asked for, then reused by every client asking for the same snapshot
+    private volatile String listMessage;
+    private volatile byte[] listFrame;
+
+    /***
+     * Constructor that copies the given clients
+     * @param values The clients to copy
+     * @param presenceVersion The version of the last presence change included in the copy
+     * @param shardCount The number of sender shards the clients are spread over
+     */
+    public ClientSnapshot(Collection<ClientInfo> values, long presenceVersion, int shardCount) {
+        this(values, Collections.emptyList(), presenceVersion, shardCount, null);
+    }
+
+    /***
+     * Constructor that copies the given clients, and the usernames of the clients of the other cluster nodes
+     * @param values The clients to copy
+     * @param remoteValues The usernames of the clients of the other nodes to copy
+     * @param presenceVersion The version of the last presence change included in the copy
+     * @param shardCount The number of sender shards the clients are spread over
+     */
+    public ClientSnapshot(Collection<ClientInfo> values, Collection<String> remoteValues, long presenceVersion, int shardCount) {
+        this(values, remoteValues, presenceVersion, shardCount, null);
+    }
+
+    /***
+     * Constructor that copies the given members of a room
+     * @param values The clients to copy
+     * @param presenceVersion The version of the last change to the members included in the copy
+     * @param shardCount The number of sender shards the clients are spread over
+     * @param room The name of the room without '#', or null if the clients are every active client of the server
+     */
+    public ClientSnapshot(Collection<ClientInfo> values, long presenceVersion, int shardCount, String room) {
+        this(values, Collections.emptyList(), presenceVersion, shardCount, room);
+    }
+
+    /***
+     * Constructor that copies the given clients and usernames
+     * @param values The clients to copy
+     * @param remoteValues The usernames of the clients of the other cluster nodes to copy
+     * @param presenceVersion The version of the last change included in the copy
+     * @param shardCount The number of sender shards the clients are spread over
+     * @param room The name of the room without '#', or null if the clients are every active client of the server
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ClientSnapshot(Collection<ClientInfo> values, Collection<String> remoteValues, long presenceVersion, int shardCount, String room) {
+        List<ClientInfo> clientCopy = new ArrayList<>(values);
+        List<String> remoteCopy = new ArrayList<>(remoteValues);
+        Set<String> usernameCopy = new HashSet<>(remoteCopy);
+        shardClients = new List[shardCount];
+        unicastShardClients = new List[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shardClients[i] = new ArrayList<>();
+            unicastShardClients[i] = new ArrayList<>();
+        }
+
+        for (ClientInfo clientInfo : clientCopy) {
+            usernameCopy.add(clientInfo.getUsername());
+            binaryClients |= clientInfo.isBinary();
+            int shard = clientInfo.getShard();
+            shardClients[shard].add(clientInfo);
+            if (clientInfo.isMulticast()) {
+                multicastClients = true;
+            } else {
+                unicastShardClients[shard].add(clientInfo);
+            }
+        }
+
+        clients = Collections.unmodifiableList(clientCopy);
+        remoteUsernames = remoteCopy;
+        usernames = Collections.unmodifiableSet(usernameCopy);
+        this.presenceVersion = presenceVersion;
+        this.room = room == null ? null : "#" + room;
+    }
+
+    /***
+     * get method
+     * @return a read-only list of the clients in the snapshot, without the clients of the other cluster nodes
+     */
+    public List<ClientInfo> getClients() {
+        return clients;
+    }
+
+    /***
+     * get method
+     * @param shard The number of the sender shard
+     * @param multicast true to leave out the clients that listen on the multicast group
+     * @return a list of the clients of the shard that must get their own datagrams. Must not be changed.
+     */
+    public List<ClientInfo> getRecipients(int shard, boolean multicast) {
+        return multicast ? unicastShardClients[shard] : shardClients[shard];
+    }
+
+    /***
+     * get method
+     * @return the number of sender shards the clients are spread over
+     */
+    public int getShardCount() {
+        return shardClients.length;
+    }
+
+    /***
+     * Method to determine if any client in the snapshot listens on the multicast group
+     * @return true if at least one client gets broadcasts through the multicast group
+     */
+    public boolean hasMulticastClients() {
+        return multicastClients;
+    }
+
+    /***
+     * Method to determine if any client in the snapshot speaks the binary v2 protocol
+     * @return true if at least one client gets broadcasts as binary frames
+     */
+    public boolean hasBinaryClients() {
+        return binaryClients;
+    }
+
+    /***
+     * get method
+     * @return a read-only set of the usernames in the snapshot, the clients of the other cluster nodes included
+     */
+    public Set<String> getUsernames() {
+        return usernames;
+    }
+
+    /***
+     * get method
+     * @return the version of the last presence change included in the snapshot
+     */
+    public long getPresenceVersion() {
+        return presenceVersion;
+    }
+
+    /***
+     * get method
+     * @return the snapshot as a LIST message on the form 'LIST @version name1 name2 ...', or 'LIST #room @version name1 name2 ...' for a room
+     */
+    public String getListMessage() {
+        String message = listMessage;
+        if (message == null) {
+            StringBuilder builder = new StringBuilder("LIST ");
+            if (room != null) {
+                builder.append(room).append(' ');
+            }
+            builder.append('@').append(presenceVersion);
+            for (String username : usernames) {
+                builder.append(' ').append(username);
+            }
+            message = builder.toString();
+            listMessage = message;
+        }
+
+        return message;
+    }
+
+    /***
+     * get method
+     * @return the snapshot as a binary LIST frame with the version, the number of users, and the id and username of every user
+     */
+    public byte[] getListFrame() {
+        byte[] frame = listFrame;
+        if (frame == null) {
+            //the clients of this node first, then the clients of the other cluster nodes
+            int count = clients.size() + remoteUsernames.size();
+            byte[][] names = new byte[count][];
+            int[] userIds = new int[count];
+            int payloadLength = BinaryProtocol.varintSize(presenceVersion) + BinaryProtocol.varintSize(count);
+            for (int i = 0; i < count; i++) {
+                if (i < clients.size()) {
+                    names[i] = clients.get(i).getUsername().getBytes(StandardCharsets.UTF_8);
+                    userIds[i] = clients.get(i).getUserId();
+                } else {
+                    String username = remoteUsernames.get(i - clients.size());
+                    names[i] = username.getBytes(StandardCharsets.UTF_8);
+                    userIds[i] = ClientList.getInstance().getUserId(username);
+                }
+                payloadLength += BinaryProtocol.varintSize(userIds[i]) + BinaryProtocol.varintSize(names[i].length) + names[i].length;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BinaryProtocol.varintSize(payloadLength + 1) + 1 + payloadLength);
+            BinaryProtocol.putVarint(buffer, payloadLength + 1);
+            buffer.put((byte)BinaryProtocol.LIST);
+            BinaryProtocol.putVarint(buffer, presenceVersion);
+            BinaryProtocol.putVarint(buffer, count);
+            for (int i = 0; i < count; i++) {
+                BinaryProtocol.putVarint(buffer, userIds[i]);
+                BinaryProtocol.putVarint(buffer, names[i].length);
+                buffer.put(names[i]);
+            }
+            frame = buffer.array();
+            listFrame = frame;
+        }
+
+        return frame;
+    }
+}
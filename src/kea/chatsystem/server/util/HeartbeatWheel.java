@@ -0,0 +1,120 @@
+package kea.chatsystem.server.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Hashed timing wheel that keeps track of when clients must send their next heartbeat. Every client sits in the bucket
+ * of the tick its deadline falls in, so a heartbeat moves a client between two buckets in O(1),
+ * and expiry only looks at the buckets whose ticks have passed since it last ran.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class HeartbeatWheel {
+
+    private long timeoutMillis;
+    private long tickMillis;
+    private Set<ClientInfo>[] buckets;
+    private long lastTick;
+
+    /***
+     * Constructor for a timing wheel
+     * @param timeoutMillis How long a client may go without a heartbeat before it expires
+     * @param tickMillis The precision of the wheel. Clients expire at most this long after their deadline.
+     * @param now The current time in milliseconds
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HeartbeatWheel(long timeoutMillis, long tickMillis, long now) {
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+
+        //enough buckets that a deadline never wraps around past the tick currently being expired
+        buckets = new Set[(int)(timeoutMillis / tickMillis) + 2];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+        lastTick = now / tickMillis;
+    }
+
+    /***
+     * Puts a client in the bucket of its deadline, moving it out of the bucket of its previous deadline
+     * @param clientInfo The client to schedule
+     * @param lastHeartbeat The time of the last heartbeat of the client in milliseconds
+     */
+    public void schedule(ClientInfo clientInfo, long lastHeartbeat) {
+        //round up, so the bucket is never expired before the deadline has passed
+        int slot = (int)(((lastHeartbeat + timeoutMillis) / tickMillis + 1) % buckets.length);
+
+        synchronized (clientInfo) {
+            int oldSlot = clientInfo.getWheelSlot();
+            if (oldSlot == slot) {
+                return;
+            }
+            if (oldSlot >= 0) {
+                buckets[oldSlot].remove(clientInfo);
+            }
+            clientInfo.setWheelSlot(slot);
+            buckets[slot].add(clientInfo);
+        }
+    }
+
+    /***
+     * Takes a client out of the wheel
+     * @param clientInfo The client to take out
+     */
+    public void cancel(ClientInfo clientInfo) {
+        synchronized (clientInfo) {
+            int oldSlot = clientInfo.getWheelSlot();
+            if (oldSlot >= 0) {
+                buckets[oldSlot].remove(clientInfo);
+                clientInfo.setWheelSlot(-1);
+            }
+        }
+    }
+
+    /***
+     * Takes every client whose deadline has passed out of the wheel. Must only be called from one thread at a time.
+     * @param now The current time in milliseconds
+     * @return the clients that expired
+     */
+    public List<ClientInfo> expire(long now) {
+        List<ClientInfo> expired = new ArrayList<>();
+        long tick = now / tickMillis;
+
+        //if expiry has not run for a whole turn of the wheel, every bucket is due once
+        long firstTick = Math.max(lastTick + 1, tick - buckets.length + 1);
+        for (long t = firstTick; t <= tick; t++) {
+            Iterator<ClientInfo> iterator = buckets[(int)(t % buckets.length)].iterator();
+            while (iterator.hasNext()) {
+                ClientInfo clientInfo = iterator.next();
+                synchronized (clientInfo) {
+                    long lastHeartbeat = clientInfo.getLastHeartbeat();
+                    if (now - lastHeartbeat > timeoutMillis) {
+                        iterator.remove();
+                        clientInfo.setWheelSlot(-1);
+                        expired.add(clientInfo);
+                    } else {
+                        //a heartbeat arrived while the bucket was being expired
+                        schedule(clientInfo, lastHeartbeat);
+                    }
+                }
+            }
+        }
+        lastTick = Math.max(lastTick, tick);
+
+        return expired;
+    }
+
+    /***
+     * get method
+     * @return how long a client may go without a heartbeat before it expires, in milliseconds
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+}
@@ -0,0 +1,240 @@
+package kea.chatsystem.server.util;
+
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.shared.BinaryProtocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/***
+ * Singleton class that keeps the most recent chat messages to everyone, so a client that just joined can be shown what was said before it.
+ * The watcher adds every batch of messages before it broadcasts them, and messages are evicted once there are more than
+ * the configured number, they take up more than the configured bytes, or they are older than the configured age.
+ * The replay sent to a new client is built once and shared by every client that joins until the next message arrives,
+ * so a join costs a single write. The lock is only held while a batch is added or a replay is built, never while a replay is written.
+ * Room messages are not kept, since they must only reach the members of the room.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class MessageHistory {
+
+    private static volatile MessageHistory messageHistory;
+
+    //the messages, oldest first, and the bytes their lines take up. Guarded by the lock on this object.
+    private ArrayDeque<Entry> entries;
+    private long bytes;
+    private int maxMessages = 100;
+    private long maxBytes = 65536;
+    private long maxAgeMillis = 60 * 60000L;
+
+    //the replay of the messages kept right now, null once a message has been added or evicted
+    private volatile Replay replay;
+
+    /***
+     * Constructor with no parameters
+     */
+    private MessageHistory() {
+        entries = new ArrayDeque<>();
+        Metrics.getInstance().gauge("history.messages", this::size);
+    }
+
+    /***
+     * Singleton get method that returns the only static MessageHistory object
+     * @return the static MessageHistory object initiated
+     */
+    public static MessageHistory getInstance() {
+        if (messageHistory == null) {
+            synchronized (MessageHistory.class) {
+                //double check null value to make sure
+                if (messageHistory == null) {
+                    messageHistory = new MessageHistory();
+                }
+            }
+        }
+
+        return messageHistory;
+    }
+
+    /***
+     * Sets how many messages are kept. The messages kept already are evicted if they are beyond the new limits.
+     * @param maxMessages The most messages kept, 0 to keep none
+     * @param maxBytes The most bytes the messages may take up as text lines
+     * @param maxAgeMillis How long a message is kept, in milliseconds
+     */
+    public synchronized void configure(int maxMessages, long maxBytes, long maxAgeMillis) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        evict(System.currentTimeMillis());
+        replay = null;
+    }
+
+    /***
+     * Adds the chat messages to everyone in a batch. Messages on any other form, such as presence changes, are skipped.
+     * @param messages The messages as they are broadcast, oldest first
+     */
+    public void add(List<String> messages) {
+        add(messages, System.currentTimeMillis());
+    }
+
+    /***
+     * Adds the chat messages to everyone in a batch, sent at a given time. Used to fill the history from the journal when the server starts.
+     * @param messages The messages as they are broadcast, oldest first
+     * @param time The time the messages were sent, in milliseconds since the epoch
+     */
+    public synchronized void add(List<String> messages, long time) {
+        if (maxMessages == 0) {
+            return;
+        }
+        boolean added = false;
+        for (String message : messages) {
+            //'DATA username: text' becomes 'HIST username: text', room messages start with 'DATA #' and are left out
+            if (message.startsWith("DATA ") && !message.startsWith("DATA #")) {
+                byte[] line = ("HIST" + message.substring(4) + "\n").getBytes(Charset.defaultCharset());
+                entries.add(new Entry(message, line, time));
+                bytes += line.length;
+                added = true;
+            }
+        }
+
+        if (added) {
+            evict(System.currentTimeMillis());
+            replay = null;
+        }
+    }
+
+    /***
+     * Gets the replay of the messages kept right now, building it if messages were added or evicted since the last one
+     * @return the replay, which has no messages if none are kept
+     */
+    public Replay getReplay() {
+        Replay current = replay;
+        long now = System.currentTimeMillis();
+        if (current != null && current.oldestTime >= now - maxAgeMillis) {
+            return current;
+        }
+
+        synchronized (this) {
+            evict(now);
+            current = replay;
+            if (current == null) {
+                current = new Replay(entries);
+                replay = current;
+            }
+            return current;
+        }
+    }
+
+    /***
+     * get method
+     * @return the number of messages kept
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /***
+     * Evicts the oldest messages while there are too many, they take up too many bytes, or they are too old. Must hold the lock.
+     * @param now The current time in milliseconds since the epoch
+     */
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = entries.peekFirst()) != null
+                && (entries.size() > maxMessages || bytes > maxBytes || oldest.time < now - maxAgeMillis)) {
+            entries.pollFirst();
+            bytes -= oldest.line.length;
+            replay = null;
+        }
+    }
+
+    /***
+     * A message kept in the history
+     */
+    private static class Entry {
+
+        private String message;
+        private byte[] line;
+        private long time;
+
+        /***
+         * Constructor for an entry
+         * @param message The message on the form 'DATA username: text'
+         * @param line The message encoded as a 'HIST username: text' line, line feed included
+         * @param time The time the message was sent, in milliseconds since the epoch
+         */
+        private Entry(String message, byte[] line, long time) {
+            this.message = message;
+            this.line = line;
+            this.time = time;
+        }
+    }
+
+    /***
+     * The messages kept at one point in time, encoded once as text lines and once as binary frames, ready to be written to a client as they are
+     */
+    public static class Replay {
+
+        private int count;
+        private long oldestTime = Long.MAX_VALUE;
+        private byte[] text;
+        private byte[] binary;
+
+        /***
+         * Constructor that encodes the messages
+         * @param entries The messages, oldest first
+         */
+        private Replay(ArrayDeque<Entry> entries) {
+            ByteArrayOutputStream textStream = new ByteArrayOutputStream();
+            ByteArrayOutputStream binaryStream = new ByteArrayOutputStream();
+            ByteBuffer payload = ByteBuffer.allocate(1100);
+            for (Entry entry : entries) {
+                textStream.writeBytes(entry.line);
+
+                //a HIST frame holds the username instead of the user id, since the sender may have left before the client joined
+                int separator = entry.message.indexOf(": ", 5);
+                byte[] name = entry.message.substring(5, separator).getBytes(StandardCharsets.UTF_8);
+                payload.clear();
+                BinaryProtocol.putVarint(payload, name.length);
+                payload.put(name).put(entry.message.substring(separator + 2).getBytes(StandardCharsets.UTF_8)).flip();
+                byte[] frame = new byte[payload.remaining()];
+                payload.get(frame);
+                binaryStream.writeBytes(BinaryProtocol.frame(BinaryProtocol.HIST, frame));
+
+                oldestTime = Math.min(oldestTime, entry.time);
+                count++;
+            }
+            text = textStream.toByteArray();
+            binary = binaryStream.toByteArray();
+        }
+
+        /***
+         * get method
+         * @return the number of messages in the replay
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /***
+         * get method
+         * @return the messages as 'HIST username: text' lines, each ending with a line feed. Shared, so it must not be changed.
+         */
+        public byte[] getText() {
+            return text;
+        }
+
+        /***
+         * get method
+         * @return the messages as binary HIST frames. Shared, so it must not be changed.
+         */
+        public byte[] getBinary() {
+            return binary;
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package kea.chatsystem.server.util;
 
-import java.util.ArrayList;
+import kea.chatsystem.server.journal.Journal;
+import kea.chatsystem.server.metrics.Metrics;
+import kea.chatsystem.shared.RingBuffer;
+
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /***
- * Singleton class to hold chat messages
+ * Singleton class to hold chat messages. Backed by a bounded ring buffer: any number of workers add messages
+ * while the watcher takes them, and a burst of messages can never use more than the configured number of slots.
+ * Every message it accepts is also handed to the Journal, if one is open.
  *
  * @author Andreas Dan Petersen
  * @version 1.0
@@ -12,15 +19,28 @@ import java.util.List;
  */
 public class MessageList {
 
-    private static MessageList messageList;
+    private static volatile MessageList messageList;
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    //how long a blocked worker waits before it checks for a free slot again
+    private static final long BLOCK_PARK_NANOS = 100000;
+
+    private volatile RingBuffer<String> messages;
+    private volatile OverflowPolicy overflowPolicy;
+    private AtomicLong dropped;
 
-    private List<String> messages;
+    //the watcher thread while it waits for a message, null while it is busy
+    private volatile Thread waitingConsumer;
 
     /***
      * Constructor with no parameters
      */
     private MessageList() {
-        messages = new ArrayList<>();
+        messages = new RingBuffer<>(DEFAULT_CAPACITY);
+        overflowPolicy = OverflowPolicy.REJECT;
+        dropped = new AtomicLong();
+        Metrics.getInstance().gauge("messages.queued", this::size);
+        Metrics.getInstance().gauge("messages.dropped", this::getDroppedCount);
     }
 
     /***
@@ -40,20 +60,67 @@ public class MessageList {
         return messageList;
     }
 
+    /***
+     * Sets the size of the list and what happens when it is full. Must be called before any messages are added,
+     * as the messages in the list are discarded.
+     * @param capacity The highest number of messages waiting to be broadcast. Rounded up to the nearest power of two.
+     * @param overflowPolicy What to do with a new message when the list is full
+     */
+    public void configure(int capacity, OverflowPolicy overflowPolicy) {
+        messages = new RingBuffer<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+    }
+
     /***
      * Adds a message to message list
      * @param username Username of the message author
      * @param message The message in plain text
-     * @return true if the message was added, false if not
+     * @return true if the message was added, false if it was too long or the list is full and the overflow policy is reject
      */
     public boolean addMessage(String username, String message) {
         //make sure no message above 250 chars is added
         if (message.length() > 250) {
             return false;
-        } else {
-            messages.add("DATA " + username + ": " + message);
-            return true;
         }
+
+        return addData("DATA " + username + ": " + message);
+    }
+
+    /***
+     * Adds a chat message that is already on the form 'DATA username: text' to message list
+     * @param data The message as it is broadcast
+     * @return true if the message was added, false if the list is full and the overflow policy is reject
+     */
+    public boolean addData(String data) {
+        RingBuffer<String> buffer = messages;
+        while (!buffer.offer(data)) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    //make room by throwing away the message that has waited the longest
+                    if (buffer.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case BLOCK:
+                    //wait for the watcher to make room
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    break;
+                default:
+                    dropped.incrementAndGet();
+                    return false;
+            }
+        }
+
+        //the journal keeps every accepted message, on its own thread
+        Journal.getInstance().append(data);
+
+        //wake up the watcher if it is waiting in takeMessages()
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+
+        return true;
     }
 
     /***
@@ -61,12 +128,69 @@ public class MessageList {
      * @return A string representing the next chat message. Null is returned if no message exists.
      */
     public String getNextMessage() {
-        if (messages.size() > 0) {
-            String message = messages.get(0); //broadcast the first message to enter the queue
-            messages.remove(0); //remove the message
+        return messages.poll();
+    }
+
+    /***
+     * Takes the messages in the collection in one go, waiting for at least one to be added if the collection is empty.
+     * Must only be called from one thread at a time.
+     * @param batch The list to add the messages to
+     * @param max The highest number of messages to take
+     * @return the number of messages taken
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public int takeMessages(List<String> batch, int max) throws InterruptedException {
+        String message;
+        while ((message = awaitMessage()) == null) {
+            //spurious wake up, wait again
+        }
+
+        batch.add(message);
+        return 1 + messages.drainTo(batch, max - 1);
+    }
+
+    /***
+     * get method
+     * @return the number of messages waiting to be broadcast
+     */
+    public int size() {
+        return messages.size();
+    }
+
+    /***
+     * get method
+     * @return the number of messages that were dropped or rejected because the list was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /***
+     * Takes the next message, parking the thread once if there is none
+     * @return the next message, or null if the thread woke up without a message being added
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private String awaitMessage() throws InterruptedException {
+        String message = messages.poll();
+        if (message != null) {
             return message;
-        } else {
-            return null;
         }
+
+        //announce that we are waiting before checking again, so a message added in between always unparks us
+        waitingConsumer = Thread.currentThread();
+        try {
+            message = messages.poll();
+            if (message == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                message = messages.poll();
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+
+        return message;
     }
 }
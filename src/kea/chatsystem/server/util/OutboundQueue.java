@@ -0,0 +1,114 @@
+package kea.chatsystem.server.util;
+
+import kea.chatsystem.shared.RingBuffer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Broadcasts waiting to be written to a single client over its tcp connection. The sender shards add encoded frames,
+ * and the connection writes everything that has piled up in one go. The connection is only woken up when frames arrive
+ * while it has nothing to write, so a burst of broadcasts costs one wake up and one write.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class OutboundQueue {
+
+    private RingBuffer<byte[]> frames;
+    //true from the moment the connection has been woken up until it has written everything
+    private AtomicBoolean scheduled;
+    private volatile boolean closed;
+    private AtomicLong dropped;
+
+    private Runnable wakeUp;
+    private Runnable disconnect;
+
+    /***
+     * Constructor for an outbound queue
+     * @param capacity The highest number of frames waiting to be written. Rounded up to the nearest power of two.
+     * @param wakeUp Makes the connection write the waiting frames. Called from the sender shard threads.
+     * @param disconnect Closes the connection. Called from the sender shard threads.
+     */
+    public OutboundQueue(int capacity, Runnable wakeUp, Runnable disconnect) {
+        frames = new RingBuffer<>(capacity);
+        scheduled = new AtomicBoolean();
+        dropped = new AtomicLong();
+        this.wakeUp = wakeUp;
+        this.disconnect = disconnect;
+    }
+
+    /***
+     * Adds a frame to the queue, and wakes up the connection if it has nothing else to write
+     * @param frame One or more encoded lines, each ending with a line feed, or binary frames. Shared with other connections, so it must not be changed.
+     * @return true if the frame was added, false if the queue is full or closed
+     */
+    public boolean offer(byte[] frame) {
+        if (closed || !frames.offer(frame)) {
+            return false;
+        }
+
+        if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+            wakeUp.run();
+        }
+        return true;
+    }
+
+    /***
+     * Takes the next frame to write. Must only be called by the connection.
+     * @return the next frame, or null if there is none
+     */
+    public byte[] poll() {
+        return frames.poll();
+    }
+
+    /***
+     * Tells the queue that the connection has written every frame and waits for a wake up. Must only be called by the connection.
+     * @return true if frames were added in the meantime, in which case the connection must keep writing instead of waiting
+     */
+    public boolean idle() {
+        scheduled.set(false);
+        //a frame added just before the flag was cleared did not wake anyone up
+        return !frames.isEmpty() && scheduled.compareAndSet(false, true);
+    }
+
+    /***
+     * Counts a frame that was thrown away because the queue was full
+     */
+    public void drop() {
+        dropped.incrementAndGet();
+    }
+
+    /***
+     * Closes the connection, because the client does not read its broadcasts
+     */
+    public void disconnect() {
+        close();
+        disconnect.run();
+    }
+
+    /***
+     * Stops the queue, so no more frames are added and the connection stops writing
+     */
+    public void close() {
+        closed = true;
+        wakeUp.run();
+    }
+
+    /***
+     * Method to determine if the queue is closed
+     * @return true once the queue has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /***
+     * get method
+     * @return the number of frames thrown away because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,50 @@
+package kea.chatsystem.server.util;
+
+/***
+ * What the MessageList does with a new chat message when it is full. Selected at startup with the --queue-overflow argument.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public enum OverflowPolicy {
+
+    DROP_OLDEST("drop-oldest"),
+    REJECT("reject"),
+    BLOCK("block");
+
+    private String name;
+
+    /***
+     * Constructor of an overflow policy
+     * @param name The name used to select the policy on the command line
+     */
+    OverflowPolicy(String name) {
+        this.name = name;
+    }
+
+    /***
+     * Finds the overflow policy matching a name given on the command line
+     * @param name The name of the policy
+     * @return the matching overflow policy
+     * @throws IllegalArgumentException if no policy has the given name
+     */
+    public static OverflowPolicy fromName(String name) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.name.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown overflow policy '" + name + "'");
+    }
+
+    /***
+     * toString method
+     * @return the name used to select the policy on the command line
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,284 @@
+package kea.chatsystem.server.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/***
+ * Singleton class that numbers every change to the list of active users. Each change becomes a JOIN or LEFT message
+ * carrying the new presence version, so clients can apply the changes one by one and ask for a full LIST
+ * only when they notice that they missed a version. The changes to the members of the rooms are sent through it as well.
+ * The changes are kept in a lock-free linked log: a change gets its version when it is linked after the last one, so the order of the log
+ * is the order of the versions, and the threads that add changes only compete on a compare-and-set, never on a lock.
+ * The client list applies the changes to the clients it builds its snapshots from, reading the log from where it stopped the last time.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class PresenceLog {
+
+    private static volatile PresenceLog presenceLog;
+
+    /***
+     * What a change in the log is about
+     */
+    enum Kind {
+        //a user joined or left, which moves the presence version on
+        JOINED,
+        LEFT,
+        //a change to the members of a room, numbered by the room
+        ROOM,
+        //a change to the clients that is not sent to anyone, like a client that started listening on the multicast group
+        CLIENTS
+    }
+
+    /***
+     * A change in the log, linked to the change after it
+     */
+    static class Change {
+
+        private Kind kind;
+        private String username;
+        //the client of this node that joined or left, null for a client of another cluster node
+        private ClientInfo clientInfo;
+        //the message clients are sent about the change, null if they are not told
+        private String message;
+        //the presence version after the change, and the position of the change in the log, set before the change is linked
+        private long version;
+        private long sequence;
+        private AtomicReference<Change> next;
+
+        /***
+         * Constructor for a change
+         * @param kind What the change is about
+         * @param username The username of the user, null if the change is not about one
+         * @param clientInfo The client of this node, or null
+         * @param message The message of a room change, or null to make it from the version
+         */
+        private Change(Kind kind, String username, ClientInfo clientInfo, String message) {
+            this.kind = kind;
+            this.username = username;
+            this.clientInfo = clientInfo;
+            this.message = message;
+            next = new AtomicReference<>();
+        }
+
+        /***
+         * get method
+         * @return what the change is about
+         */
+        Kind getKind() {
+            return kind;
+        }
+
+        /***
+         * get method
+         * @return the username of the user that joined or left
+         */
+        String getUsername() {
+            return username;
+        }
+
+        /***
+         * get method
+         * @return the client of this node that joined or left, or null for a client of another cluster node
+         */
+        ClientInfo getClientInfo() {
+            return clientInfo;
+        }
+
+        /***
+         * get method
+         * @return the presence version after the change
+         */
+        long getVersion() {
+            return version;
+        }
+
+
+    }
+
+    //the last change, or the one just before it while a change is being linked
+    private AtomicReference<Change> tail;
+    //the oldest change still linked to the next, the last change sent to clients, and the last change handed to the client list, guarded by this.
+    //The last change handed to the client list is read without the lock as well, to tell how far behind the client list is.
+    private Change head;
+    private Change drained;
+    private volatile Change applied;
+
+    /***
+     * Constructor with no parameters
+     */
+    private PresenceLog() {
+        Change first = new Change(Kind.CLIENTS, null, null, null);
+        tail = new AtomicReference<>(first);
+        head = first;
+        drained = first;
+        applied = first;
+    }
+
+    /***
+     * Synchronized singleton get to avoid more than one instance
+     * @return The static presence log
+     */
+    public static PresenceLog getInstance() {
+        if (presenceLog == null) {
+            synchronized (PresenceLog.class) {
+                //double check null value to make sure
+                if (presenceLog == null) {
+                    presenceLog = new PresenceLog();
+                }
+            }
+        }
+
+        return presenceLog;
+    }
+
+    /***
+     * Records that a user has joined
+     * @param username The username of the user
+     * @param clientInfo The client if it is connected to this node, null if it is a client of another cluster node
+     * @return the new presence version
+     */
+    public long joined(String username, ClientInfo clientInfo) {
+        return append(new Change(Kind.JOINED, username, clientInfo, null)).version;
+    }
+
+    /***
+     * Records that a user has left
+     * @param username The username of the user
+     * @param clientInfo The client if it was connected to this node, null if it was a client of another cluster node
+     * @return the new presence version
+     */
+    public long left(String username, ClientInfo clientInfo) {
+        return append(new Change(Kind.LEFT, username, clientInfo, null)).version;
+    }
+
+    /***
+     * Records a change to the members of a room, 'JOIN #room @version username' or 'PART #room @version username'.
+     * The room numbers its own changes, so the version of the server is left alone.
+     * @param change The change message
+     */
+    public void roomChanged(String change) {
+        append(new Change(Kind.ROOM, null, null, change));
+    }
+
+    /***
+     * Records a change to the clients that clients are not told about, but that the next snapshot of the client list must include
+     */
+    public void clientsChanged() {
+        append(new Change(Kind.CLIENTS, null, null, null));
+    }
+
+    /***
+     * Links a change after the last one. A thread that finds the tail behind moves it on first, so no thread waits for another.
+     * @param change The change
+     * @return the change, with its version set
+     */
+    private Change append(Change change) {
+        while (true) {
+            Change last = tail.get();
+            Change next = last.next.get();
+            if (next != null) {
+                //another change was linked, but the tail is not moved on yet
+                tail.compareAndSet(last, next);
+                continue;
+            }
+
+            //the message is made here, by the thread that makes the change, and not by the thread that sends it
+            if (change.kind == Kind.JOINED) {
+                change.version = last.version + 1;
+                change.message = "JOIN @" + change.version + " " + change.username;
+            } else if (change.kind == Kind.LEFT) {
+                change.version = last.version + 1;
+                change.message = "LEFT @" + change.version + " " + change.username;
+            } else {
+                change.version = last.version;
+            }
+            change.sequence = last.sequence + 1;
+            if (last.next.compareAndSet(null, change)) {
+                tail.compareAndSet(last, change);
+                return change;
+            }
+        }
+    }
+
+    /***
+     * get method
+     * @return the last change linked so far
+     */
+    Change getLast() {
+        Change last = tail.get();
+        Change next;
+        while ((next = last.next.get()) != null) {
+            last = next;
+        }
+        return last;
+    }
+
+    /***
+     * get method
+     * @return the version of the latest change
+     */
+    public long getVersion() {
+        return getLast().version;
+    }
+
+    /***
+     * get method
+     * @return the number of changes linked after the last one handed to the client list
+     */
+    long getUnapplied() {
+        return getLast().sequence - applied.sequence;
+    }
+
+    /***
+     * Moves the changes not yet sent to clients to a list, oldest first
+     * @param changes The list to add the JOIN and LEFT messages to
+     * @return the number of changes moved
+     */
+    public synchronized int drainTo(List<String> changes) {
+        int count = 0;
+        Change next;
+        while ((next = drained.next.get()) != null) {
+            drained = next;
+            if (next.message != null) {
+                changes.add(next.message);
+                count++;
+            }
+        }
+        release();
+        return count;
+    }
+
+    /***
+     * Hands the changes after the ones handed over last time to the client list, which applies them to the clients it builds its snapshots from.
+     * The changes linked meanwhile are left for the next time, so a steady stream of changes cannot keep it from returning.
+     * @param consumer Applies a change
+     * @return the last change handed over
+     */
+    synchronized Change takeChanges(Consumer<Change> consumer) {
+        Change last = getLast();
+        while (applied != last) {
+            applied = applied.next.get();
+            consumer.accept(applied);
+        }
+        release();
+        return last;
+    }
+
+    /***
+     * Unlinks the changes both readers are done with. A change that lived long enough to be moved to the old generation would otherwise
+     * keep the changes after it alive through its link, even once nothing else refers to them. The change before the readers is kept,
+     * since the tail may still point to it.
+     */
+    private void release() {
+        long keep = Math.min(drained.sequence, applied.sequence) - 1;
+        while (head.sequence < keep) {
+            Change next = head.next.get();
+            head.next.set(null);
+            head = next;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package kea.chatsystem.server.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * A chat room and its members. Numbers every change to its members like the PresenceLog does for the server,
+ * so the members can apply the JOIN and PART changes of the room one by one.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class Room {
+
+    private String name;
+    //username, client info. Guarded by the lock on this object.
+    private Map<String, ClientInfo> members;
+    private long version;
+    //cached view of the members, thrown away whenever a member joins or parts
+    private volatile ClientSnapshot snapshot;
+
+    /***
+     * Constructor for an empty room
+     * @param name The name of the room, without '#'
+     */
+    Room(String name) {
+        this.name = name;
+        members = new HashMap<>();
+    }
+
+    /***
+     * Adds a member to the room, and records the change so the members are told
+     * @param clientInfo The client joining the room
+     * @return true if the client was added, false if it was already a member
+     */
+    synchronized boolean add(ClientInfo clientInfo) {
+        if (members.putIfAbsent(clientInfo.getUsername(), clientInfo) != null) {
+            return false;
+        }
+
+        version++;
+        PresenceLog.getInstance().roomChanged("JOIN #" + name + " @" + version + " " + clientInfo.getUsername());
+        snapshot = null;
+        return true;
+    }
+
+    /***
+     * Removes a member from the room, and records the change so the remaining members are told
+     * @param clientInfo The client parting the room
+     * @return true if the client was removed, false if it was not a member
+     */
+    synchronized boolean remove(ClientInfo clientInfo) {
+        if (!members.remove(clientInfo.getUsername(), clientInfo)) {
+            return false;
+        }
+
+        version++;
+        PresenceLog.getInstance().roomChanged("PART #" + name + " @" + version + " " + clientInfo.getUsername());
+        snapshot = null;
+        return true;
+    }
+
+    /***
+     * Method to determine if the room has no members left
+     * @return true if the room is empty
+     */
+    synchronized boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /***
+     * get method
+     * @return the name of the room, without '#'
+     */
+    public String getName() {
+        return name;
+    }
+
+    /***
+     * Returns the cached snapshot of the members, or builds a new one if members joined or parted since the last one
+     * @return the members at one point in time, and the version of the room they match
+     */
+    public ClientSnapshot getSnapshot() {
+        int shardCount = ClientList.getInstance().getShardCount();
+        ClientSnapshot current = snapshot;
+        if (current == null || current.getShardCount() != shardCount) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null || current.getShardCount() != shardCount) {
+                    current = new ClientSnapshot(members.values(), version, shardCount, name);
+                    snapshot = current;
+                }
+            }
+        }
+
+        return current;
+    }
+}
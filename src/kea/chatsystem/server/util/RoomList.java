@@ -0,0 +1,116 @@
+package kea.chatsystem.server.util;
+
+import kea.chatsystem.server.metrics.Metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Singleton class that holds the chat rooms. Keeps the members of every room, and the rooms of every member in its ClientInfo,
+ * so a message to a room only costs a send to its members, and a client leaving the server parts its rooms without looking at the others.
+ * A room exists from the first member joining it until the last member parts it.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class RoomList {
+
+    private static volatile RoomList roomList;
+
+    //the most rooms a single client can be a member of
+    public static final int MAX_ROOMS_PER_CLIENT = 32;
+
+    //room name without '#', room. A room is only changed inside compute() on its name, so joining and parting never race.
+    private ConcurrentHashMap<String, Room> rooms;
+
+    /***
+     * Constructor with no parameters
+     */
+    private RoomList() {
+        rooms = new ConcurrentHashMap<>();
+        Metrics.getInstance().gauge("rooms.active", rooms::size);
+    }
+
+    /***
+     * Synchronized singleton get to avoid more than one instance
+     * @return The static room list
+     */
+    public static RoomList getInstance() {
+        if (roomList == null) {
+            synchronized (RoomList.class) {
+                //double check null value to make sure
+                if (roomList == null) {
+                    roomList = new RoomList();
+                }
+            }
+        }
+
+        return roomList;
+    }
+
+    /***
+     * Adds a client to a room, creating the room if it does not exist
+     * @param clientInfo The client joining the room
+     * @param name The name of the room, without '#'
+     * @return the room, or null if the client is already a member of the most rooms allowed
+     */
+    public Room join(ClientInfo clientInfo, String name) {
+        if (!clientInfo.isInRoom(name) && clientInfo.getRooms().size() >= MAX_ROOMS_PER_CLIENT) {
+            return null;
+        }
+
+        Room joined = rooms.compute(name, (key, room) -> {
+            if (room == null) {
+                room = new Room(key);
+            }
+            if (room.add(clientInfo)) {
+                clientInfo.getRooms().add(key);
+            }
+            return room;
+        });
+
+        //the client may have left the server while it joined, after partAll() looked at its rooms
+        if (!clientInfo.isActive()) {
+            part(clientInfo, name);
+        }
+        return joined;
+    }
+
+    /***
+     * Removes a client from a room, and removes the room if it is left empty
+     * @param clientInfo The client parting the room
+     * @param name The name of the room, without '#'
+     * @return true if the client was a member of the room
+     */
+    public boolean part(ClientInfo clientInfo, String name) {
+        boolean[] parted = new boolean[1];
+        rooms.computeIfPresent(name, (key, room) -> {
+            if (room.remove(clientInfo)) {
+                clientInfo.getRooms().remove(key);
+                parted[0] = true;
+            }
+            return room.isEmpty() ? null : room;
+        });
+
+        return parted[0];
+    }
+
+    /***
+     * Removes a client from every room it is a member of. Called when the client leaves the server.
+     * @param clientInfo The client
+     */
+    public void partAll(ClientInfo clientInfo) {
+        for (String name : clientInfo.getRooms()) {
+            part(clientInfo, name);
+        }
+    }
+
+    /***
+     * get method
+     * @param name The name of the room, without '#'
+     * @return the room, or null if it has no members
+     */
+    public Room getRoom(String name) {
+        return rooms.get(name);
+    }
+}
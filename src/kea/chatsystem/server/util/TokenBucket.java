@@ -0,0 +1,75 @@
+package kea.chatsystem.server.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Lock-free token bucket. Instead of a number of tokens that a timer fills up, the bucket keeps the time it will be full again:
+ * taking tokens moves that time forward by the time the tokens take to come back, and is refused if it would move more than the
+ * capacity ahead of now. So the whole state is one long, and taking tokens is a read of the clock and a single compare-and-set,
+ * which only has to be tried again if another thread took tokens from the same bucket at the same moment.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class TokenBucket {
+
+    //the System.nanoTime() at which the bucket is full again, at or before now while it is full
+    private AtomicLong fullAt;
+    private long nanosPerToken;
+    private long capacityNanos;
+
+    /***
+     * Constructor for a full bucket
+     * @param capacity The most tokens the bucket holds
+     * @param nanosPerToken The nanoseconds it takes for one token to come back
+     */
+    public TokenBucket(long capacity, long nanosPerToken) {
+        this.nanosPerToken = Math.max(1, nanosPerToken);
+        capacityNanos = Math.max(1, capacity) * this.nanosPerToken;
+        fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /***
+     * Creates a full bucket that fills up at a rate per second
+     * @param ratePerSecond The tokens that come back every second
+     * @param burstMillis How many milliseconds of tokens the bucket holds, at least one token
+     * @return the bucket
+     */
+    public static TokenBucket perSecond(long ratePerSecond, long burstMillis) {
+        return new TokenBucket(Math.max(1, ratePerSecond * burstMillis / 1000), 1000000000L / ratePerSecond);
+    }
+
+    /***
+     * Takes tokens from the bucket if it holds enough
+     * @param tokens The number of tokens to take
+     * @return true if they were taken, false if the bucket holds fewer
+     */
+    public boolean tryTake(long tokens) {
+        //more than the bucket holds can never be taken, and would overflow the cost
+        if (tokens > capacityNanos / nanosPerToken) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long cost = tokens * nanosPerToken;
+        while (true) {
+            long current = fullAt.get();
+            //a full bucket is full from now on, the tokens it could not hold are lost
+            long next = (current - now < 0 ? now : current) + cost;
+            if (next - now > capacityNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /***
+     * Puts back tokens taken with tryTake(), when what they were taken for was not done after all
+     * @param tokens The number of tokens to put back
+     */
+    public void giveBack(long tokens) {
+        fullAt.addAndGet(-tokens * nanosPerToken);
+    }
+}
@@ -0,0 +1,167 @@
+package kea.chatsystem.shared;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/***
+ * The binary v2 protocol a client can ask for with 'proto=v2' at the end of its JOIN line. After the J_OK line every message
+ * in both directions is a frame: a varint length, followed by that many bytes holding a one byte opcode and the payload.
+ * Varints are unsigned, seven bits per byte with the lowest bits first, and the high bit set on every byte but the last.
+ * Users are sent as ids instead of usernames: JOIN and LIST tell the client which username an id belongs to,
+ * and a username keeps its id for as long as the server runs. Text is UTF-8.
+ *
+ * Client to server: IMAV, LIST, MCST and QUIT without payload, DATA with the text only (the username is known from the connection),
+ * PRIV (recipient username length, recipient username, text).
+ * Server to client: DATA (id, text), PRIV (id of the sender, text), HIST (username length, username, text) for the messages sent before the client joined,
+ * JOIN (version, id, username), LEFT (version, id),
+ * LIST (version, count, then id, username length and username for every user), and an error as opcode 0x80 | ErrorType id.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class BinaryProtocol {
+
+    //the option in the JOIN line, and in the J_OK reply, that switches the connection to binary frames
+    public static final String JOIN_OPTION = "proto=v2";
+
+    public static final int IMAV = 0x01;
+    public static final int DATA = 0x02;
+    public static final int LIST = 0x03;
+    public static final int MCST = 0x04;
+    public static final int QUIT = 0x05;
+    public static final int JOIN = 0x06;
+    public static final int LEFT = 0x07;
+    public static final int PRIV = 0x08;
+    public static final int HIST = 0x09;
+    //the id of the ErrorType is added to this
+    public static final int ERROR = 0x80;
+
+    //the largest frame accepted, a LIST of many users is the largest frame the server sends
+    public static final int MAX_FRAME_LENGTH = 1 << 24;
+
+    /***
+     * Constructor with no parameters
+     */
+    private BinaryProtocol() {}
+
+    /***
+     * Calculates how many bytes a varint takes up
+     * @param value The value, must not be negative
+     * @return the number of bytes, 1-10
+     */
+    public static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /***
+     * Writes a varint to a buffer
+     * @param buffer The buffer to write to
+     * @param value The value, must not be negative
+     */
+    public static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    /***
+     * Reads a varint from a buffer
+     * @param buffer The buffer to read from
+     * @return the value
+     * @throws IllegalArgumentException if the buffer ends in the middle of the varint, or it is longer than 10 bytes
+     */
+    public static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        try {
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long)(b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        } catch (BufferUnderflowException buE) {
+            throw new IllegalArgumentException("Varint is cut off");
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /***
+     * Reads the next frame from a stream
+     * @param input The stream to read from
+     * @return a buffer holding the opcode and the payload of the frame
+     * @throws EOFException if the stream ends before the frame does
+     * @throws IOException if the stream could not be read, or the frame is empty or larger than MAX_FRAME_LENGTH
+     */
+    public static ByteBuffer readFrame(InputStream input) throws IOException {
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            length |= (long)(b & 0x7F) << shift;
+            if (b < 0x80) {
+                break;
+            }
+            if (shift > 28) {
+                throw new IOException("Frame length is too long");
+            }
+        }
+        if (length == 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+
+        byte[] frame = new byte[(int)length];
+        int read = 0;
+        while (read < frame.length) {
+            int count = input.read(frame, read, frame.length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+        return ByteBuffer.wrap(frame);
+    }
+
+    /***
+     * Encodes a frame without a payload
+     * @param opcode The opcode
+     * @return the frame, length included
+     */
+    public static byte[] frame(int opcode) {
+        return new byte[]{1, (byte)opcode};
+    }
+
+    /***
+     * Encodes a frame
+     * @param opcode The opcode
+     * @param payload The payload
+     * @return the frame, length included
+     */
+    public static byte[] frame(int opcode, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(varintSize(payload.length + 1) + 1 + payload.length);
+        putVarint(buffer, payload.length + 1);
+        buffer.put((byte)opcode).put(payload);
+        return buffer.array();
+    }
+
+    /***
+     * Encodes an error frame
+     * @param error The error
+     * @return the frame, with the error as its opcode
+     */
+    public static byte[] frame(ErrorType error) {
+        return frame(error.getOpcode());
+    }
+}
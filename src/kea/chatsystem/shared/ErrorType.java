@@ -13,7 +13,14 @@ public enum ErrorType {
     ILLEGAL_USERNAME(1, "Illegal username"),
     DUPLICATE_USERNAME(2, "Duplicate username"),
     MISUSED_COMMAND(3, "Misused command"),
-    UNEXPECTED_COMMAND(4, "Unexpected command");
+    UNEXPECTED_COMMAND(4, "Unexpected command"),
+    MESSAGE_QUEUE_FULL(5, "Message queue full"),
+    NOT_IN_ROOM(6, "Not in room"),
+    ROOM_LIMIT(7, "Too many rooms"),
+    USER_NOT_ONLINE(8, "User not online"),
+    CLUSTER_UNAVAILABLE(9, "Cluster unavailable"),
+    RATE_LIMITED(10, "Rate limited"),
+    TOO_MANY_CONNECTIONS(11, "Too many connections from this address");
 
     private int id;
     private String error;
@@ -37,6 +44,31 @@ public enum ErrorType {
         return id;
     }
 
+    /***
+     * get method
+     * @return the opcode of the error in the binary protocol, the id with the high bit set
+     */
+    public int getOpcode() {
+        return BinaryProtocol.ERROR | id;
+    }
+
+    /***
+     * Finds the error type of an opcode in the binary protocol
+     * @param opcode The opcode
+     * @return the error type, or null if the opcode is not an error or the id is unknown
+     */
+    public static ErrorType fromOpcode(int opcode) {
+        if ((opcode & BinaryProtocol.ERROR) == 0) {
+            return null;
+        }
+        for (ErrorType errorType : values()) {
+            if (errorType.getOpcode() == opcode) {
+                return errorType;
+            }
+        }
+        return null;
+    }
+
     /***
      * toString method
      * @return the error type as a string with error code and error message
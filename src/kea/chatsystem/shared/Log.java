@@ -1,10 +1,25 @@
 package kea.chatsystem.shared;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /***
- * Singleton logging class that prints messages to system console
+ * Singleton logging class that prints messages to system console, and optionally to a rolling log file.
+ * The calling thread only builds the line and adds it to a lock-free ring buffer, a background thread does the writing.
+ * If the buffer is full the line is lost instead of the caller waiting, and the number of lost lines is written once there is room.
+ * Lines below the level set with setLevel() are not built at all. Debug and transaction lines are off by default.
  *
  * @author Andreas Dan Petersen
  * @version 1.0
@@ -12,15 +27,47 @@ import java.time.format.DateTimeFormatter;
  */
 public class Log {
 
-    private static Log log;
+    private static volatile Log log;
+
+    //lines waiting to be written, and the most the writer takes before it writes them in one go
+    private static final int BUFFER_SIZE = 8192;
+    private static final int BATCH_SIZE = 512;
+    //how long the writer sleeps when it is not woken up, so a missed wake up only delays lines a little
+    private static final long IDLE_NANOS = 100_000_000L;
 
     //formats the datetime in print outs
     private static DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("dd/MM-yyyy HH:mm:ss");
 
+    private volatile LogLevel level = LogLevel.INFO;
+
+    private RingBuffer<String> lines;
+    private AtomicLong dropped;
+    private Thread writer;
+    //true while the writer has nothing to write and is about to sleep
+    private volatile boolean waiting;
+    //the formatted time of the current second, shared by every line written in it
+    private volatile Timestamp timestamp;
+
+    //rolling log file, null if lines are only written to the console. Guarded by the lock on this object.
+    private Path file;
+    private long maxFileSize;
+    private int maxFiles;
+    private OutputStream fileStream;
+    private long fileSize;
+
     /***
-     * Constructor with no parameters
+     * Constructor with no parameters. Starts the writer thread, and writes what is left in the buffer when the process exits.
      */
-    private Log() {}
+    private Log() {
+        lines = new RingBuffer<>(BUFFER_SIZE);
+        dropped = new AtomicLong();
+
+        writer = new Thread(this::run, "LogWriter");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "LogFlush"));
+    }
 
     /***
      * Singleton get method that returns the only static Log object
@@ -28,14 +75,60 @@ public class Log {
      */
     public static Log getInstance() {
         if (log == null) {
-            log = new Log();
+            synchronized (Log.class) {
+                //double check null value to make sure
+                if (log == null) {
+                    log = new Log();
+                }
+            }
         }
 
         return log;
     }
 
     /***
-     * Prints a message from another client to the console
+     * Sets the lowest level of the lines that are written. Can be changed while the program runs.
+     * @param level The lowest level to write
+     */
+    public void setLevel(LogLevel level) {
+        this.level = level;
+    }
+
+    /***
+     * get method
+     * @return the lowest level of the lines that are written
+     */
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    /***
+     * Method to determine if lines of a level are written, so a caller can skip building an expensive line
+     * @param level The level of the line
+     * @return true if lines of the level are written
+     */
+    public boolean isEnabled(LogLevel level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    /***
+     * Writes the lines to a log file as well as to the console. When the file grows beyond its maximum size it is renamed
+     * to name.1 (name.1 to name.2 and so on) and a new file is started.
+     * @param path The path of the log file, lines are added to the end of it if it exists
+     * @param maxFileSize The size in bytes a file may grow to before a new one is started
+     * @param maxFiles The number of old files kept besides the current one
+     * @throws IOException if the file could not be opened
+     */
+    public synchronized void setFile(String path, long maxFileSize, int maxFiles) throws IOException {
+        closeFile();
+        file = Paths.get(path);
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        openFile();
+    }
+
+    /***
+     * Prints a message from another client to the console. Always written, whatever the level.
      * @param text The text message to print
      */
     public void message(String text) {
@@ -48,6 +141,10 @@ public class Log {
      * @param incoming A true/false value indicating whether or not the transaction is outgoing or incoming
      */
     public void transaction(String text, boolean incoming) {
+        if (!isEnabled(LogLevel.TRANSACTION)) {
+            return;
+        }
+
         String direction;
         if (incoming) {
             direction = "(Incoming)";
@@ -63,7 +160,9 @@ public class Log {
      * @param text The text message to print
      */
     public void debug(String text) {
-        write("Debug: " + text);
+        if (isEnabled(LogLevel.DEBUG)) {
+            write("Debug: " + text);
+        }
     }
 
     /***
@@ -71,7 +170,9 @@ public class Log {
      * @param text The text message to print
      */
     public void info(String text) {
-        write("Info: " + text);
+        if (isEnabled(LogLevel.INFO)) {
+            write("Info: " + text);
+        }
     }
 
     /***
@@ -79,14 +180,179 @@ public class Log {
      * @param text The text message to print
      */
     public void error(String text) {
-        write("Error: " + text);
+        if (isEnabled(LogLevel.ERROR)) {
+            write("Error: " + text);
+        }
     }
 
     /***
-     * Prints a message to the console
+     * Adds a line to the buffer, or counts it as lost if the buffer is full
      * @param text The text message to print
      */
     private void write(String text) {
-        System.out.println(Thread.currentThread().getName() + ": " + LocalDateTime.now().format(dateTimeFormatter) + " - " + text);
+        String line = Thread.currentThread().getName() + ": " + timestamp() + " - " + text;
+        if (!lines.offer(line)) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /***
+     * Gets the formatted time of the current second, formatting it only when the second has changed
+     * @return the current time as text
+     */
+    private String timestamp() {
+        long second = System.currentTimeMillis() / 1000;
+        Timestamp current = timestamp;
+        if (current == null || current.second != second) {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault());
+            current = new Timestamp(second, time.format(dateTimeFormatter));
+            timestamp = current;
+        }
+
+        return current.text;
+    }
+
+    /***
+     * Method that gets executed by the writer thread. Writes lines as they arrive, and sleeps while there are none.
+     */
+    private void run() {
+        while (true) {
+            if (!drain()) {
+                waiting = true;
+                //a line added just before the flag was set did not wake the writer up
+                if (lines.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    /***
+     * Writes every waiting line before returning
+     */
+    public void flush() {
+        while (drain()) {
+            //keep writing until the buffer is empty
+        }
+    }
+
+    /***
+     * Writes up to a batch of waiting lines to the console and the log file with one write each
+     * @return true if anything was written
+     */
+    private synchronized boolean drain() {
+        StringBuilder batch = new StringBuilder();
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            batch.append(Thread.currentThread().getName()).append(": ").append(timestamp())
+                    .append(" - Error: Log buffer was full, ").append(lost).append(" line(s) were lost.").append(System.lineSeparator());
+        }
+
+        String line;
+        for (int i = 0; i < BATCH_SIZE && (line = lines.poll()) != null; i++) {
+            batch.append(line).append(System.lineSeparator());
+        }
+        if (batch.length() == 0) {
+            return false;
+        }
+
+        System.out.print(batch);
+        System.out.flush();
+        if (fileStream != null) {
+            writeFile(batch.toString().getBytes(Charset.defaultCharset()));
+        }
+        return true;
+    }
+
+    /***
+     * Writes to the log file, and starts a new file when it has grown beyond its maximum size
+     * @param bytes The lines to write
+     */
+    private void writeFile(byte[] bytes) {
+        try {
+            fileStream.write(bytes);
+            fileStream.flush();
+            fileSize += bytes.length;
+            if (fileSize >= maxFileSize) {
+                rollFile();
+            }
+        } catch (IOException ioE) {
+            //the console is the only place left to tell
+            System.out.println("Could not write to log file " + file + ", writing to the console only: " + ioE.getMessage());
+            closeFile();
+        }
+    }
+
+    /***
+     * Renames the log file and the old files one number up, deleting the oldest, and opens a new log file
+     * @throws IOException if the files could not be renamed or the new file could not be opened
+     */
+    private void rollFile() throws IOException {
+        fileStream.close();
+        fileStream = null;
+
+        Path oldest = Paths.get(file + "." + maxFiles);
+        Files.deleteIfExists(oldest);
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path old = Paths.get(file + "." + i);
+            if (Files.exists(old)) {
+                Files.move(old, Paths.get(file + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file, Paths.get(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+
+        openFile();
+    }
+
+    /***
+     * Opens the log file for adding lines to its end
+     * @throws IOException if the file could not be opened
+     */
+    private void openFile() throws IOException {
+        fileStream = new FileOutputStream(file.toFile(), true);
+        fileSize = Files.size(file);
+    }
+
+    /***
+     * Closes the log file if one is open
+     */
+    private void closeFile() {
+        if (fileStream != null) {
+            try {
+                fileStream.close();
+            } catch (IOException ioE) {
+                System.out.println("Could not close log file " + file + ": " + ioE.getMessage());
+            }
+            fileStream = null;
+        }
+    }
+
+    /***
+     * The formatted time of a second
+     */
+    private static class Timestamp {
+
+        private long second;
+        private String text;
+
+        /***
+         * Constructor for a timestamp
+         * @param second The second since the epoch
+         * @param text The second formatted for print outs
+         */
+        private Timestamp(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
     }
 }
@@ -0,0 +1,52 @@
+package kea.chatsystem.shared;
+
+/***
+ * Levels of the lines written by Log, from the most to the least detailed. Lines below the level set on the Log are not written.
+ * Chat messages shown by the client are always written.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public enum LogLevel {
+
+    DEBUG("debug"),
+    TRANSACTION("transaction"),
+    INFO("info"),
+    ERROR("error");
+
+    private String name;
+
+    /***
+     * Constructor of a log level
+     * @param name The name used to select the level on the command line
+     */
+    LogLevel(String name) {
+        this.name = name;
+    }
+
+    /***
+     * Finds the log level matching a name given on the command line
+     * @param name The name of the level
+     * @return the matching log level
+     * @throws IllegalArgumentException if no level has the given name
+     */
+    public static LogLevel fromName(String name) {
+        for (LogLevel level : values()) {
+            if (level.name.equalsIgnoreCase(name)) {
+                return level;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown log level '" + name + "'");
+    }
+
+    /***
+     * toString method
+     * @return the name used to select the level on the command line
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
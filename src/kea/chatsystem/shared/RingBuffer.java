@@ -0,0 +1,148 @@
+package kea.chatsystem.shared;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/***
+ * Bounded lock-free queue on a pre-allocated array. Any number of threads may add and take elements at the same time.
+ * Every slot has a sequence number that tells whether it is ready to be written or read, so threads only compete on a
+ * compare-and-set of the head or tail counter, never on a lock.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class RingBuffer<E> {
+
+    private Object[] elements;
+    private AtomicLongArray sequences;
+    private int mask;
+    private AtomicLong head;
+    private AtomicLong tail;
+
+    /***
+     * Constructor for a ring buffer
+     * @param capacity The number of elements the buffer can hold. Rounded up to the nearest power of two.
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30, got " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+    }
+
+    /***
+     * Adds an element to the tail of the buffer unless the buffer is full
+     * @param element The element to add
+     * @return true if the element was added, false if the buffer is full
+     */
+    public boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int)position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                //the slot is free, claim it
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = element;
+                    //publishes the element to the thread that takes it
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                //the slot still holds the element from one lap ago
+                return false;
+            } else {
+                //another thread claimed the slot first
+                position = tail.get();
+            }
+        }
+    }
+
+    /***
+     * Takes the element at the head of the buffer
+     * @return the element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int)position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                //the slot holds an element, claim it
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = (E)elements[index];
+                    elements[index] = null;
+                    //frees the slot for the next lap
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                //nothing has been published to the slot yet
+                return null;
+            } else {
+                //another thread took the element first
+                position = head.get();
+            }
+        }
+    }
+
+    /***
+     * Takes up to a given number of elements from the head of the buffer
+     * @param collection The collection to add the elements to
+     * @param max The highest number of elements to take
+     * @return the number of elements taken
+     */
+    public int drainTo(Collection<? super E> collection, int max) {
+        int count = 0;
+        E element;
+        while (count < max && (element = poll()) != null) {
+            collection.add(element);
+            count++;
+        }
+
+        return count;
+    }
+
+    /***
+     * get method
+     * @return the number of elements in the buffer. Only an estimate while other threads add or take elements.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int)Math.max(0, Math.min(size, capacity()));
+    }
+
+    /***
+     * Method to determine if the buffer is empty
+     * @return true if the buffer holds no elements
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /***
+     * get method
+     * @return the number of elements the buffer can hold
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,140 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.shared.ErrorType;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/***
+ * Tests of the AdmissionControl limits and its wait queue
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class AdmissionControlTest {
+
+    /***
+     * A connection that remembers whether it was served or turned away
+     */
+    private static class TestCandidate implements AdmissionControl.Candidate {
+
+        private boolean admitted;
+        private String reply;
+        private CountDownLatch done = new CountDownLatch(1);
+
+        public void admit() {
+            admitted = true;
+            done.countDown();
+        }
+
+        public void reject(String reply) {
+            this.reply = reply;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void waitingConnectionIsServedWhenAnotherCloses() throws Exception {
+        AdmissionControl admission = admission("--max-connections=1", "--admission-queue=1", "--admission-wait=60000");
+        TestCandidate first = new TestCandidate();
+        TestCandidate second = new TestCandidate();
+
+        admission.request(address(1), first);
+        admission.request(address(2), second);
+        assertTrue(first.admitted);
+        assertFalse(second.admitted);
+        assertEquals(1, admission.getOpen());
+        assertEquals(1, admission.getWaiting());
+
+        //the place goes straight to the waiting connection
+        admission.release(address(1));
+        assertTrue(second.admitted);
+        assertEquals(1, admission.getOpen());
+        assertEquals(0, admission.getWaiting());
+
+        admission.release(address(2));
+        assertEquals(0, admission.getOpen());
+    }
+
+    @Test
+    public void fullQueueTurnsConnectionAwayWithRetryHint() throws Exception {
+        AdmissionControl admission = admission("--max-connections=1", "--admission-queue=1", "--admission-wait=60000", "--retry-after=100");
+        admission.request(address(1), new TestCandidate());
+        admission.request(address(2), new TestCandidate());
+
+        TestCandidate third = new TestCandidate();
+        admission.request(address(3), third);
+
+        assertFalse(third.admitted);
+        String prefix = "J_ER " + ErrorType.NO_AVAILABLE_THREAD + " retry=";
+        assertTrue(third.reply.startsWith(prefix), third.reply);
+        long retry = Long.parseLong(third.reply.substring(prefix.length()));
+        assertTrue(retry >= 100 && retry <= 200, third.reply);
+    }
+
+    @Test
+    public void connectionThatWaitsTooLongIsTurnedAway() throws Exception {
+        AdmissionControl admission = admission("--max-connections=1", "--admission-queue=1", "--admission-wait=50");
+        admission.request(address(1), new TestCandidate());
+        TestCandidate waiting = new TestCandidate();
+        admission.request(address(2), waiting);
+
+        assertTrue(waiting.done.await(5, TimeUnit.SECONDS));
+        assertFalse(waiting.admitted);
+        assertTrue(waiting.reply.startsWith("J_ER " + ErrorType.NO_AVAILABLE_THREAD));
+        assertEquals(0, admission.getWaiting());
+
+        //the connection that closes gives its place back, as no one waits for it
+        admission.release(address(1));
+        assertEquals(0, admission.getOpen());
+    }
+
+    @Test
+    public void addressOverItsLimitIsTurnedAway() throws Exception {
+        AdmissionControl admission = admission("--max-connections=1", "--max-connections-per-address=2", "--admission-queue=5", "--admission-wait=60000");
+        admission.request(address(1), new TestCandidate());
+        //a waiting connection counts against its address too
+        admission.request(address(1), new TestCandidate());
+
+        TestCandidate third = new TestCandidate();
+        admission.request(address(1), third);
+        assertTrue(third.reply.startsWith("J_ER " + ErrorType.TOO_MANY_CONNECTIONS), third.reply);
+
+        //other addresses still get in line
+        TestCandidate other = new TestCandidate();
+        admission.request(address(2), other);
+        assertNull(other.reply);
+        assertEquals(2, admission.getWaiting());
+
+        //once one closes, the address has room again
+        admission.release(address(1));
+        TestCandidate fourth = new TestCandidate();
+        admission.request(address(1), fourth);
+        assertNull(fourth.reply);
+    }
+
+    /***
+     * Creates an admission control from server options
+     * @param args The options
+     * @return the admission control
+     */
+    private static AdmissionControl admission(String... args) {
+        return new AdmissionControl(ServerConfig.parse(args));
+    }
+
+    /***
+     * Makes up the address of a client
+     * @param host The last byte of the address
+     * @return the address 10.0.0.host
+     * @throws UnknownHostException never, the address is given as bytes
+     */
+    private static InetAddress address(int host) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte)host});
+    }
+}
@@ -0,0 +1,263 @@
+package kea.chatsystem.server;
+
+import kea.chatsystem.server.util.ClientList;
+import kea.chatsystem.server.util.MessageList;
+import kea.chatsystem.server.util.OutboundQueue;
+import kea.chatsystem.shared.BinaryProtocol;
+import kea.chatsystem.shared.ErrorType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/***
+ * Tests of the CommandDecoder with malformed, truncated and oversized lines and frames. The decoder drives a real Session,
+ * whose replies are kept by a transport that writes nowhere. Every test joins with a username of its own, since the client list is shared.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class CommandDecoderTest {
+
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    /***
+     * Keeps what the session writes, and runs the tasks it waits for right away
+     */
+    private static class RecordingTransport implements Transport {
+
+        private List<String> lines = new ArrayList<>();
+        private List<byte[]> frames = new ArrayList<>();
+
+        public void write(String line) {
+            lines.add(line);
+        }
+
+        public void write(byte[] frame) {
+            frames.add(frame);
+        }
+
+        public OutboundQueue startPush(int capacity) {
+            throw new UnsupportedOperationException("The tests deliver broadcasts as datagrams");
+        }
+
+        public void runWhenDone(CompletableFuture<?> future, Runnable task) {
+            future.join();
+            task.run();
+        }
+    }
+
+    private RecordingTransport transport;
+    private Session session;
+    private CommandDecoder decoder;
+    private String username;
+
+    @BeforeEach
+    public void setUp() {
+        transport = new RecordingTransport();
+        session = new Session(transport, new ServerConfig(), InetAddress.getLoopbackAddress(), 40000);
+        decoder = new CommandDecoder(session);
+        username = "test" + USERS.incrementAndGet();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        session.leave();
+    }
+
+    @Test
+    public void joinsWithValidLine() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234\n"));
+
+        assertEquals(List.of("J_OK"), transport.lines);
+        assertTrue(session.isActive());
+        assertNotNull(ClientList.getInstance().getClient(username));
+    }
+
+    @Test
+    public void firstLineMustBeJoin() {
+        assertFalse(decode("LIST #room\n"));
+        assertEquals(List.of("J_ER " + ErrorType.UNEXPECTED_COMMAND), transport.lines);
+    }
+
+    @Test
+    public void joinWithoutUsernameIsRefused() {
+        assertFalse(decode("JOIN\n"));
+        assertEquals(List.of("J_ER " + ErrorType.MISUSED_COMMAND), transport.lines);
+    }
+
+    @Test
+    public void joinWithIllegalUsernameIsRefused() {
+        assertFalse(decode("JOIN bad name!, 127.0.0.1:1234\n"));
+        assertFalse(new CommandDecoder(session).decode(ByteBuffer.wrap(bytes("JOIN waytoolongusername, 127.0.0.1:1234\n"))));
+
+        assertEquals(List.of("J_ER " + ErrorType.ILLEGAL_USERNAME, "J_ER " + ErrorType.ILLEGAL_USERNAME), transport.lines);
+        assertFalse(session.isActive());
+    }
+
+    @Test
+    public void lineSplitOverManyReadsIsHandledOnce() {
+        byte[] join = bytes("JOIN " + username + ", 127.0.0.1:1234\r\n");
+        for (int i = 0; i < join.length - 1; i++) {
+            assertTrue(decoder.decode(join, i, 1));
+            assertTrue(transport.lines.isEmpty(), "nothing is handled before the line feed");
+        }
+
+        assertTrue(decoder.decode(ByteBuffer.wrap(join, join.length - 1, 1)));
+        assertEquals(List.of("J_OK"), transport.lines);
+    }
+
+    @Test
+    public void severalLinesInOneReadAreAllHandled() {
+        int queued = MessageList.getInstance().size();
+
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234\nIMAV\nDATA " + username + ": hello\nLIST\n"));
+
+        assertEquals(2, transport.lines.size());
+        assertEquals("J_OK", transport.lines.get(0));
+        assertTrue(transport.lines.get(1).startsWith("LIST "));
+        assertEquals(queued + 1, MessageList.getInstance().size());
+    }
+
+    @Test
+    public void tooLongLineClosesTheConnection() {
+        char[] line = new char[1025];
+        Arrays.fill(line, 'a');
+        assertFalse(decode(new String(line)));
+
+        //the same after the client has joined
+        setUp();
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234\n"));
+        assertTrue(decode("DATA " + username + ": " + new String(line, 0, 1000)));
+        assertFalse(decode("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+    }
+
+    @Test
+    public void malformedCommandsAreRefusedButKeepTheConnection() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234\n"));
+        transport.lines.clear();
+
+        //too short, unknown, and room commands without a legal room
+        assertTrue(decode("AB\n"));
+        assertTrue(decode("WHAT is this\n"));
+        assertTrue(decode("JOIN room\n"));
+        assertTrue(decode("PART #\n"));
+        assertTrue(decode("LIST #bad room\n"));
+        //a direct message without a recipient or a text
+        assertTrue(decode("PRIV nobody\n"));
+        assertTrue(decode("PRIV : text\n"));
+
+        String misused = "J_ER " + ErrorType.MISUSED_COMMAND;
+        assertEquals(List.of(misused, misused, misused, misused, misused), transport.lines);
+        assertTrue(session.isActive());
+    }
+
+    @Test
+    public void malformedDataIsNotBroadcast() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234\n"));
+        int queued = MessageList.getInstance().size();
+
+        //another username, no text, a line feed smuggled in as a control character, and too long a text
+        assertTrue(decode("DATA someoneelse: hello\n"));
+        assertTrue(decode("DATA " + username + ": \n"));
+        assertTrue(decode("DATA " + username + ": a\u000bb\n"));
+        char[] text = new char[251];
+        Arrays.fill(text, 'x');
+        assertTrue(decode("DATA " + username + ": " + new String(text) + "\n"));
+        //a room message must name a legal room before the username
+        assertTrue(decode("DATA #" + username + ": hello\n"));
+
+        assertEquals(queued, MessageList.getInstance().size());
+        assertTrue(session.isActive());
+    }
+
+    @Test
+    public void binaryFrameSplitOverReadsIsHandledOnce() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234 " + BinaryProtocol.JOIN_OPTION + "\n"));
+        assertEquals(List.of("J_OK " + BinaryProtocol.JOIN_OPTION), transport.lines);
+
+        //a LIST frame is its length and its opcode
+        byte[] list = {1, (byte)BinaryProtocol.LIST};
+        assertTrue(decoder.decode(list, 0, 1));
+        assertTrue(transport.frames.isEmpty());
+        assertTrue(decoder.decode(list, 1, 1));
+        assertEquals(1, transport.frames.size());
+    }
+
+    @Test
+    public void truncatedBinaryPrivIsRefused() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234 " + BinaryProtocol.JOIN_OPTION + "\n"));
+
+        //the username is said to be 10 bytes, but the frame ends after 3
+        byte[] priv = {5, (byte)BinaryProtocol.PRIV, 10, 'a', 'b', 'c'};
+        assertTrue(decoder.decode(priv, 0, priv.length));
+
+        assertEquals(1, transport.frames.size());
+        assertArrayEquals(BinaryProtocol.frame(ErrorType.MISUSED_COMMAND), transport.frames.get(0));
+    }
+
+    @Test
+    public void oversizedBinaryFrameClosesTheConnection() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234 " + BinaryProtocol.JOIN_OPTION + "\n"));
+
+        //1025 as a varint
+        assertFalse(decoder.decode(new byte[] {(byte)0x81, 0x08}, 0, 2));
+    }
+
+    @Test
+    public void threeByteFrameLengthClosesTheConnection() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234 " + BinaryProtocol.JOIN_OPTION + "\n"));
+
+        assertTrue(decoder.decode(new byte[] {(byte)0x80}, 0, 1));
+        assertFalse(decoder.decode(new byte[] {(byte)0x80}, 0, 1));
+    }
+
+    @Test
+    public void emptyBinaryFrameClosesTheConnection() {
+        assertTrue(decode("JOIN " + username + ", 127.0.0.1:1234 " + BinaryProtocol.JOIN_OPTION + "\n"));
+
+        assertFalse(decoder.decode(new byte[] {0}, 0, 1));
+    }
+
+    @Test
+    public void senderOfChecksForwardedMessages() {
+        assertEquals("alice", CommandDecoder.senderOf("DATA alice: hello"));
+        assertEquals("alice", CommandDecoder.senderOf("DATA #room alice: hello"));
+
+        assertNull(CommandDecoder.senderOf("DATA alice:hello"));
+        assertNull(CommandDecoder.senderOf("DATA alice: "));
+        assertNull(CommandDecoder.senderOf("DATA bad name: hello"));
+        assertNull(CommandDecoder.senderOf("DATA #bad!room alice: hello"));
+        assertNull(CommandDecoder.senderOf("DATA alice: a\nDATA bob: forged"));
+        assertNull(CommandDecoder.senderOf("PRIV alice: hello"));
+    }
+
+    /***
+     * Hands a whole string to the decoder in one read
+     * @param text The bytes as text
+     * @return what the decoder returned
+     */
+    private boolean decode(String text) {
+        return decoder.decode(ByteBuffer.wrap(bytes(text)));
+    }
+
+    /***
+     * Encodes text as the client sends it
+     * @param text The text
+     * @return the bytes
+     */
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
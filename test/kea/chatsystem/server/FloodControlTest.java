@@ -0,0 +1,72 @@
+package kea.chatsystem.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/***
+ * Tests of the FloodControl limits. The buckets fill up slowly enough that the tokens coming back during a test cannot change a verdict.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class FloodControlTest {
+
+    @AfterEach
+    public void tearDown() {
+        //the other tests expect no limits
+        FloodControl.getInstance().configure(0, 0, 0, 0, 2000, 0);
+    }
+
+    @Test
+    public void clientIsThrottledAfterItsBurst() {
+        FloodControl.getInstance().configure(2, 0, 0, 0, 1000, 0);
+        FloodControl.Allowance allowance = FloodControl.getInstance().newAllowance();
+
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(allowance, 10, true));
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(allowance, 10, false));
+        assertEquals(FloodControl.Verdict.THROTTLED, FloodControl.getInstance().take(allowance, 10, true));
+
+        //every client has buckets of its own
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(FloodControl.getInstance().newAllowance(), 10, true));
+    }
+
+    @Test
+    public void clientIsThrottledOnBytes() {
+        FloodControl.getInstance().configure(0, 100, 0, 0, 1000, 0);
+        FloodControl.Allowance allowance = FloodControl.getInstance().newAllowance();
+
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(allowance, 60, true));
+        assertEquals(FloodControl.Verdict.THROTTLED, FloodControl.getInstance().take(allowance, 60, true));
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(allowance, 40, true));
+    }
+
+    @Test
+    public void clientThatKeepsSendingIsDisconnected() {
+        FloodControl.getInstance().configure(1, 0, 0, 0, 1000, 2);
+        FloodControl.Allowance allowance = FloodControl.getInstance().newAllowance();
+
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(allowance, 10, false));
+        assertEquals(FloodControl.Verdict.THROTTLED, FloodControl.getInstance().take(allowance, 10, false));
+        assertEquals(FloodControl.Verdict.THROTTLED, FloodControl.getInstance().take(allowance, 10, false));
+        assertEquals(FloodControl.Verdict.DISCONNECT, FloodControl.getInstance().take(allowance, 10, false));
+    }
+
+    @Test
+    public void globalLimitOnlyHoldsBackBroadcasts() {
+        FloodControl.getInstance().configure(2, 0, 1, 0, 1000, 1);
+        FloodControl.Allowance first = FloodControl.getInstance().newAllowance();
+        FloodControl.Allowance second = FloodControl.getInstance().newAllowance();
+
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(first, 10, true));
+        //all clients together have sent their message to everyone, but a room or direct message is still allowed
+        assertEquals(FloodControl.Verdict.THROTTLED, FloodControl.getInstance().take(second, 10, true));
+        assertEquals(FloodControl.Verdict.THROTTLED, FloodControl.getInstance().take(second, 10, true));
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(second, 10, false));
+        //the client got its tokens back and no strikes, so it still has one message
+        assertEquals(FloodControl.Verdict.ALLOWED, FloodControl.getInstance().take(second, 10, false));
+        assertEquals(FloodControl.Verdict.THROTTLED, FloodControl.getInstance().take(second, 10, false));
+    }
+}
@@ -0,0 +1,96 @@
+package kea.chatsystem.server.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/***
+ * Tests of the HeartbeatWheel. Every test drives the wheel with made up times, so none of them waits.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class HeartbeatWheelTest {
+
+    private static final long TIMEOUT = 1000;
+    private static final long TICK = 100;
+
+    @Test
+    public void clientExpiresOnlyAfterItsDeadline() {
+        HeartbeatWheel wheel = new HeartbeatWheel(TIMEOUT, TICK, 0);
+        ClientInfo client = client("alice", 0);
+        wheel.schedule(client, 0);
+
+        assertTrue(wheel.expire(TIMEOUT).isEmpty());
+        //at most a tick after the deadline
+        assertEquals(List.of(client), wheel.expire(TIMEOUT + TICK + 1));
+        //and only once
+        assertTrue(wheel.expire(TIMEOUT + 3 * TICK).isEmpty());
+    }
+
+    @Test
+    public void heartbeatMovesTheDeadline() {
+        HeartbeatWheel wheel = new HeartbeatWheel(TIMEOUT, TICK, 0);
+        ClientInfo client = client("bob", 0);
+        wheel.schedule(client, 0);
+
+        client.setLastHeartbeat(800);
+        wheel.schedule(client, 800);
+
+        assertTrue(wheel.expire(TIMEOUT + TICK + 1).isEmpty());
+        assertEquals(List.of(client), wheel.expire(800 + TIMEOUT + TICK + 1));
+    }
+
+    @Test
+    public void heartbeatDuringExpiryIsRescheduled() {
+        HeartbeatWheel wheel = new HeartbeatWheel(TIMEOUT, TICK, 0);
+        ClientInfo client = client("carol", 0);
+        wheel.schedule(client, 0);
+
+        //the heartbeat arrived, but the client was not moved to its new bucket yet
+        client.setLastHeartbeat(900);
+
+        assertTrue(wheel.expire(TIMEOUT + TICK + 1).isEmpty());
+        assertEquals(List.of(client), wheel.expire(900 + TIMEOUT + TICK + 1));
+    }
+
+    @Test
+    public void cancelledClientNeverExpires() {
+        HeartbeatWheel wheel = new HeartbeatWheel(TIMEOUT, TICK, 0);
+        ClientInfo client = client("dave", 0);
+        wheel.schedule(client, 0);
+
+        wheel.cancel(client);
+        assertEquals(-1, client.getWheelSlot());
+        assertTrue(wheel.expire(10 * TIMEOUT).isEmpty());
+    }
+
+    @Test
+    public void expiryThatRanLateStillFindsEveryClient() {
+        HeartbeatWheel wheel = new HeartbeatWheel(TIMEOUT, TICK, 0);
+        ClientInfo early = client("erin", 0);
+        ClientInfo late = client("frank", 500);
+        wheel.schedule(early, 0);
+        wheel.schedule(late, 500);
+
+        //several turns of the wheel after both deadlines
+        List<ClientInfo> expired = wheel.expire(5 * TIMEOUT);
+        assertEquals(2, expired.size());
+        assertTrue(expired.contains(early));
+        assertTrue(expired.contains(late));
+    }
+
+    /***
+     * Creates a client that sent its last heartbeat at a time
+     * @param username The username
+     * @param lastHeartbeat The time of the heartbeat in milliseconds
+     * @return the client
+     */
+    private static ClientInfo client(String username, long lastHeartbeat) {
+        return new ClientInfo(username, InetAddress.getLoopbackAddress(), 40000, lastHeartbeat, 1, false);
+    }
+}
@@ -0,0 +1,80 @@
+package kea.chatsystem.server.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/***
+ * Tests of the lock-free TokenBucket. The buckets fill up slowly enough that the time the tests take cannot give them tokens by accident.
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class TokenBucketTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void fullBucketGivesItsCapacity() {
+        TokenBucket bucket = new TokenBucket(3, SECOND);
+
+        assertTrue(bucket.tryTake(1));
+        assertTrue(bucket.tryTake(2));
+        assertFalse(bucket.tryTake(1));
+    }
+
+    @Test
+    public void emptyBucketRefills() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(2, 100000000L);
+        assertTrue(bucket.tryTake(2));
+        assertFalse(bucket.tryTake(1));
+
+        //a token comes back every 100 ms
+        Thread.sleep(250);
+        assertTrue(bucket.tryTake(2));
+    }
+
+    @Test
+    public void fullBucketDoesNotOverflow() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(3, 100000000L);
+
+        //long enough for 5 tokens, but the bucket holds no more than 3
+        Thread.sleep(500);
+        assertTrue(bucket.tryTake(3));
+        assertFalse(bucket.tryTake(1));
+    }
+
+    @Test
+    public void moreThanCapacityIsRefused() {
+        TokenBucket bucket = new TokenBucket(3, SECOND);
+
+        assertFalse(bucket.tryTake(4));
+        //a cost that does not fit in a long must not wrap around and be allowed
+        assertFalse(bucket.tryTake(Long.MAX_VALUE / 2));
+        //refused takes leave the bucket full
+        assertTrue(bucket.tryTake(3));
+    }
+
+    @Test
+    public void tokensGivenBackCanBeTakenAgain() {
+        TokenBucket bucket = new TokenBucket(2, SECOND);
+        assertTrue(bucket.tryTake(2));
+
+        bucket.giveBack(1);
+        assertTrue(bucket.tryTake(1));
+        assertFalse(bucket.tryTake(1));
+    }
+
+    @Test
+    public void perSecondHoldsTheBurst() {
+        //10 tokens a second for 500 ms is 5 tokens
+        TokenBucket bucket = TokenBucket.perSecond(10, 500);
+
+        assertTrue(bucket.tryTake(5));
+        assertFalse(bucket.tryTake(1));
+
+        //at least one token, however short the burst
+        assertTrue(TokenBucket.perSecond(1, 1).tryTake(1));
+    }
+}
@@ -0,0 +1,144 @@
+package kea.chatsystem.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/***
+ * Tests of the bounded lock-free RingBuffer
+ *
+ * @author Andreas Dan Petersen
+ * @version 1.0
+ * @since 18-10-2026
+ */
+public class RingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new RingBuffer<String>(1).capacity());
+        assertEquals(8, new RingBuffer<String>(5).capacity());
+        assertEquals(8, new RingBuffer<String>(8).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new RingBuffer<String>(0));
+    }
+
+    @Test
+    public void emptyBufferReturnsNull() {
+        RingBuffer<String> buffer = new RingBuffer<>(4);
+
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.drainTo(new ArrayList<>(), 10));
+
+        //empty again after the only element was taken
+        assertTrue(buffer.offer("a"));
+        assertEquals("a", buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void fullBufferRefusesElements() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        //taking one element frees exactly one slot
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+    }
+
+    @Test
+    public void elementsKeepTheirOrderAcrossManyLaps() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        int next = 0;
+        int expected = 0;
+
+        //three in, two out, so the head and tail go round the array at different points
+        for (int lap = 0; lap < 100; lap++) {
+            while (buffer.offer(next)) {
+                next++;
+            }
+            assertEquals(expected++, buffer.poll());
+            assertEquals(expected++, buffer.poll());
+        }
+        Integer element;
+        while ((element = buffer.poll()) != null) {
+            assertEquals(expected++, element);
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    public void drainToTakesAtMostMax() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(i);
+        }
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drainTo(drained, 4));
+        assertEquals(List.of(0, 1, 2, 3), drained);
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 50000;
+        RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException iE) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    //the producer number in the high bits, the sequence in the low bits
+                    Integer element = producer << 20 | i;
+                    while (!buffer.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        int[] nextOf = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            Integer element = buffer.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            //the elements of one producer arrive in the order it added them, none twice and none missing
+            int producer = element >>> 20;
+            assertEquals(nextOf[producer]++, element & 0xFFFFF);
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(buffer.poll());
+        for (int count : nextOf) {
+            assertEquals(perProducer, count);
+        }
+    }
+}